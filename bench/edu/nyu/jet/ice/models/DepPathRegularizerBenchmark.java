@@ -0,0 +1,113 @@
+package edu.nyu.jet.ice.models;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmark for DepPathRegularizer.regularize(String):  compares the
+ * time of the single-pass regularizer with that of applying one pattern per
+ * quantifier.  That both give the same result is checked by
+ * DepPathRegularizerTest.
+ * <p>
+ * Usage:  DepPathRegularizerBenchmark [pathFile [rounds]]
+ * <p>
+ * It is kept in the bench source tree, outside the ICE sources, and is
+ * compiled and run with the ICE classes (and Jet) on the class path.
+ * It is in package edu.nyu.jet.ice.models to call regularizeByPatterns.
+ * <p>
+ * pathFile holds one path per line, for example a Relationtypes file of a
+ * corpus ("count TAB TYPE1 -- path -- TYPE2");  without it, random paths
+ * are generated, some of them with quantity phrases.
+ *
+ * @version 1.0
+ */
+public class DepPathRegularizerBenchmark {
+
+    static final String[] LABELS = {"nsubj", "dobj", "nsubj-1", "dobj-1", "prep_of", "prep_of-1",
+            "prep_in", "nn", "amod-1", "rcmod", "poss"};
+
+    static final String[] WORDS = {"sell", "buy", "pound", "ounce", "gram", "cocaine", "heroin",
+            "amount", "police", "seize", "12", "kilo", "city"};
+
+    public static void main(String[] args) throws IOException {
+        List<String> paths = args.length > 0 ? readPaths(args[0]) : randomPaths(100000, new Random(17));
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        DepPathRegularizer regularizer = new DepPathRegularizer();
+
+        int changed = 0;
+        for (String path : paths) {
+            if (!regularizer.regularize(path).equals(path)) changed++;
+        }
+        System.out.println(paths.size() + " paths, " + changed + " changed by regularization");
+
+        // warm up, then time
+        for (int i = 0; i < 3; i++) {
+            timePatterns(regularizer, paths, 1);
+            timeSinglePass(regularizer, paths, 1);
+        }
+        long patternTime = timePatterns(regularizer, paths, rounds);
+        long singlePassTime = timeSinglePass(regularizer, paths, rounds);
+        long calls = (long) paths.size() * rounds;
+        System.out.println(String.format("patterns:    %8.1f ns/path", (double) patternTime / calls));
+        System.out.println(String.format("single pass: %8.1f ns/path", (double) singlePassTime / calls));
+    }
+
+    static long timePatterns(DepPathRegularizer regularizer, List<String> paths, int rounds) {
+        long start = System.nanoTime();
+        int total = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String path : paths) {
+                total += regularizer.regularizeByPatterns(path).length();
+            }
+        }
+        long time = System.nanoTime() - start;
+        if (total == 42) System.out.println();
+        return time;
+    }
+
+    static long timeSinglePass(DepPathRegularizer regularizer, List<String> paths, int rounds) {
+        long start = System.nanoTime();
+        int total = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String path : paths) {
+                total += regularizer.regularize(path).length();
+            }
+        }
+        long time = System.nanoTime() - start;
+        if (total == 42) System.out.println();
+        return time;
+    }
+
+    static List<String> readPaths(String fileName) throws IOException {
+        List<String> paths = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int tab = line.indexOf('\t');
+            if (tab >= 0) line = line.substring(tab + 1);
+            String[] parts = line.split(" -- ");
+            paths.add(parts.length == 3 ? parts[1] : line);
+        }
+        reader.close();
+        return paths;
+    }
+
+    static List<String> randomPaths(int count, Random random) {
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            int length = 1 + random.nextInt(5);
+            StringBuilder sb = new StringBuilder();
+            sb.append(LABELS[random.nextInt(LABELS.length)]);
+            for (int j = 1; j < length; j++) {
+                sb.append(':').append(WORDS[random.nextInt(WORDS.length)]);
+                sb.append(':').append(LABELS[random.nextInt(LABELS.length)]);
+            }
+            paths.add(sb.toString());
+        }
+        return paths;
+    }
+}
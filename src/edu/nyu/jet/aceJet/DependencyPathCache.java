@@ -0,0 +1,74 @@
+package edu.nyu.jet.aceJet;
+
+import edu.nyu.jet.parser.SyntacticRelation;
+import edu.nyu.jet.parser.SyntacticRelationSet;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The dependency paths between the tokens of a document, as built by EventSyntacticPattern.buildSyntacticPath, found
+ * with one breadth-first search from each start token instead of one search for each pair of tokens.
+ * <p>
+ * buildSyntacticPath searches breadth-first from the start token, following the relations of each token in order,
+ * and returns the path to the token at which the end token is first reached. A complete search from the start token
+ * reaches every token the same way, so the paths from one token to all others are recorded by a single search and
+ * the paths of all pairs of mentions with the same head (which are in the same sentence, and so in the same tree)
+ * come from one search.
+ *
+ * @version 1.0
+ */
+class DependencyPathCache {
+
+	private final SyntacticRelationSet relations;
+
+	// for each start token searched from, the path to each token reached
+	private final Map<Integer, Map<Integer, String>> paths = new HashMap<Integer, Map<Integer, String>>();
+
+	// scratch space for searches
+	private final Map<Integer, String> prefixes = new HashMap<Integer, String>();
+	private final ArrayDeque<Integer> todo = new ArrayDeque<Integer>();
+
+	DependencyPathCache(SyntacticRelationSet relations) {
+		this.relations = relations;
+	}
+
+	/**
+	 * Returns the path from token <CODE>fromPosn</CODE> to token <CODE>toPosn</CODE>, as
+	 * <CODE>EventSyntacticPattern.buildSyntacticPath(fromPosn, toPosn, relations)</CODE> would, or null if there is
+	 * none.
+	 */
+	String buildSyntacticPath(int fromPosn, int toPosn) {
+		Map<Integer, String> pathsFrom = paths.get(fromPosn);
+		if (pathsFrom == null) {
+			pathsFrom = search(fromPosn);
+			paths.put(fromPosn, pathsFrom);
+		}
+		return pathsFrom.get(toPosn);
+	}
+
+	private Map<Integer, String> search(int fromPosn) {
+		Map<Integer, String> pathsFrom = new HashMap<Integer, String>();
+		// path to each token reached, followed by the word of the token, with a leading ':'
+		prefixes.clear();
+		todo.clear();
+		todo.add(fromPosn);
+		prefixes.put(fromPosn, "");
+		while (todo.size() > 0) {
+			Integer from = todo.removeFirst();
+			String prefix = prefixes.get(from);
+			SyntacticRelationSet fromSet = relations.getRelationsFrom(from.intValue());
+			for (int ifrom = 0; ifrom < fromSet.size(); ifrom++) {
+				SyntacticRelation r = fromSet.get(ifrom);
+				Integer to = r.targetPosn;
+				// avoid loops
+				if (prefixes.get(to) != null) continue;
+				pathsFrom.put(to, (prefix + ":" + r.type).substring(1));
+				prefixes.put(to, prefix + ":" + r.type + ":" + r.targetWord);
+				todo.add(to);
+			}
+		}
+		return pathsFrom;
+	}
+}
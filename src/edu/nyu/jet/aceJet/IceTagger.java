@@ -7,6 +7,8 @@ import edu.nyu.jet.tipster.Document;
 import edu.nyu.jet.tipster.ExternalDocument;
 import edu.nyu.jet.zoner.SentenceSet;
 import edu.nyu.jet.ice.models.DepPathRegularizer;
+import edu.nyu.jet.ice.models.MatcherPath;
+import edu.nyu.jet.ice.models.PathMatcher;
 import edu.nyu.jet.ice.relation.PathRelationExtractor;
 import edu.nyu.jet.ice.utils.IceUtils;
 import opennlp.model.Event;
@@ -18,6 +20,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -29,38 +32,39 @@ public class IceTagger {
 
 	final static Logger logger = LoggerFactory.getLogger(IceTagger.class);
 
-	static Document doc;
-	static AceDocument aceDoc;
 	static String currentDoc;
 	static PathRelationExtractor pathRelationExtractor;
 	static boolean searchMode = false;
 	private static DepPathRegularizer pathRegularizer = new DepPathRegularizer();
 
+	// normalized paths (null if a path is not to be matched) of the raw paths seen, up to MAX_NORMALIZED_PATHS
+	static final int MAX_NORMALIZED_PATHS = 100000;
+	private static final Map<String, String> normalizedPaths = new HashMap<String, String>();
+
 	// model: a map from AnchoredPath strings to relation types
 	static Map<String, String> model = null;
 
+	/**
+	 * The candidates of the ICE tagger, for an IceTaggerService: pairs of nearby entity mentions.
+	 */
+	public static final IceTaggerService.CandidateFinder CANDIDATES = new IceTaggerService.CandidateFinder() {
+		public List<IceTaggerService.Candidate> findCandidates(Document doc, AceDocument aceDoc) {
+			return IceTagger.findCandidates(doc, aceDoc);
+		}
+
+		public void addRelation(IceTaggerService.Candidate candidate, Document doc) {
+			IceTagger.addRelation(candidate, doc);
+		}
+	};
+
 	/**
 	 * relation 'decoder': identifies the relations in document 'doc' (from file name 'currentDoc') and adds them as
 	 * AceRelations to AceDocument 'aceDoc'.
 	 */
 
 	public static void findRelations(String currentDoc, Document d, AceDocument ad) {
-		doc = d;
-		RelationTagger.doc = d;
-		doc.relations.addInverses();
-		aceDoc = ad;
-		RelationTagger.docName = currentDoc;
-		RelationTagger.sentences = new SentenceSet(doc);
-		RelationTagger.relationList = new ArrayList<AceRelation>();
-		RelationTagger.findEntityMentions(aceDoc);
-		// collect all pairs of nearby mentions
-		List<AceEntityMention[]> pairs = RelationTagger.findMentionPairs();
-		// iterate over pairs of adjacent mentions, using model to determine which are ACE relations
-		for (AceEntityMention[] pair : pairs)
-			predictRelation(pair[0], pair[1], doc.relations);
-		// combine relation mentions into relations
-		RelationTagger.relationCoref(aceDoc);
-		RelationTagger.removeRedundantMentions(aceDoc);
+		IceTaggerService.tagDocument(currentDoc, d, ad, pathRelationExtractor, CANDIDATES);
+		logger.debug("Token similarity cache: {}", PathMatcher.similarityCache);
 	}
 
 	/**
@@ -76,32 +80,79 @@ public class IceTagger {
 	}
 
 	/**
-	 * use dependency paths to determine whether the pair of mentions bears some ACE relation; if so, add the relation to
-	 * relationList.
+	 * collects the pairs of nearby mentions in 'doc', with the paths between them. Uses (and sets) the static state of
+	 * RelationTagger, so the caller must hold the lock of RelationTagger.class.
 	 */
 
-	private static void predictRelation(AceEntityMention m1, AceEntityMention m2, SyntacticRelationSet relations) {
+	static List<IceTaggerService.Candidate> findCandidates(Document doc, AceDocument aceDoc) {
+		doc.relations.addInverses();
+		RelationTagger.sentences = new SentenceSet(doc);
+		RelationTagger.findEntityMentions(aceDoc);
+		// collect all pairs of nearby mentions
+		List<AceEntityMention[]> pairs = RelationTagger.findMentionPairs();
+		DependencyPathCache pathCache = new DependencyPathCache(doc.relations);
+		List<IceTaggerService.Candidate> candidates = new ArrayList<IceTaggerService.Candidate>();
+		for (AceEntityMention[] pair : pairs) {
+			MatcherPath path = candidatePath(pair[0], pair[1], pathCache);
+			if (path != null)
+				candidates.add(new IceTaggerService.Candidate(pair[0], pair[1], path));
+		}
+		return candidates;
+	}
+
+	/**
+	 * computes the dependency path between a pair of mentions, to be matched against the model, or null if there is none.
+	 */
+
+	private static MatcherPath candidatePath(AceEntityMention m1, AceEntityMention m2, DependencyPathCache pathCache) {
 		// compute path
 		int h1 = m1.getJetHead().start();
 		int h2 = m2.getJetHead().start();
-		String path = EventSyntacticPattern.buildSyntacticPath(h1, h2, relations);
+		String path = pathCache.buildSyntacticPath(h1, h2);
 		if (path == null)
-			return;
-		path = AnchoredPath.reduceConjunction(path);
+			return null;
+		path = normalizePath(path);
 		if (path == null)
-			return;
-		path = AnchoredPath.lemmatizePath(path);
-		// simplify path to improve recall
-		path = path.replace("would:vch:", "");
-		path = path.replace("be:vch:", "");
-		path = path.replace("were:vch:", "");
-		// build pattern = path + arg types
-		String pattern = m1.entity.type + "--" + path + "--" + m2.entity.type;
-		// look up path in model
-		Event event = new Event("UNK", new String[] { pathRegularizer.regularize(path), m1.entity.type, m2.entity.type });
-		String outcome = pathRelationExtractor.predict(event);
-		if (outcome == null)
-			return;
+			return null;
+		Event event = new Event("UNK", new String[] { path, m1.entity.type, m2.entity.type });
+		return PathRelationExtractor.toMatcherPath(event);
+	}
+
+	/**
+	 * simplifies and regularizes a dependency path, or returns null if it should not be matched. Paths recur across
+	 * pairs of mentions and documents, so the results are remembered.
+	 */
+
+	private static String normalizePath(String rawPath) {
+		synchronized (normalizedPaths) {
+			if (normalizedPaths.containsKey(rawPath))
+				return normalizedPaths.get(rawPath);
+		}
+		String path = AnchoredPath.reduceConjunction(rawPath);
+		if (path != null) {
+			path = AnchoredPath.lemmatizePath(path);
+			// simplify path to improve recall
+			path = path.replace("would:vch:", "");
+			path = path.replace("be:vch:", "");
+			path = path.replace("were:vch:", "");
+			path = pathRegularizer.regularize(path);
+		}
+		synchronized (normalizedPaths) {
+			if (normalizedPaths.size() >= MAX_NORMALIZED_PATHS)
+				normalizedPaths.clear();
+			normalizedPaths.put(rawPath, path);
+		}
+		return path;
+	}
+
+	/**
+	 * adds the relation predicted by the model for a candidate pair of mentions to relationList.
+	 */
+
+	private static void addRelation(IceTaggerService.Candidate candidate, Document doc) {
+		String outcome = candidate.outcome;
+		AceEntityMention m1 = (AceEntityMention) candidate.m1;
+		AceEntityMention m2 = (AceEntityMention) candidate.m2;
 		// if (!RelationTagger.blockingTest(m1, m2)) return;
 		// if (!RelationTagger.blockingTest(m2, m1)) return;
 		String[] typeSubtype = outcome.split(":", 2);
@@ -187,18 +238,10 @@ public class IceTagger {
 			// pathRelationExtractor.updateCost(100, 100, 100);
 			pathRelationExtractor.updateWeights(0.8, 0.3, 1.2);
 			pathRelationExtractor.setNegDiscount(1);
-			for (int i = 0; i < txtFiles.length; i++) {
-				Resolve.ACE = true;
-				String fileName = txtFiles[i];
-				ExternalDocument doc = new ExternalDocument("sgml", fileName);
-				doc.open();
-				AceDocument aceDocument = Ace.processDocument(doc, "doc", fileName, ".");
-				findRelations(fileName, doc, aceDocument);
-				PrintWriter pw = new PrintWriter(new FileWriter(outputFiles[i]));
-				aceDocument.write(pw, doc);
-				pw.close();
-				// sellScorer.scoreDocument(fileName, outputFiles[i], answerFiles[i]);
-			}
+			// read the documents in turn, matching the candidates of each batch with all cores
+			IceTaggerService service = new IceTaggerService(pathRelationExtractor, CANDIDATES);
+			service.tag(IceTaggerService.processDocuments(txtFiles, outputFiles, false), IceTaggerService.WRITE_APF);
+			service.shutdown();
 
 		}
 	}
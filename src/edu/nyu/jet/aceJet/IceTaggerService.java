@@ -0,0 +1,319 @@
+package edu.nyu.jet.aceJet;
+
+import edu.nyu.jet.ice.models.MatcherPath;
+import edu.nyu.jet.ice.models.PathMatcher;
+import edu.nyu.jet.ice.relation.PathRelationExtractor;
+import edu.nyu.jet.refres.Resolve;
+import edu.nyu.jet.tipster.Document;
+import edu.nyu.jet.tipster.ExternalDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A relation tagger service which tags a stream of documents with a loaded rule model, matching the candidate paths
+ * of a batch of documents against the rules with several threads.
+ * <p>
+ * Finding the candidates of a document and turning the matches into relations use the static state of Jet's
+ * RelationTagger, so these steps are done one document at a time, holding the lock of RelationTagger.class (as do
+ * IceTagger.findRelations and RelaxedDepPathRelationTagger.findRelations). Matching, which takes most of the time, only
+ * reads the model, so several services, or several threads calling one service, may tag at once.
+ *
+ * @version 1.0
+ */
+public class IceTaggerService {
+
+	final static Logger logger = LoggerFactory.getLogger(IceTaggerService.class);
+
+	/**
+	 * The number of documents whose candidates are matched together.
+	 */
+	public static int BATCH_SIZE = 32;
+
+	// candidates per matching task
+	static final int CANDIDATES_PER_TASK = 64;
+
+	/**
+	 * A pair of mentions which may bear a relation, with the path between them.
+	 */
+	public static class Candidate {
+		final AceMention m1;
+		final AceMention m2;
+		final MatcherPath path;
+		String outcome = null;
+
+		Candidate(AceMention m1, AceMention m2, MatcherPath path) {
+			this.m1 = m1;
+			this.m2 = m2;
+			this.path = path;
+		}
+	}
+
+	/**
+	 * The parts of a tagger which depend on Jet's static state: finding the candidates of a document and adding a
+	 * relation found to RelationTagger.relationList.
+	 */
+	public interface CandidateFinder {
+		List<Candidate> findCandidates(Document doc, AceDocument aceDoc);
+
+		void addRelation(Candidate candidate, Document doc);
+	}
+
+	/**
+	 * A document to be tagged:  <CODE>aceDoc</CODE> holds its entities, and receives the relations found.
+	 */
+	public static class Job {
+		public final String docName;
+		public final Document doc;
+		public final AceDocument aceDoc;
+		// where WRITE_APF writes the relations found, if anywhere
+		public String apfFile = null;
+		List<Candidate> candidates;
+
+		public Job(String docName, Document doc, AceDocument aceDoc) {
+			this.docName = docName;
+			this.doc = doc;
+			this.aceDoc = aceDoc;
+		}
+	}
+
+	/**
+	 * Receives each document once its relations have been added, in the order the documents were given, for example
+	 * to write the APF file.
+	 */
+	public interface Listener {
+		void tagged(Job job) throws IOException;
+	}
+
+	/**
+	 * Writes each document tagged to its <CODE>apfFile</CODE>.
+	 */
+	public static final Listener WRITE_APF = new Listener() {
+		public void tagged(Job job) throws IOException {
+			if (job.apfFile == null)
+				return;
+			PrintWriter pw = new PrintWriter(new FileWriter(job.apfFile));
+			job.aceDoc.write(pw, job.doc);
+			pw.close();
+		}
+	};
+
+	/**
+	 * Returns jobs for the documents <CODE>txtFiles</CODE>, to be written to <CODE>apfFiles</CODE>. Each document is
+	 * read and processed by Ace.processDocument when its job is reached;  as Ace keeps its state in static fields,
+	 * this holds the lock of RelationTagger.class too.
+	 */
+	public static Iterator<Job> processDocuments(final String[] txtFiles, final String[] apfFiles,
+												 final boolean allTags) {
+		return new Iterator<Job>() {
+			int i = 0;
+
+			public boolean hasNext() {
+				return i < txtFiles.length;
+			}
+
+			public Job next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				String fileName = txtFiles[i];
+				ExternalDocument doc = new ExternalDocument("sgml", fileName);
+				if (allTags)
+					doc.setAllTags(true);
+				doc.open();
+				AceDocument aceDoc;
+				synchronized (RelationTagger.class) {
+					Resolve.ACE = true;
+					aceDoc = Ace.processDocument(doc, "doc", fileName, ".");
+				}
+				Job job = new Job(fileName, doc, aceDoc);
+				job.apfFile = apfFiles[i];
+				i++;
+				return job;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private final PathRelationExtractor extractor;
+	private final CandidateFinder finder;
+	private final int numThreads;
+	private ExecutorService pool = null;
+
+	/**
+	 * Creates a service tagging with the rules of <CODE>extractor</CODE> and the candidates of <CODE>finder</CODE>
+	 * (IceTagger.CANDIDATES or RelaxedDepPathRelationTagger.CANDIDATES), matching with <CODE>numThreads</CODE>
+	 * threads.
+	 */
+	public IceTaggerService(PathRelationExtractor extractor, CandidateFinder finder, int numThreads) {
+		this.extractor = extractor;
+		this.finder = finder;
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public IceTaggerService(PathRelationExtractor extractor, CandidateFinder finder) {
+		this(extractor, finder, Runtime.getRuntime().availableProcessors());
+	}
+
+	public PathRelationExtractor getExtractor() {
+		return extractor;
+	}
+
+	/**
+	 * Tags the documents of <CODE>jobs</CODE>, BATCH_SIZE documents at a time, passing each to <CODE>listener</CODE>
+	 * when tagged.
+	 */
+	public void tag(Iterator<Job> jobs, Listener listener) {
+		List<Job> batch = new ArrayList<Job>();
+		while (jobs.hasNext()) {
+			batch.add(jobs.next());
+			if (batch.size() == BATCH_SIZE || !jobs.hasNext()) {
+				tagBatch(batch, listener);
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Tags the documents of <CODE>batch</CODE>, matching their candidates together.  If matching fails, its exception
+	 * is thrown and none of the documents is passed to <CODE>listener</CODE>, rather than passing them with the
+	 * relations of the failed candidates missing.
+	 */
+	public void tagBatch(List<Job> batch, Listener listener) {
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (Job job : batch) {
+			synchronized (RelationTagger.class) {
+				begin(job.docName, job.doc);
+				job.candidates = finder.findCandidates(job.doc, job.aceDoc);
+			}
+			candidates.addAll(job.candidates);
+		}
+		match(candidates);
+		for (Job job : batch) {
+			synchronized (RelationTagger.class) {
+				begin(job.docName, job.doc);
+				addRelations(job.candidates, finder, job.doc, job.aceDoc);
+			}
+			job.candidates = null;
+			if (listener != null) {
+				try {
+					listener.tagged(job);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		logger.debug("Token similarity cache: {}", PathMatcher.similarityCache);
+	}
+
+	/**
+	 * Tags one document with <CODE>extractor</CODE>, on the calling thread.
+	 */
+	static void tagDocument(String docName, Document doc, AceDocument aceDoc,
+							PathRelationExtractor extractor, CandidateFinder finder) {
+		synchronized (RelationTagger.class) {
+			begin(docName, doc);
+			List<Candidate> candidates = finder.findCandidates(doc, aceDoc);
+			for (Candidate candidate : candidates) {
+				candidate.outcome = extractor.predict(candidate.path, "UNK");
+			}
+			addRelations(candidates, finder, doc, aceDoc);
+		}
+	}
+
+	// RelationTagger's state for a document;  the caller holds the lock of RelationTagger.class
+	private static void begin(String docName, Document doc) {
+		RelationTagger.doc = doc;
+		RelationTagger.docName = docName;
+		RelationTagger.relationList = new ArrayList<AceRelation>();
+	}
+
+	private static void addRelations(List<Candidate> candidates, CandidateFinder finder,
+									 Document doc, AceDocument aceDoc) {
+		for (Candidate candidate : candidates) {
+			if (candidate.outcome != null) {
+				finder.addRelation(candidate, doc);
+			}
+		}
+		// combine relation mentions into relations
+		RelationTagger.relationCoref(aceDoc);
+		RelationTagger.removeRedundantMentions(aceDoc);
+	}
+
+	private void match(final List<Candidate> candidates) {
+		if (numThreads == 1 || candidates.size() <= CANDIDATES_PER_TASK) {
+			for (Candidate candidate : candidates) {
+				candidate.outcome = extractor.predict(candidate.path, "UNK");
+			}
+			return;
+		}
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (int start = 0; start < candidates.size(); start += CANDIDATES_PER_TASK) {
+			final int from = start;
+			final int to = Math.min(start + CANDIDATES_PER_TASK, candidates.size());
+			tasks.add(pool().submit(new Callable<Object>() {
+				public Object call() {
+					for (Candidate candidate : candidates.subList(from, to)) {
+						candidate.outcome = extractor.predict(candidate.path, "UNK");
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while matching candidates", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			for (Future<?> task : tasks) {
+				task.cancel(true);
+			}
+		}
+	}
+
+	private synchronized ExecutorService pool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "IceTaggerService");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Stops the matching threads.  The service may still be used, and starts new threads if needed.
+	 */
+	public synchronized void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package edu.nyu.jet.aceJet;
 
 import edu.nyu.jet.ice.models.DepPathRegularizer;
+import edu.nyu.jet.ice.models.MatcherPath;
+import edu.nyu.jet.ice.models.PathMatcher;
 import edu.nyu.jet.ice.utils.IceUtils;
 import edu.nyu.jet.JetTest;
 import edu.nyu.jet.parser.SyntacticRelationSet;
@@ -16,6 +18,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -28,30 +31,53 @@ public class RelaxedDepPathRelationTagger {
 
 	final static Logger logger = LoggerFactory.getLogger(RelaxedDepPathRelationTagger.class);
 
-	static Document doc;
-	static AceDocument aceDoc;
 	static String currentDoc;
 	static PathRelationExtractor pathRelationExtractor;
 	static boolean searchMode = true;
 	private static DepPathRegularizer pathRegularizer = new DepPathRegularizer();
 
+	// normalized paths (null if a path is not to be matched) of the raw paths seen, up to MAX_NORMALIZED_PATHS
+	static final int MAX_NORMALIZED_PATHS = 100000;
+	private static final Map<String, String> normalizedPaths = new HashMap<String, String>();
+
 	// model: a map from AnchoredPath strings to relation types
 	static Map<String, String> model = null;
 
+	/**
+	 * The candidates of the relaxed tagger, for an IceTaggerService: pairs of mentions at most 4 apart in the same
+	 * sentence.
+	 */
+	public static final IceTaggerService.CandidateFinder CANDIDATES = new IceTaggerService.CandidateFinder() {
+		public List<IceTaggerService.Candidate> findCandidates(Document doc, AceDocument aceDoc) {
+			return RelaxedDepPathRelationTagger.findCandidates(doc, aceDoc);
+		}
+
+		public void addRelation(IceTaggerService.Candidate candidate, Document doc) {
+			RelaxedDepPathRelationTagger.addRelation(candidate, doc);
+		}
+	};
+
 	/**
 	 * relation 'decoder': identifies the relations in document 'doc' (from file name 'currentDoc') and adds them as
 	 * AceRelations to AceDocument 'aceDoc'.
 	 */
 
 	public static void findRelations(String currentDoc, Document d, AceDocument ad) {
-		doc = d;
-		RelationTagger.doc = d;
+		IceTaggerService.tagDocument(currentDoc, d, ad, pathRelationExtractor, CANDIDATES);
+		logger.debug("Token similarity cache: {}", PathMatcher.similarityCache);
+	}
+
+	/**
+	 * collects the pairs of nearby mentions in 'doc', with the paths between them. The caller must hold the lock of
+	 * RelationTagger.class.
+	 */
+
+	static List<IceTaggerService.Candidate> findCandidates(Document doc, AceDocument aceDoc) {
 		doc.relations.addInverses();
-		aceDoc = ad;
-		RelationTagger.docName = currentDoc;
 		SentenceSet sentences = new SentenceSet(doc);
-		RelationTagger.relationList = new ArrayList<AceRelation>();
 		// RelationTagger.findEntityMentions (aceDoc);
+		DependencyPathCache pathCache = new DependencyPathCache(doc.relations);
+		List<IceTaggerService.Candidate> candidates = new ArrayList<IceTaggerService.Candidate>();
 		AceMention[] ray = aceDoc.allMentionsList.toArray(new AceMention[0]);
 		Arrays.sort(ray);
 		for (int i = 0; i < ray.length - 1; i++) {
@@ -66,12 +92,12 @@ public class RelaxedDepPathRelationTagger {
 
 				// System.out.println(doc.relations);
 
-				predictRelation(m1, m2, doc.relations);
+				MatcherPath path = candidatePath(m1, m2, pathCache);
+				if (path != null)
+					candidates.add(new IceTaggerService.Candidate(m1, m2, path));
 			}
 		}
-		// combine relation mentions into relations
-		RelationTagger.relationCoref(aceDoc);
-		RelationTagger.removeRedundantMentions(aceDoc);
+		return candidates;
 	}
 
 	/**
@@ -87,31 +113,58 @@ public class RelaxedDepPathRelationTagger {
 	}
 
 	/**
-	 * use dependency paths to determine whether the pair of mentions bears some ACE relation; if so, add the relation to
-	 * relationList.
+	 * computes the dependency path between a pair of mentions, to be matched against the model, or null if there is none.
 	 */
 
-	private static void predictRelation(AceMention m1, AceMention m2, SyntacticRelationSet relations) {
+	private static MatcherPath candidatePath(AceMention m1, AceMention m2, DependencyPathCache pathCache) {
 		// compute path
 		int h1 = m1.getJetHead().start();
 		int h2 = m2.getJetHead().start();
-		String path = EventSyntacticPattern.buildSyntacticPath(h1, h2, relations);
+		String path = pathCache.buildSyntacticPath(h1, h2);
 
 		// logger.info(path);
 
 		if (path == null)
-			return;
-		path = AnchoredPath.reduceConjunction(path);
-
+			return null;
+		path = normalizePath(path);
 		if (path == null)
-			return;
-		path = AnchoredPath.lemmatizePath(path); // telling -> tell, does -> do, watched -> watch, etc.
-
-		// look up path in model
-		Event event = new Event("UNK", new String[] { pathRegularizer.regularize(path), m1.getType(), m2.getType() });
-		String outcome = pathRelationExtractor.predict(event);
-		if (outcome == null)
-			return;
+			return null;
+
+		Event event = new Event("UNK", new String[] { path, m1.getType(), m2.getType() });
+		return PathRelationExtractor.toMatcherPath(event);
+	}
+
+	/**
+	 * simplifies and regularizes a dependency path, or returns null if it should not be matched. Paths recur across
+	 * pairs of mentions and documents, so the results are remembered.
+	 */
+
+	private static String normalizePath(String rawPath) {
+		synchronized (normalizedPaths) {
+			if (normalizedPaths.containsKey(rawPath))
+				return normalizedPaths.get(rawPath);
+		}
+		String path = AnchoredPath.reduceConjunction(rawPath);
+		if (path != null) {
+			path = AnchoredPath.lemmatizePath(path); // telling -> tell, does -> do, watched -> watch, etc.
+			path = pathRegularizer.regularize(path);
+		}
+		synchronized (normalizedPaths) {
+			if (normalizedPaths.size() >= MAX_NORMALIZED_PATHS)
+				normalizedPaths.clear();
+			normalizedPaths.put(rawPath, path);
+		}
+		return path;
+	}
+
+	/**
+	 * adds the relation predicted by the model for a candidate pair of mentions to relationList.
+	 */
+
+	private static void addRelation(IceTaggerService.Candidate candidate, Document doc) {
+		String outcome = candidate.outcome;
+		AceMention m1 = candidate.m1;
+		AceMention m2 = candidate.m2;
 		// if (!RelationTagger.blockingTest(m1, m2)) return;
 		// if (!RelationTagger.blockingTest(m2, m1)) return;
 		boolean inv = outcome.endsWith("-1");
@@ -5,13 +5,10 @@ import org.la4j.vector.dense.BasicVector;
 import org.la4j.vector.DenseVector;
 import org.la4j.vector.sparse.CompressedVector;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import edu.nyu.jet.ice.models.EmbeddingStore;
+
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.StringTokenizer;
+import java.util.*;
 
 /**
  * Expand entity sets according to distributional similarity. Each noun group is represented by
@@ -28,26 +25,12 @@ public class EmbeddingEntitySetExpander extends EntitySetExpander {
     public EmbeddingEntitySetExpander(String indexFileName, List<String> seeds) {
         used = new HashSet<String>();
         entityFeatureDict = new HashMap<String, Vector>();
-        String line;
         try {
-            BufferedReader br = new BufferedReader(new FileReader(indexFileName));
-            line = br.readLine();
-            int featureSize = Integer.valueOf(line.split(" ")[1]);
+            EmbeddingStore store = EmbeddingStore.open(indexFileName);
+            int featureSize = store.dimension();
             centroid = new BasicVector(featureSize);
             negativeCentroid = new BasicVector(featureSize);
-
-            while ((line = br.readLine()) != null) {
-                StringTokenizer tok = new StringTokenizer(line);
-                String word = tok.nextToken().replaceAll("_", " ");
-                Vector v = new BasicVector(featureSize); //BasicVector
-                int i = 0;
-                while (tok.hasMoreTokens()) {
-                    v.set(i, Double.valueOf(tok.nextToken()));
-                    i++;
-                }
-                entityFeatureDict.put(word, v);
-            }
-            br.close();
+            entityFeatureDict = new FeatureDict(store.phraseMap(false));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -59,4 +42,66 @@ public class EmbeddingEntitySetExpander extends EntitySetExpander {
             }
         }
     }
+
+    /**
+     * The embeddings of a shared EmbeddingStore, seen as a map from phrases to vectors.  Vectors
+     * are created as they are requested rather than all held in memory.
+     */
+    static class FeatureDict extends AbstractMap<String, Vector> {
+
+        private final Map<String, double[]> phrases;
+
+        FeatureDict(Map<String, double[]> phrases) {
+            this.phrases = phrases;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return phrases.containsKey(key);
+        }
+
+        @Override
+        public Vector get(Object key) {
+            double[] v = phrases.get(key);
+            return v == null ? null : new BasicVector(v);
+        }
+
+        @Override
+        public int size() {
+            return phrases.size();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return phrases.keySet();
+        }
+
+        @Override
+        public Set<Map.Entry<String, Vector>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Vector>>() {
+                public int size() {
+                    return phrases.size();
+                }
+
+                public Iterator<Map.Entry<String, Vector>> iterator() {
+                    final Iterator<Map.Entry<String, double[]>> entries = phrases.entrySet().iterator();
+                    return new Iterator<Map.Entry<String, Vector>>() {
+                        public boolean hasNext() {
+                            return entries.hasNext();
+                        }
+
+                        public Map.Entry<String, Vector> next() {
+                            Map.Entry<String, double[]> entry = entries.next();
+                            return new SimpleImmutableEntry<String, Vector>(entry.getKey(),
+                                    new BasicVector(entry.getValue()));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
 }
@@ -152,12 +152,11 @@ public class EntitySetIndexer {
                         doc.open();
                         // process document
                         Ace.monocase = Ace.allLowerCase(doc);
-                        Control.processDocument(doc, null, false, docCount);
-
                         IcePreprocessor.fetchAnnotations(
                                 FileNameSchema.getPreprocessCacheDir(Ice.selectedCorpusName),
                                 inputDir,
                                 inputFile);
+                        IcePreprocessor.processDocument(doc, docCount);
                         IcePreprocessor.loadPOS(doc);
                         SyntacticRelationSet syntacticRelationSet = IcePreprocessor.loadSyntacticRelationSet();
                         List<Annotation> sentences = doc.annotationsOfType("sentence");
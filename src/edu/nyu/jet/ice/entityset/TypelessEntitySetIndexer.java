@@ -147,12 +147,11 @@ public class TypelessEntitySetIndexer {
 				doc.open();
 				// process document
 				Ace.monocase = Ace.allLowerCase(doc);
-				Control.processDocument(doc, null, false, docCount);
-
                                 IcePreprocessor.fetchAnnotations(
                                         FileNameSchema.getPreprocessCacheDir(Ice.selectedCorpusName),
                                         inputDir,
                                         inputFile);
+				IcePreprocessor.processDocument(doc, docCount);
                                 IcePreprocessor.loadPOS(doc);
                                 SyntacticRelationSet syntacticRelationSet = IcePreprocessor.loadSyntacticRelationSet();
 
@@ -0,0 +1,535 @@
+package edu.nyu.jet.ice.models;
+
+import edu.nyu.jet.aceJet.AnchoredPath;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * The relation instances of a corpus (the file written by DepPaths, one "count TAB arg1 -- path -- arg2" line per
+ * instance), indexed by path and by argument pair, in a binary file which is memory-mapped instead of parsed.
+ * <p>
+ * The index is written by DepPaths next to the relation instance file, with suffix <CODE>.idx</CODE>, and is rebuilt
+ * when first opened if the instance file is newer. It holds
+ * <ul>
+ * <li>a table of the distinct strings of the instances (paths and arguments), each written once,
+ * <li>the paths, sorted, so that path ids are found by binary search,
+ * <li>the argument pairs, sorted by their "arg1:arg2" form (as used by the bootstrappers), likewise, and their keys:
+ * pairs whose arguments differ but whose "arg1:arg2" forms are the same have the same key,
+ * <li>for each path, the ids of its argument pairs, and for each argument pair, the ids of its paths. These posting
+ * lists are sorted, and written as the differences between successive ids, as variable-length integers, and
+ * <li>for each path, the number of keys of its argument pairs.
+ * </ul>
+ * Indexes are shared:  <CODE>open</CODE> returns the same index to all callers until the file changes, and it may be
+ * searched by several threads at once. <CODE>getByPath</CODE> and <CODE>getByArgs</CODE> answer as those of
+ * AnchoredPathSet, except that the instances are returned in the order of the index rather than of the file.
+ *
+ * @version 1.0
+ */
+public class AnchoredPathIndex {
+
+	public static final String SUFFIX = ".idx";
+
+	static final int MAGIC = 0x49434550;
+	static final int FORMAT_VERSION = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static Map<String, AnchoredPathIndex> indexes = new HashMap<String, AnchoredPathIndex>();
+
+	private final File file;
+	private final long lastModified;
+	private final ByteBuffer buffer;
+
+	private final int stringCount;
+	private final int pathCount;
+	private final int pairCount;
+	private final int keyCount;
+	// positions of the sections of the file
+	private final int stringOffsets;
+	private final int stringBytes;
+	private final int paths;
+	private final int pairs;
+	private final int keyOfPair;
+	private final int keyStart;
+	private final int pathKeyCounts;
+	private final int pathPostingOffsets;
+	private final int pairPostingOffsets;
+	private final int postings;
+
+	/**
+	 * Returns the index of relation instance file <CODE>instanceFile</CODE>, writing it first if it is missing or
+	 * older than the instance file.
+	 */
+	public static synchronized AnchoredPathIndex open(String instanceFile) throws IOException {
+		File textFile = new File(instanceFile);
+		File indexFile = new File(instanceFile + SUFFIX);
+		if (!indexFile.exists() || (textFile.exists() && indexFile.lastModified() < textFile.lastModified())) {
+			build(instanceFile);
+		}
+		String key = indexFile.getCanonicalPath();
+		AnchoredPathIndex index = indexes.get(key);
+		if (index == null || index.lastModified != indexFile.lastModified()) {
+			if (!isCurrentFormat(indexFile)) {
+				build(instanceFile);
+			}
+			index = new AnchoredPathIndex(indexFile);
+			indexes.put(key, index);
+		}
+		return index;
+	}
+
+	// false for indexes written in an earlier format
+	private static boolean isCurrentFormat(File indexFile) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+		try {
+			return in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the index of relation instance file <CODE>instanceFile</CODE>.
+	 */
+	public static void build(String instanceFile) throws IOException {
+		File textFile = new File(instanceFile);
+		File indexFile = new File(instanceFile + SUFFIX);
+		// write to a temporary file first, as bootstrappers may be reading the old one
+		File tempFile = File.createTempFile("instances", SUFFIX, textFile.getAbsoluteFile().getParentFile());
+		try {
+			write(textFile, tempFile);
+			indexFile.delete();
+			if (!tempFile.renameTo(indexFile)) {
+				throw new IOException("Cannot rename " + tempFile + " to " + indexFile);
+			}
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * An argument pair, ordered by its "arg1:arg2" form.
+	 */
+	private static class ArgPair implements Comparable<ArgPair> {
+		final String arg1;
+		final String arg2;
+		final String key;
+
+		ArgPair(String arg1, String arg2) {
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+			this.key = arg1 + ":" + arg2;
+		}
+
+		public int compareTo(ArgPair other) {
+			int c = key.compareTo(other.key);
+			return c != 0 ? c : arg1.compareTo(other.arg1);
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof ArgPair && arg1.equals(((ArgPair) o).arg1) && arg2.equals(((ArgPair) o).arg2);
+		}
+
+		public int hashCode() {
+			return arg1.hashCode() * 31 + arg2.hashCode();
+		}
+	}
+
+	static void write(File textFile, File indexFile) throws IOException {
+		// instances, as (path, argument pair)
+		Map<String, Set<ArgPair>> pairsOfPath = new HashMap<String, Set<ArgPair>>();
+		Set<ArgPair> allPairs = new HashSet<ArgPair>();
+		BufferedReader reader = new BufferedReader(new FileReader(textFile));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String instance = line.substring(line.indexOf('\t') + 1);
+				int first = instance.indexOf(" -- ");
+				int last = instance.lastIndexOf(" -- ");
+				if (first < 0 || last == first) continue;
+				String path = instance.substring(first + 4, last);
+				ArgPair pair = new ArgPair(instance.substring(0, first), instance.substring(last + 4));
+				Set<ArgPair> pairs = pairsOfPath.get(path);
+				if (pairs == null) {
+					pairs = new HashSet<ArgPair>();
+					pairsOfPath.put(path, pairs);
+				}
+				pairs.add(pair);
+				allPairs.add(pair);
+			}
+		} finally {
+			reader.close();
+		}
+		List<String> paths = new ArrayList<String>(pairsOfPath.keySet());
+		Collections.sort(paths);
+		List<ArgPair> pairs = new ArrayList<ArgPair>(allPairs);
+		Collections.sort(pairs);
+		Map<ArgPair, Integer> pairIds = new HashMap<ArgPair, Integer>();
+		// pairs with the same key are adjacent
+		int[] keyOfPair = new int[pairs.size()];
+		List<Integer> keyStart = new ArrayList<Integer>();
+		for (int i = 0; i < pairs.size(); i++) {
+			pairIds.put(pairs.get(i), i);
+			if (i == 0 || !pairs.get(i).key.equals(pairs.get(i - 1).key)) {
+				keyStart.add(i);
+			}
+			keyOfPair[i] = keyStart.size() - 1;
+		}
+		keyStart.add(pairs.size());
+		Map<String, Integer> stringIds = new LinkedHashMap<String, Integer>();
+		for (String path : paths) {
+			id(stringIds, path);
+		}
+		for (ArgPair pair : pairs) {
+			id(stringIds, pair.arg1);
+			id(stringIds, pair.arg2);
+		}
+
+		// posting lists
+		int[][] pathPostings = new int[paths.size()][];
+		int[] pathKeyCounts = new int[paths.size()];
+		List<List<Integer>> pairPostingLists = new ArrayList<List<Integer>>(pairs.size());
+		for (int i = 0; i < pairs.size(); i++) {
+			pairPostingLists.add(new ArrayList<Integer>());
+		}
+		for (int p = 0; p < paths.size(); p++) {
+			Set<ArgPair> pairsOfP = pairsOfPath.get(paths.get(p));
+			int[] ids = new int[pairsOfP.size()];
+			int n = 0;
+			for (ArgPair pair : pairsOfP) {
+				ids[n++] = pairIds.get(pair);
+			}
+			Arrays.sort(ids);
+			pathPostings[p] = ids;
+			for (int i = 0; i < ids.length; i++) {
+				if (i == 0 || keyOfPair[ids[i]] != keyOfPair[ids[i - 1]]) {
+					pathKeyCounts[p]++;
+				}
+			}
+			for (int id : ids) {
+				// paths are taken in order, so these lists are sorted
+				pairPostingLists.get(id).add(p);
+			}
+		}
+		ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+		int[] pathPostingOffsets = new int[paths.size() + 1];
+		for (int p = 0; p < paths.size(); p++) {
+			pathPostingOffsets[p] = postingBytes.size();
+			writePostings(postingBytes, pathPostings[p]);
+		}
+		pathPostingOffsets[paths.size()] = postingBytes.size();
+		int[] pairPostingOffsets = new int[pairs.size() + 1];
+		for (int i = 0; i < pairs.size(); i++) {
+			pairPostingOffsets[i] = postingBytes.size();
+			List<Integer> list = pairPostingLists.get(i);
+			int[] ids = new int[list.size()];
+			for (int j = 0; j < ids.length; j++) {
+				ids[j] = list.get(j);
+			}
+			writePostings(postingBytes, ids);
+		}
+		pairPostingOffsets[pairs.size()] = postingBytes.size();
+		ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+		int[] stringOffsets = new int[stringIds.size()];
+		int n = 0;
+		for (String s : stringIds.keySet()) {
+			stringOffsets[n++] = stringBytes.size();
+			byte[] bytes = s.getBytes(UTF8);
+			stringBytes.write(bytes, 0, bytes.length);
+		}
+
+		// the index is read through int positions, so it must be smaller than 2 GB
+		long size = 24 + 4L * stringIds.size() + 4 + stringBytes.size()
+				+ 4L * paths.size() + 8L * pairs.size() + 4L * pairs.size() + 4L * keyStart.size()
+				+ 4L * paths.size() + 4L * (paths.size() + 1) + 4L * (pairs.size() + 1) + postingBytes.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Index of " + textFile + " would take " + size + " bytes, more than "
+					+ Integer.MAX_VALUE);
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(stringIds.size());
+			out.writeInt(paths.size());
+			out.writeInt(pairs.size());
+			out.writeInt(keyStart.size() - 1);
+			for (int offset : stringOffsets) {
+				out.writeInt(offset);
+			}
+			out.writeInt(stringBytes.size());
+			stringBytes.writeTo(out);
+			for (String path : paths) {
+				out.writeInt(stringIds.get(path));
+			}
+			for (ArgPair pair : pairs) {
+				out.writeInt(stringIds.get(pair.arg1));
+				out.writeInt(stringIds.get(pair.arg2));
+			}
+			for (int key : keyOfPair) {
+				out.writeInt(key);
+			}
+			for (int start : keyStart) {
+				out.writeInt(start);
+			}
+			for (int count : pathKeyCounts) {
+				out.writeInt(count);
+			}
+			for (int offset : pathPostingOffsets) {
+				out.writeInt(offset);
+			}
+			for (int offset : pairPostingOffsets) {
+				out.writeInt(offset);
+			}
+			postingBytes.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int id(Map<String, Integer> stringIds, String s) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = stringIds.size();
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	// writes sorted ids as the differences from the previous id, 7 bits per byte, low bits first
+	private static void writePostings(ByteArrayOutputStream out, int[] ids) {
+		int previous = 0;
+		for (int id : ids) {
+			int delta = id - previous;
+			previous = id;
+			while ((delta & ~0x7f) != 0) {
+				out.write((delta & 0x7f) | 0x80);
+				delta >>>= 7;
+			}
+			out.write(delta);
+		}
+	}
+
+	AnchoredPathIndex(File indexFile) throws IOException {
+		file = indexFile;
+		lastModified = indexFile.lastModified();
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		if (buffer.capacity() < 24 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+			throw new IOException(indexFile + " is not a relation instance index");
+		}
+		stringCount = buffer.getInt(8);
+		pathCount = buffer.getInt(12);
+		pairCount = buffer.getInt(16);
+		keyCount = buffer.getInt(20);
+		stringOffsets = 24;
+		int stringBytesLength = buffer.getInt(stringOffsets + 4 * stringCount);
+		stringBytes = stringOffsets + 4 * stringCount + 4;
+		paths = stringBytes + stringBytesLength;
+		pairs = paths + 4 * pathCount;
+		keyOfPair = pairs + 8 * pairCount;
+		keyStart = keyOfPair + 4 * pairCount;
+		pathKeyCounts = keyStart + 4 * (keyCount + 1);
+		pathPostingOffsets = pathKeyCounts + 4 * pathCount;
+		pairPostingOffsets = pathPostingOffsets + 4 * (pathCount + 1);
+		postings = pairPostingOffsets + 4 * (pairCount + 1);
+	}
+
+	public int pathCount() {
+		return pathCount;
+	}
+
+	public int pairCount() {
+		return pairCount;
+	}
+
+	public int keyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * Returns the instances of path <CODE>path</CODE>, or <CODE>null</CODE> if there are none.
+	 */
+	public List<AnchoredPath> getByPath(String path) {
+		int p = findPath(path);
+		if (p < 0) {
+			return null;
+		}
+		List<AnchoredPath> result = new ArrayList<AnchoredPath>();
+		for (int pair : pairsOfPath(p)) {
+			result.add(new AnchoredPath(arg1(pair), path, arg2(pair), null, -1, -1));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the instances of argument pair <CODE>argPair</CODE> ("arg1:arg2"), or <CODE>null</CODE> if there are
+	 * none.
+	 */
+	public List<AnchoredPath> getByArgs(String argPair) {
+		List<AnchoredPath> result = null;
+		for (int pair = firstPair(argPair); pair < pairCount && pairKey(pair).equals(argPair); pair++) {
+			if (result == null) {
+				result = new ArrayList<AnchoredPath>();
+			}
+			String arg1 = arg1(pair);
+			String arg2 = arg2(pair);
+			for (int p : pathsOfPair(pair)) {
+				result.add(new AnchoredPath(arg1, path(p), arg2, null, -1, -1));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the id of path <CODE>path</CODE>, or -1 if it has no instances.
+	 */
+	public int findPath(String path) {
+		int low = 0;
+		int high = pathCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = path(mid).compareTo(path);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	// the first argument pair whose "arg1:arg2" form is not less than key
+	private int firstPair(String key) {
+		int low = 0;
+		int high = pairCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (pairKey(mid).compareTo(key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	public String path(int p) {
+		return string(buffer.getInt(paths + 4 * p));
+	}
+
+	public String arg1(int pair) {
+		return string(buffer.getInt(pairs + 8 * pair));
+	}
+
+	public String arg2(int pair) {
+		return string(buffer.getInt(pairs + 8 * pair + 4));
+	}
+
+	private String pairKey(int pair) {
+		return arg1(pair) + ":" + arg2(pair);
+	}
+
+	/**
+	 * Returns the key of argument pair <CODE>pair</CODE>:  keys are numbered from 0 in the order of the "arg1:arg2"
+	 * forms of the pairs.
+	 */
+	public int keyOfPair(int pair) {
+		return buffer.getInt(keyOfPair + 4 * pair);
+	}
+
+	/**
+	 * Returns the number of distinct keys of the argument pairs of path <CODE>p</CODE>.
+	 */
+	public int keyCountOfPath(int p) {
+		return buffer.getInt(pathKeyCounts + 4 * p);
+	}
+
+	/**
+	 * Returns the ids of the paths of the argument pairs with key <CODE>key</CODE>, in increasing order.
+	 */
+	public int[] pathsOfKey(int key) {
+		int start = buffer.getInt(keyStart + 4 * key);
+		int end = buffer.getInt(keyStart + 4 * key + 4);
+		if (end - start == 1) {
+			return pathsOfPair(start);
+		}
+		// pairs sharing a key (arguments containing ':') may share paths
+		SortedSet<Integer> paths = new TreeSet<Integer>();
+		for (int pair = start; pair < end; pair++) {
+			for (int p : pathsOfPair(pair)) {
+				paths.add(p);
+			}
+		}
+		int[] result = new int[paths.size()];
+		int n = 0;
+		for (int p : paths) {
+			result[n++] = p;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ids of the argument pairs of path <CODE>p</CODE>, in increasing order.
+	 */
+	public int[] pairsOfPath(int p) {
+		return readPostings(buffer.getInt(pathPostingOffsets + 4 * p), buffer.getInt(pathPostingOffsets + 4 * p + 4));
+	}
+
+	/**
+	 * Returns the ids of the paths of argument pair <CODE>pair</CODE>, in increasing order.
+	 */
+	public int[] pathsOfPair(int pair) {
+		return readPostings(buffer.getInt(pairPostingOffsets + 4 * pair),
+				buffer.getInt(pairPostingOffsets + 4 * pair + 4));
+	}
+
+	private int[] readPostings(int start, int end) {
+		int[] ids = new int[end - start];
+		int n = 0;
+		int id = 0;
+		int position = postings + start;
+		int limit = postings + end;
+		while (position < limit) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get(position++);
+				delta |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			id += delta;
+			ids[n++] = id;
+		}
+		return Arrays.copyOf(ids, n);
+	}
+
+	private String string(int id) {
+		int start = buffer.getInt(stringOffsets + 4 * id);
+		// the offset table is followed by the length of the strings, which ends the last one
+		int end = buffer.getInt(stringOffsets + 4 * id + 4);
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(stringBytes + start + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	public String toString() {
+		return file + ": " + pathCount + " paths, " + pairCount + " argument pairs";
+	}
+}
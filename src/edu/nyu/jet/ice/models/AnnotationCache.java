@@ -0,0 +1,503 @@
+package edu.nyu.jet.ice.models;
+
+import edu.nyu.jet.parser.SyntacticRelation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * The annotation cache of a single document, as saved by IcePreprocessor.
+ * <p>
+ * The cache is divided into sections, one for each type of annotation
+ * (tagger, ENAMEX, term, jetExtent, dep, sentence, token).  A section is stored column by
+ * column:  offsets and counts are int arrays, while string columns (POS
+ * tags, name types, dependency labels, words, ...) are stored as indices
+ * into a table of the distinct strings of that column.
+ * <p>
+ * Binary file format (all ints big-endian):
+ * <pre>
+ *   MAGIC  VERSION  sectionCount
+ *   sectionCount x (name  offset  length)      -- section directory
+ *   sections
+ * </pre>
+ * where a section is <CODE>rows columnCount</CODE> followed, for each column,
+ * by a kind byte, the string table (string columns only), and
+ * <CODE>rows</CODE> ints.  Strings are written as a byte count followed by
+ * their UTF-8 bytes.  The section directory allows a reader to go directly
+ * to the section it needs.
+ * <p>
+ * <CODE>read</CODE> memory-maps the cache file and decodes a section only
+ * when it is first requested, so a reader interested in one type of
+ * annotation does not pay for the others.  Caches written by earlier
+ * versions of ICE, with one tab-separated annotation per line, are still
+ * read:  the lines of each type are located without decoding them, and
+ * only the lines of the requested type are turned into Strings.
+ */
+
+public class AnnotationCache {
+
+    static final int MAGIC = 0x49434541;   // "ICEA"
+    // version 2 added the sentence and token sections
+    public static final int VERSION = 2;
+
+    public static final String TAGGER = "tagger";
+    public static final String ENAMEX = "ENAMEX";
+    public static final String TERM = "term";
+    public static final String JET_EXTENT = "jetExtent";
+    public static final String DEP = "dep";
+    public static final String SENTENCE = "sentence";
+    public static final String TOKEN = "token";
+
+    // columns of the tagger section
+    public static final int TAGGER_START = 0, TAGGER_END = 1, TAGGER_CAT = 2;
+    // columns of the ENAMEX section
+    public static final int ENAMEX_START = 0, ENAMEX_END = 1, ENAMEX_TYPE = 2;
+    // columns of the term section
+    public static final int TERM_TEXT = 0, TERM_COUNT = 1;
+    // columns of the jetExtent section
+    public static final int JET_EXTENT_START = 0, JET_EXTENT_END = 1, JET_EXTENT_ID = 2;
+    // columns of the dep section
+    public static final int DEP_TYPE = 0, DEP_SOURCE_WORD = 1, DEP_SOURCE_POSN = 2, DEP_SOURCE_POS = 3,
+            DEP_TARGET_WORD = 4, DEP_TARGET_POSN = 5, DEP_TARGET_POS = 6;
+    // columns of the sentence section
+    public static final int SENTENCE_START = 0, SENTENCE_END = 1;
+    // columns of the token section ("" if the token has no case feature)
+    public static final int TOKEN_START = 0, TOKEN_END = 1, TOKEN_CASE = 2, TOKEN_INTVALUE = 3;
+    // value of TOKEN_INTVALUE for tokens with no intvalue feature
+    public static final int NO_INTVALUE = Integer.MIN_VALUE;
+
+    static final byte INT_COLUMN = 0;
+    static final byte STRING_COLUMN = 1;
+
+    // value in a string column of a null string (which is not in the string table)
+    static final int NULL_STRING = -1;
+
+    private static final Map<String, byte[]> layouts = new LinkedHashMap<String, byte[]>();
+
+    static {
+        layouts.put(TAGGER, new byte[]{INT_COLUMN, INT_COLUMN, STRING_COLUMN});
+        layouts.put(ENAMEX, new byte[]{INT_COLUMN, INT_COLUMN, STRING_COLUMN});
+        layouts.put(TERM, new byte[]{STRING_COLUMN, INT_COLUMN});
+        layouts.put(JET_EXTENT, new byte[]{INT_COLUMN, INT_COLUMN, STRING_COLUMN});
+        layouts.put(DEP, new byte[]{STRING_COLUMN, STRING_COLUMN, INT_COLUMN, STRING_COLUMN,
+                STRING_COLUMN, INT_COLUMN, STRING_COLUMN});
+        layouts.put(SENTENCE, new byte[]{INT_COLUMN, INT_COLUMN});
+        layouts.put(TOKEN, new byte[]{INT_COLUMN, INT_COLUMN, STRING_COLUMN, INT_COLUMN});
+    }
+
+    // sections decoded so far
+    private Map<String, Section> sections = new LinkedHashMap<String, Section>();
+
+    // for a cache read from a file:  the mapped file, and for each section
+    // not yet decoded, its location in the file.  For a binary file a
+    // location is {offset, length};  for a text file it is the list of
+    // {start, end} offsets of the lines holding that type of annotation.
+    private ByteBuffer buffer = null;
+    private Map<String, int[]> sectionIndex = new HashMap<String, int[]>();
+    private boolean textFormat = false;
+
+    /**
+     *  creates an empty cache, with an empty section for each annotation type.
+     */
+
+    public AnnotationCache() {
+        for (Map.Entry<String, byte[]> e : layouts.entrySet()) {
+            sections.put(e.getKey(), new Section(e.getKey(), e.getValue()));
+        }
+    }
+
+    private AnnotationCache(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     *  returns the section holding annotations of type <CODE>type</CODE>.
+     *  For a cache read from a file, the section is decoded the first time
+     *  it is requested;  other sections of the file are not touched.
+     */
+
+    public Section section(String type) {
+        Section section = sections.get(type);
+        if (section == null) {
+            byte[] layout = layouts.get(type);
+            if (layout == null) {
+                throw new IllegalArgumentException("Unknown annotation cache section: " + type);
+            }
+            section = new Section(type, layout);
+            sections.put(type, section);
+            int[] location = sectionIndex.remove(type);
+            if (location != null) {
+                try {
+                    if (textFormat) {
+                        decodeTextLines(location);
+                    } else {
+                        ByteBuffer b = buffer.duplicate();
+                        b.position(location[0]);
+                        b.limit(location[0] + location[1]);
+                        section.read(b);
+                    }
+                } catch (RuntimeException e) {
+                    throw new IllegalStateException("Corrupt annotation cache section " + type, e);
+                }
+            }
+        }
+        return section;
+    }
+
+    /**
+     *  returns true if this cache holds a section of type <CODE>type</CODE>.
+     *  Caches written by earlier versions of ICE may lack some sections.
+     */
+
+    public boolean contains(String type) {
+        Section section = sections.get(type);
+        return sectionIndex.containsKey(type) || (section != null && section.size() > 0);
+    }
+
+    /**
+     *  opens the annotation cache in file <CODE>fileName</CODE>, which may be
+     *  in either the binary or the older text format.  The file is memory-mapped
+     *  and only its section directory (or, for a text file, the offsets of the
+     *  lines of each type) is read;  sections are decoded on demand.
+     */
+
+    public static AnnotationCache read(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+        AnnotationCache cache = new AnnotationCache(buffer);
+        if (buffer.limit() >= 4 && buffer.getInt(0) == MAGIC) {
+            cache.indexBinary(fileName);
+        } else {
+            cache.indexText();
+        }
+        return cache;
+    }
+
+    private void indexBinary(String fileName) throws IOException {
+        ByteBuffer b = buffer.duplicate();
+        b.position(4);
+        int version = b.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported annotation cache version " + version + " in " + fileName);
+        }
+        int sectionCount = b.getInt();
+        for (int i = 0; i < sectionCount; i++) {
+            String name = readString(b);
+            int offset = b.getInt();
+            int length = b.getInt();
+            if (!layouts.containsKey(name)) {
+                throw new IOException("Unknown section " + name + " in " + fileName);
+            }
+            sectionIndex.put(name, new int[]{offset, length});
+        }
+    }
+
+    /**
+     *  indexes a cache in the text format (one annotation per line, with the
+     *  annotation type as the first tab-separated field) by recording, for
+     *  each annotation type, the offsets of its lines.
+     */
+
+    private void indexText() {
+        textFormat = true;
+        Map<String, byte[]> prefixes = new LinkedHashMap<String, byte[]>();
+        for (String type : layouts.keySet()) {
+            prefixes.put(type, utf8(type));
+        }
+        Map<String, int[]> lines = new HashMap<String, int[]>();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        int limit = buffer.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n') end++;
+            int lineEnd = (end > start && buffer.get(end - 1) == '\r') ? end - 1 : end;
+            for (Map.Entry<String, byte[]> e : prefixes.entrySet()) {
+                if (startsWith(start, lineEnd, e.getValue())) {
+                    String type = e.getKey();
+                    int[] offsets = lines.get(type);
+                    int n = counts.containsKey(type) ? counts.get(type) : 0;
+                    if (offsets == null) {
+                        offsets = new int[32];
+                    } else if (2 * n + 2 > offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    offsets[2 * n] = start;
+                    offsets[2 * n + 1] = lineEnd;
+                    lines.put(type, offsets);
+                    counts.put(type, n + 1);
+                    break;
+                }
+            }
+            start = end + 1;
+        }
+        for (String type : lines.keySet()) {
+            sectionIndex.put(type, Arrays.copyOf(lines.get(type), 2 * counts.get(type)));
+        }
+    }
+
+    private boolean startsWith(int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(start + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private void decodeTextLines(int[] offsets) {
+        Charset charset = Charset.defaultCharset();
+        for (int i = 0; i < offsets.length; i += 2) {
+            byte[] bytes = new byte[offsets[i + 1] - offsets[i]];
+            ByteBuffer b = buffer.duplicate();
+            b.position(offsets[i]);
+            b.get(bytes);
+            addTextLine(new String(bytes, charset));
+        }
+    }
+
+    private void addTextLine(String line) {
+        if (line.startsWith(TAGGER)) {
+            String[] parts = line.split("\\t");
+            section(TAGGER).add(Integer.valueOf(parts[1]), Integer.valueOf(parts[2]), parts[3]);
+        } else if (line.startsWith(ENAMEX)) {
+            String[] parts = line.split("\\t");
+            if (parts.length != 4 && parts.length != 6) {
+                System.err.println("Format error in ENAMEX cache:");
+                System.err.println("\tline:" + line);
+                return;
+            }
+            section(ENAMEX).add(Integer.valueOf(parts[1]), Integer.valueOf(parts[2]), parts[3]);
+        } else if (line.startsWith(TERM)) {
+            String[] parts = line.split("\\t");
+            section(TERM).add(parts[1], Integer.valueOf(parts[2]));
+        } else if (line.startsWith(JET_EXTENT)) {
+            String[] parts = line.split("\\t");
+            section(JET_EXTENT).add(Integer.valueOf(parts[1]), Integer.valueOf(parts[2]), parts[3]);
+        } else if (line.startsWith(DEP)) {
+            addRelation(new SyntacticRelation(line.substring(4)));
+        }
+    }
+
+    /**
+     *  adds dependency relation <CODE>r</CODE> to the dep section.
+     */
+
+    public void addRelation(SyntacticRelation r) {
+        section(DEP).add(r.type, r.sourceWord, r.sourcePosn, r.sourcePos,
+                r.targetWord, r.targetPosn, r.targetPos);
+    }
+
+    /**
+     *  returns the dependency relation in row <CODE>row</CODE> of the dep section.
+     */
+
+    public SyntacticRelation getRelation(int row) {
+        Section dep = section(DEP);
+        return new SyntacticRelation(dep.getInt(DEP_SOURCE_POSN, row),
+                dep.getString(DEP_SOURCE_WORD, row),
+                dep.getString(DEP_SOURCE_POS, row),
+                dep.getString(DEP_TYPE, row),
+                dep.getInt(DEP_TARGET_POSN, row),
+                dep.getString(DEP_TARGET_WORD, row),
+                dep.getString(DEP_TARGET_POS, row));
+    }
+
+    /**
+     *  writes this cache in binary format to file <CODE>fileName</CODE>.
+     *  For a cache read from a file, this includes the sections not yet decoded.
+     */
+
+    public void write(String fileName) throws IOException {
+        // decode the sections of a cache read from a file which were never requested
+        for (String type : new ArrayList<String>(sectionIndex.keySet())) {
+            section(type);
+        }
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        int headerLength = 12;
+        for (Section section : sections.values()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            section.write(out);
+            out.flush();
+            encoded.add(bytes.toByteArray());
+            headerLength += 4 + utf8(section.type).length + 8;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sections.size());
+            int offset = headerLength;
+            int i = 0;
+            for (Section section : sections.values()) {
+                writeString(out, section.type);
+                out.writeInt(offset);
+                out.writeInt(encoded.get(i).length);
+                offset += encoded.get(i).length;
+                i++;
+            }
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static byte[] utf8(String s) {
+        return s.getBytes(UTF8);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = utf8(s);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * The annotations of one type, stored column by column.
+     */
+
+    public static class Section {
+
+        final String type;
+        final byte[] kinds;
+        int rows = 0;
+        int[][] values;
+        // string tables (null for int columns), and for building, the index of each string
+        List<List<String>> tables = new ArrayList<List<String>>();
+        List<Map<String, Integer>> ids = new ArrayList<Map<String, Integer>>();
+
+        Section(String type, byte[] kinds) {
+            this.type = type;
+            this.kinds = kinds;
+            values = new int[kinds.length][16];
+            for (byte kind : kinds) {
+                tables.add(kind == STRING_COLUMN ? new ArrayList<String>() : null);
+                ids.add(kind == STRING_COLUMN ? new HashMap<String, Integer>() : null);
+            }
+        }
+
+        /**
+         *  returns the number of annotations in this section.
+         */
+
+        public int size() {
+            return rows;
+        }
+
+        public int getInt(int column, int row) {
+            return values[column][row];
+        }
+
+        public String getString(int column, int row) {
+            int id = values[column][row];
+            return id == NULL_STRING ? null : tables.get(column).get(id);
+        }
+
+        /**
+         *  adds a row to this section;  <CODE>fields</CODE> must hold an
+         *  Integer for each int column and a String (possibly null) for each
+         *  string column.
+         */
+
+        public void add(Object... fields) {
+            if (rows == values[0].length) {
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = Arrays.copyOf(values[c], rows * 2);
+                }
+            }
+            for (int c = 0; c < kinds.length; c++) {
+                if (kinds[c] == STRING_COLUMN) {
+                    values[c][rows] = intern(c, (String) fields[c]);
+                } else {
+                    values[c][rows] = (Integer) fields[c];
+                }
+            }
+            rows++;
+        }
+
+        private int intern(int column, String s) {
+            if (s == null) {
+                return NULL_STRING;
+            }
+            Map<String, Integer> index = ids.get(column);
+            if (index == null) {
+                // section was read from a file:  rebuild index of the string table
+                index = new HashMap<String, Integer>();
+                List<String> table = tables.get(column);
+                for (int i = 0; i < table.size(); i++) {
+                    index.put(table.get(i), i);
+                }
+                ids.set(column, index);
+            }
+            Integer id = index.get(s);
+            if (id == null) {
+                id = tables.get(column).size();
+                tables.get(column).add(s);
+                index.put(s, id);
+            }
+            return id;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(rows);
+            out.writeInt(kinds.length);
+            for (int c = 0; c < kinds.length; c++) {
+                out.writeByte(kinds[c]);
+                if (kinds[c] == STRING_COLUMN) {
+                    List<String> table = tables.get(c);
+                    out.writeInt(table.size());
+                    for (String s : table) {
+                        writeString(out, s);
+                    }
+                }
+                for (int r = 0; r < rows; r++) {
+                    out.writeInt(values[c][r]);
+                }
+            }
+        }
+
+        void read(ByteBuffer in) {
+            rows = in.getInt();
+            int columns = in.getInt();
+            if (columns != kinds.length) {
+                throw new IllegalStateException("Wrong number of columns in section " + type);
+            }
+            for (int c = 0; c < columns; c++) {
+                if (in.get() != kinds[c]) {
+                    throw new IllegalStateException("Wrong column type in section " + type);
+                }
+                if (kinds[c] == STRING_COLUMN) {
+                    int tableSize = in.getInt();
+                    List<String> table = new ArrayList<String>(tableSize);
+                    for (int i = 0; i < tableSize; i++) {
+                        table.add(readString(in));
+                    }
+                    tables.set(c, table);
+                    ids.set(c, null);
+                }
+                values[c] = new int[Math.max(rows, 1)];
+                in.asIntBuffer().get(values[c], 0, rows);
+                in.position(in.position() + 4 * rows);
+            }
+        }
+    }
+}
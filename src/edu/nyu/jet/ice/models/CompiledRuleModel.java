@@ -0,0 +1,218 @@
+package edu.nyu.jet.ice.models;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * The relation rules of a rule file (one rule per line:  a path with argument types, "=", and a relation type), in a
+ * binary form which is loaded without parsing the paths or stemming their tokens.
+ * <p>
+ * The binary file is written by JetEngineBuilder next to the rule file, with suffix <CODE>.bin</CODE>, and is used
+ * instead of the rule file unless the rule file is newer. It holds
+ * <ul>
+ * <li>a table of the distinct strings of the rules (argument types, relation types, labels and stemmed tokens), each
+ * written once, so that rules refer to strings by number,
+ * <li>the argument type buckets:  a pair of argument types and the number of rules with these types, and
+ * <li>the rules, bucket by bucket, each with its position in the rule file, its relation type and its nodes.
+ * </ul>
+ * The file is memory-mapped to be read, and the rules are returned in the order of the rule file, so that a
+ * MatcherPathIndex built from them breaks ties as one built from the rule file.
+ *
+ * @version 1.0
+ */
+public class CompiledRuleModel {
+
+	public static final String SUFFIX = ".bin";
+
+	static final int MAGIC = 0x49434552;
+	static final int FORMAT_VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Returns the rules of rule file <CODE>rulesFile</CODE>, from its binary form if that is up to date.
+	 */
+	public static List<MatcherPath> load(String rulesFile) throws IOException {
+		File textFile = new File(rulesFile);
+		File binaryFile = new File(rulesFile + SUFFIX);
+		if (binaryFile.exists() && (!textFile.exists() || binaryFile.lastModified() >= textFile.lastModified())) {
+			List<MatcherPath> rules = read(binaryFile);
+			if (rules != null) {
+				return rules;
+			}
+		}
+		return readText(textFile);
+	}
+
+	/**
+	 * Reads the rules of rule file <CODE>textFile</CODE>.  Lines containing "EMPTY" are skipped.
+	 */
+	static List<MatcherPath> readText(File textFile) throws IOException {
+		List<MatcherPath> rules = new ArrayList<MatcherPath>();
+		BufferedReader br = new BufferedReader(new FileReader(textFile));
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			String[] parts = line.split("=");
+			MatcherPath path = new MatcherPath(parts[0].trim(), true);
+			if (parts[0].contains("EMPTY")) {
+				continue;
+			}
+			if (!path.isEmpty()) {
+				path.setRelationType(parts[1].trim());
+			}
+			rules.add(path);
+		}
+		br.close();
+		return rules;
+	}
+
+	/**
+	 * Writes the binary form of rule file <CODE>rulesFile</CODE>.
+	 */
+	public static void compile(String rulesFile) throws IOException {
+		File textFile = new File(rulesFile);
+		File binaryFile = new File(rulesFile + SUFFIX);
+		List<MatcherPath> rules = readText(textFile);
+		// write to a temporary file first, as taggers may be reading the old one
+		File tempFile = File.createTempFile("rules", SUFFIX, textFile.getAbsoluteFile().getParentFile());
+		try {
+			write(rules, tempFile);
+			binaryFile.delete();
+			if (!tempFile.renameTo(binaryFile)) {
+				throw new IOException("Cannot rename " + tempFile + " to " + binaryFile);
+			}
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	static void write(List<MatcherPath> rules, File binaryFile) throws IOException {
+		Map<String, Integer> stringIds = new LinkedHashMap<String, Integer>();
+		// positions of the rules in each bucket, buckets in order of first appearance
+		Map<String, List<Integer>> buckets = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < rules.size(); i++) {
+			MatcherPath rule = rules.get(i);
+			String key = rule.arg1Type + "\n" + rule.arg2Type;
+			List<Integer> bucket = buckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<Integer>();
+				buckets.put(key, bucket);
+			}
+			bucket.add(i);
+			id(stringIds, rule.arg1Type);
+			id(stringIds, rule.arg2Type);
+			id(stringIds, rule.relationType);
+			for (MatcherNode node : rule.nodes) {
+				id(stringIds, node.label);
+				id(stringIds, node.token);
+			}
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(stringIds.size());
+			out.writeInt(buckets.size());
+			out.writeInt(rules.size());
+			for (String s : stringIds.keySet()) {
+				byte[] bytes = s.getBytes(UTF8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			for (List<Integer> bucket : buckets.values()) {
+				MatcherPath first = rules.get(bucket.get(0));
+				out.writeInt(stringIds.get(first.arg1Type));
+				out.writeInt(stringIds.get(first.arg2Type));
+				out.writeInt(bucket.size());
+			}
+			for (List<Integer> bucket : buckets.values()) {
+				for (int i : bucket) {
+					MatcherPath rule = rules.get(i);
+					out.writeInt(i);
+					out.writeInt(stringIds.get(rule.relationType));
+					out.writeInt(rule.nodes.size());
+					for (MatcherNode node : rule.nodes) {
+						out.writeInt(stringIds.get(node.label));
+						out.writeInt(stringIds.get(node.token));
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int id(Map<String, Integer> stringIds, String s) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = stringIds.size();
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Reads the rules of binary file <CODE>binaryFile</CODE>, or returns null if it is not a rule file of this format.
+	 */
+	static List<MatcherPath> read(File binaryFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(binaryFile, "r");
+		MappedByteBuffer buffer;
+		try {
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+		if (buffer.capacity() < 20 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+			return null;
+		}
+		int stringCount = buffer.getInt();
+		int bucketCount = buffer.getInt();
+		int ruleCount = buffer.getInt();
+		String[] strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, UTF8);
+		}
+		int[] bucketArg1 = new int[bucketCount];
+		int[] bucketArg2 = new int[bucketCount];
+		int[] bucketSize = new int[bucketCount];
+		for (int b = 0; b < bucketCount; b++) {
+			bucketArg1[b] = buffer.getInt();
+			bucketArg2[b] = buffer.getInt();
+			bucketSize[b] = buffer.getInt();
+		}
+		// nodes are shared by the rules which have the same label and token
+		Map<Long, MatcherNode> nodes = new HashMap<Long, MatcherNode>();
+		MatcherPath[] rules = new MatcherPath[ruleCount];
+		for (int b = 0; b < bucketCount; b++) {
+			String arg1Type = strings[bucketArg1[b]];
+			String arg2Type = strings[bucketArg2[b]];
+			for (int r = 0; r < bucketSize[b]; r++) {
+				int index = buffer.getInt();
+				String relationType = strings[buffer.getInt()];
+				int length = buffer.getInt();
+				List<MatcherNode> ruleNodes = new ArrayList<MatcherNode>(length);
+				for (int n = 0; n < length; n++) {
+					int label = buffer.getInt();
+					int token = buffer.getInt();
+					Long key = ((long) label << 32) | (token & 0xffffffffL);
+					MatcherNode node = nodes.get(key);
+					if (node == null) {
+						node = new MatcherNode(strings[label], strings[token], true);
+						nodes.put(key, node);
+					}
+					ruleNodes.add(node);
+				}
+				MatcherPath rule = new MatcherPath(arg1Type, arg2Type, ruleNodes);
+				rule.setRelationType(relationType);
+				rules[index] = rule;
+			}
+		}
+		return new ArrayList<MatcherPath>(Arrays.asList(rules));
+	}
+}
@@ -0,0 +1,528 @@
+package edu.nyu.jet.ice.models;
+
+import edu.nyu.jet.ice.terminology.TermCounter;
+import edu.nyu.jet.ice.utils.FileNameSchema;
+import edu.nyu.jet.ice.utils.IceUtils;
+import edu.nyu.jet.ice.utils.StringCounter;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ *  Incremental update of a corpus whose files have been added to, changed
+ *  or removed since it was last preprocessed.
+ *  <p>
+ *  A content hash (SHA-1) of every file is kept in the corpus information
+ *  directory (FileNameSchema.getDocumentHashesFileName).  On an update, only
+ *  new and changed files are preprocessed and counted; the term and dependency
+ *  path counts of each file are saved next to its annotation cache, so that the
+ *  contribution of a changed or removed file can be subtracted from the corpus
+ *  count files (counts, Relations, Relationtypes, RelationRepr) and the
+ *  contribution of new and changed files added, without recounting the
+ *  whole corpus.
+ *  <p>
+ *  The first update of a corpus (no hashes saved yet) preprocesses only the
+ *  files which have no annotation cache, and recounts all files from the cache.
+ *  The same full recount is done if the saved counts of a changed or removed
+ *  file are missing.
+ *  <p>
+ *  The hash of a new or changed file is only saved once the file has been
+ *  preprocessed and counted;  a file which fails is left out of the hashes,
+ *  so that it is taken as a new file by the next update.  The counts and
+ *  annotation cache of a removed file are deleted once its counts have been
+ *  subtracted.
+ *  <p>
+ *  The corpus must be the selected corpus (Ice.selectedCorpus), since the
+ *  annotation cache file names are resolved through it.
+ */
+
+public class CorpusUpdate {
+
+    public static final String TERM_COUNTS_SUFFIX = ".termCounts";
+    public static final String RELATION_COUNTS_SUFFIX = ".pathCounts";
+
+    static final String INSTANCE_PREFIX = "I";
+    static final String TYPE_PREFIX = "T";
+
+    Corpus corpus;
+    String propsFile;
+    int numProcesses = 1;
+    List<String> workerCommand = null;
+
+    // aggregate counts, in the form of the corpus count files
+    int docCount;
+    Map<String, List<Integer>> termCounts = new TreeMap<String, List<Integer>>();
+    Map<String, Integer> instanceCounts = new TreeMap<String, Integer>();
+    Map<String, Integer> typeCounts = new TreeMap<String, Integer>();
+    Map<String, String> reprs = new TreeMap<String, String>();
+
+    /**
+     *  creates a CorpusUpdate for <CODE>corpus</CODE>, which will be
+     *  preprocessed using Jet properties file <CODE>propsFile</CODE>.
+     */
+
+    public CorpusUpdate(Corpus corpus, String propsFile) {
+        this.corpus = corpus;
+        this.propsFile = propsFile;
+    }
+
+    /**
+     *  preprocess with worker processes (see IcePreprocessor.setWorkerProcesses).
+     */
+
+    public void setWorkerProcesses(int numProcesses, List<String> workerCommand) {
+        this.numProcesses = numProcesses;
+        this.workerCommand = workerCommand;
+    }
+
+    /**
+     *  brings the preprocess cache and count files of the corpus up to date
+     *  with the files currently in its directory.
+     *
+     *  @return  false if the corpus directory contains no files matching the filter
+     */
+
+    public boolean update() throws IOException {
+        String name = corpus.name;
+        corpus.writeDocumentList();
+        if (corpus.docListFileName == null) return false;
+        String cacheDir = FileNameSchema.getPreprocessCacheDir(name);
+        List<String> docNames = Arrays.asList(IceUtils.readLines(corpus.docListFileName));
+
+        // compare content hashes to find new, changed and removed files
+
+        String hashesFileName = FileNameSchema.getDocumentHashesFileName(name);
+        Map<String, String> oldHashes = loadHashes(hashesFileName);
+        Map<String, String> newHashes = new LinkedHashMap<String, String>();
+        for (String docName : docNames) {
+            newHashes.put(docName, hash(new File(corpus.directory, inputFile(docName))));
+        }
+        List<String> updated = new ArrayList<String>();
+        for (String docName : docNames) {
+            if (!newHashes.get(docName).equals(oldHashes.get(docName))) {
+                updated.add(docName);
+            }
+        }
+        List<String> outdated = new ArrayList<String>();
+        for (String docName : oldHashes.keySet()) {
+            if (!oldHashes.get(docName).equals(newHashes.get(docName))) {
+                outdated.add(docName);
+            }
+        }
+        boolean recount = oldHashes.isEmpty() || !countFilesExist();
+        for (String docName : outdated) {
+            if (!new File(countsFileName(cacheDir, docName, TERM_COUNTS_SUFFIX)).exists() ||
+                    !new File(countsFileName(cacheDir, docName, RELATION_COUNTS_SUFFIX)).exists()) {
+                recount = true;
+            }
+        }
+        System.err.println(String.format("[Corpus:%s] %d files, %d new or changed, %d changed or removed.",
+                name, docNames.size(), updated.size(), outdated.size()));
+
+        // only new and changed files are run through Jet; when recounting, files
+        // which were preprocessed before hashes were kept are taken from the cache
+
+        List<String> toPreprocess = new ArrayList<String>();
+        for (String docName : updated) {
+            if (!recount || oldHashes.containsKey(docName) || !isCached(cacheDir, docName)) {
+                toPreprocess.add(docName);
+            }
+        }
+        List<String> toCount = new ArrayList<String>(recount ? docNames : updated);
+
+        // remove the counts of changed and removed files, and the files of
+        // removed files
+
+        if (recount) {
+            docCount = 0;
+        } else {
+            loadCounts();
+            for (String docName : outdated) {
+                subtractDocument(cacheDir, docName);
+            }
+        }
+        for (String docName : outdated) {
+            deleteCounts(cacheDir, docName);
+            if (!newHashes.containsKey(docName)) {
+                deleteCache(cacheDir, docName);
+            }
+        }
+
+        // the cache of a file to be preprocessed is out of date, and is removed
+        // so that it cannot be counted if preprocessing fails
+
+        for (String docName : toPreprocess) {
+            deleteCache(cacheDir, docName);
+        }
+        if (!toPreprocess.isEmpty()) {
+            String deltaDocList = FileNameSchema.getCorpusInfoDirectory(name) + File.separator + "docList.delta";
+            writeDocList(deltaDocList, toPreprocess);
+            IcePreprocessor icePreprocessor = new IcePreprocessor(corpus.directory, propsFile,
+                    deltaDocList, corpus.filter, cacheDir);
+            icePreprocessor.setWorkerProcesses(numProcesses, workerCommand);
+            icePreprocessor.setCountCorpus(false);
+            icePreprocessor.run();
+            new File(deltaDocList).delete();
+            Set<String> failed = new HashSet<String>(icePreprocessor.getFailedDocuments());
+            for (String docName : toPreprocess) {
+                if (failed.contains(docName) || !isCached(cacheDir, docName)) {
+                    System.err.println("Document " + docName + " could not be preprocessed, skipped.");
+                    toCount.remove(docName);
+                    deleteCache(cacheDir, docName);
+                }
+            }
+        }
+
+        // count the new and changed files, saving the counts of each file,
+        // and add them in
+
+        Set<String> counted = new HashSet<String>();
+        if (!toCount.isEmpty()) {
+            counted = countDocuments(cacheDir, toCount);
+        }
+        writeCounts();
+
+        // keep the hashes of the files which were counted and of the unchanged
+        // files which were not to be counted;  the others are taken as new by
+        // the next update
+
+        Set<String> notCounted = new HashSet<String>(updated);
+        notCounted.addAll(toCount);
+        Map<String, String> hashes = new LinkedHashMap<String, String>();
+        for (String docName : docNames) {
+            if (counted.contains(docName) || !notCounted.contains(docName)) {
+                hashes.put(docName, newHashes.get(docName));
+            }
+        }
+        saveHashes(hashesFileName, hashes);
+        return true;
+    }
+
+    /**
+     *  runs TermCounter and DepPaths over <CODE>docNames</CODE>, saving the
+     *  counts of each document, and adds these counts to the aggregate counts.
+     *
+     *  @return the documents whose counts were added
+     */
+
+    private Set<String> countDocuments(String cacheDir, List<String> docNames) throws IOException {
+        String infoDir = FileNameSchema.getCorpusInfoDirectory(corpus.name);
+        String deltaDocList = infoDir + File.separator + "docList.delta";
+        String deltaCounts = infoDir + File.separator + "counts.delta";
+        String deltaRelations = infoDir + File.separator + "DeltaRelations";
+        String deltaTypes = infoDir + File.separator + "DeltaRelationtypes";
+        // DepPaths derives the name of the repr file from that of the instance file
+        String deltaRepr = infoDir + File.separator + "DeltaRelationRepr";
+
+        // counts files left from an earlier update must not be taken for new ones
+        for (String docName : docNames) {
+            deleteCounts(cacheDir, docName);
+        }
+
+        System.err.println("Counting words...");
+        TermCounter counter = TermCounter.prepareRun("onomaprops", docNames,
+                corpus.directory, corpus.filter, deltaCounts, null);
+        counter.setSaveDocumentCounts(true);
+        counter.run();
+
+        System.err.println("Finding dependency paths...");
+        writeDocList(deltaDocList, docNames);
+        DepPaths.countPaths("onomaprops", deltaDocList, corpus.directory, corpus.filter,
+                deltaRelations, deltaTypes, cacheDir, true);
+
+        Set<String> counted = new HashSet<String>();
+        for (String docName : docNames) {
+            if (addDocument(cacheDir, docName)) {
+                counted.add(docName);
+            }
+        }
+        if (new File(deltaRepr).exists()) {
+            for (String line : IceUtils.readLines(deltaRepr)) {
+                String[] parts = line.split(":::", 2);
+                if (parts.length == 2 && typeCounts.containsKey(parts[0]) && !reprs.containsKey(parts[0])) {
+                    reprs.put(parts[0], parts[1]);
+                }
+            }
+        }
+        for (String fileName : new String[]{deltaDocList, deltaCounts, deltaRelations, deltaTypes, deltaRepr}) {
+            new File(fileName).delete();
+        }
+        return counted;
+    }
+
+    /**
+     *  adds the saved counts of <CODE>docName</CODE> to the aggregate counts.
+     *
+     *  @return false if the document has no saved counts (it could not be counted)
+     */
+
+    private boolean addDocument(String cacheDir, String docName) throws IOException {
+        String termFileName = countsFileName(cacheDir, docName, TERM_COUNTS_SUFFIX);
+        String relationFileName = countsFileName(cacheDir, docName, RELATION_COUNTS_SUFFIX);
+        if (!new File(termFileName).exists() || !new File(relationFileName).exists()) {
+            System.err.println("No counts for document " + docName + ", skipped.");
+            // a counts file without the other is not added, and must not be taken for a new one later
+            deleteCounts(cacheDir, docName);
+            return false;
+        }
+        docCount++;
+        for (Map.Entry<String, Integer> e : loadCounts(termFileName).entrySet()) {
+            List<Integer> counts = termCounts.get(e.getKey());
+            if (counts == null) {
+                counts = new ArrayList<Integer>();
+                termCounts.put(e.getKey(), counts);
+            }
+            counts.add(e.getValue());
+        }
+        addRelationCounts(relationFileName, 1);
+        return true;
+    }
+
+    private void subtractDocument(String cacheDir, String docName) throws IOException {
+        docCount--;
+        for (Map.Entry<String, Integer> e : loadCounts(
+                countsFileName(cacheDir, docName, TERM_COUNTS_SUFFIX)).entrySet()) {
+            List<Integer> counts = termCounts.get(e.getKey());
+            if (counts == null) continue;
+            counts.remove(e.getValue());
+            if (counts.isEmpty()) {
+                termCounts.remove(e.getKey());
+            }
+        }
+        addRelationCounts(countsFileName(cacheDir, docName, RELATION_COUNTS_SUFFIX), -1);
+    }
+
+    private void addRelationCounts(String fileName, int sign) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split("\t", 3);
+            if (parts.length != 3) continue;
+            int count = sign * Integer.parseInt(parts[1]);
+            if (parts[0].equals(INSTANCE_PREFIX)) {
+                addCount(instanceCounts, parts[2], count);
+            } else if (parts[0].equals(TYPE_PREFIX)) {
+                if (addCount(typeCounts, parts[2], count) == 0) {
+                    reprs.remove(parts[2]);
+                }
+            }
+        }
+        reader.close();
+    }
+
+    private static int addCount(Map<String, Integer> map, String key, int count) {
+        Integer old = map.get(key);
+        int n = (old == null ? 0 : old) + count;
+        if (n > 0) {
+            map.put(key, n);
+        } else {
+            map.remove(key);
+        }
+        return n;
+    }
+
+    private boolean countFilesExist() {
+        return new File(FileNameSchema.getWordCountFileName(corpus.name)).exists() &&
+                new File(FileNameSchema.getRelationsFileName(corpus.name)).exists() &&
+                new File(FileNameSchema.getRelationTypesFileName(corpus.name)).exists() &&
+                new File(FileNameSchema.getRelationReprFileName(corpus.name)).exists();
+    }
+
+    /**
+     *  loads the aggregate counts from the count files of the corpus.
+     */
+
+    private void loadCounts() throws IOException {
+        String name = corpus.name;
+        boolean docCountRead = false;
+        for (String line : IceUtils.readLines(FileNameSchema.getWordCountFileName(name))) {
+            if (line.startsWith("#")) continue;
+            if (!docCountRead) {
+                docCount = Integer.parseInt(line.trim());
+                docCountRead = true;
+                continue;
+            }
+            String[] parts = line.split("\t");
+            List<Integer> counts = new ArrayList<Integer>();
+            for (int i = 1; i < parts.length; i++) {
+                counts.add(Integer.valueOf(parts[i]));
+            }
+            termCounts.put(parts[0], counts);
+        }
+        instanceCounts.putAll(loadCounts(FileNameSchema.getRelationsFileName(name)));
+        typeCounts.putAll(loadCounts(FileNameSchema.getRelationTypesFileName(name)));
+        for (String line : IceUtils.readLines(FileNameSchema.getRelationReprFileName(name))) {
+            String[] parts = line.split(":::", 2);
+            if (parts.length == 2) {
+                reprs.put(parts[0], parts[1]);
+            }
+        }
+    }
+
+    /**
+     *  writes the aggregate counts to the count files of the corpus, in the
+     *  formats written by TermCounter and DepPaths, and reloads the DepPathMap.
+     */
+
+    private void writeCounts() throws IOException {
+        String name = corpus.name;
+        String wordCountFileName = FileNameSchema.getWordCountFileName(name);
+        PrintWriter pw = new PrintWriter(new FileWriter(wordCountFileName));
+        pw.println("# DOC_COUNT\n# TERM DOC_FREQS");
+        pw.println(docCount);
+        for (String term : termCounts.keySet()) {
+            pw.print(term);
+            for (Integer i : termCounts.get(term)) {
+                pw.print("\t" + i);
+            }
+            pw.println();
+        }
+        pw.close();
+
+        DepPathMap depPathMap = DepPathMap.getInstance();
+        depPathMap.unpersist();
+        String relationsFileName = FileNameSchema.getRelationsFileName(name);
+        String typesFileName = FileNameSchema.getRelationTypesFileName(name);
+        saveCounts(relationsFileName, instanceCounts);
+        AnchoredPathIndex.build(relationsFileName);
+        String unsortedTypesFileName = typesFileName + ".unsorted";
+        saveCounts(unsortedTypesFileName, typeCounts);
+        IceUtils.numsort(unsortedTypesFileName, typesFileName);
+        new File(unsortedTypesFileName).delete();
+        pw = new PrintWriter(new FileWriter(FileNameSchema.getRelationReprFileName(name)));
+        for (String type : typeCounts.keySet()) {
+            String repr = reprs.get(type);
+            pw.println(type + ":::" + (repr == null ? "null:::null" : repr));
+        }
+        pw.close();
+        depPathMap.forceLoad();
+
+        corpus.wordCountFileName = wordCountFileName;
+        corpus.relationInstanceFileName = relationsFileName;
+        corpus.relationTypeFileName = typesFileName;
+    }
+
+    /**
+     *  writes <CODE>counts</CODE> to <CODE>fileName</CODE>, one
+     *  "count TAB key" line per key.
+     */
+
+    public static void saveCounts(String fileName, Map<String, Integer> counts) throws IOException {
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+        for (String key : counts.keySet()) {
+            pw.println(counts.get(key) + "\t" + key);
+        }
+        pw.close();
+    }
+
+    /**
+     *  reads a file written by <CODE>saveCounts</CODE>.
+     */
+
+    public static Map<String, Integer> loadCounts(String fileName) throws IOException {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int tab = line.indexOf('\t');
+            if (tab < 0) continue;
+            counts.put(line.substring(tab + 1), Integer.valueOf(line.substring(0, tab).trim()));
+        }
+        reader.close();
+        return counts;
+    }
+
+    /**
+     *  saves the dependency path instance and type counts of a single document.
+     */
+
+    public static void saveRelationCounts(String fileName,
+                                          StringCounter instanceCounts,
+                                          StringCounter typeCounts) throws IOException {
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+        for (String key : instanceCounts.sortedKeys()) {
+            pw.println(INSTANCE_PREFIX + "\t" + instanceCounts.get(key) + "\t" + key);
+        }
+        for (String key : typeCounts.sortedKeys()) {
+            pw.println(TYPE_PREFIX + "\t" + typeCounts.get(key) + "\t" + key);
+        }
+        pw.close();
+    }
+
+    private String inputFile(String docName) {
+        return "*".equals(corpus.filter.trim()) ? docName : docName + "." + corpus.filter;
+    }
+
+    /**
+     * Returns true if the preprocess cache of <CODE>docName</CODE> (its .pos and .ace files) is present.
+     */
+    private boolean isCached(String cacheDir, String docName) {
+        return new File(IcePreprocessor.getPosFileName(cacheDir, corpus.directory, inputFile(docName))).exists() &&
+                new File(IcePreprocessor.getAceFileName(cacheDir, corpus.directory, inputFile(docName))).exists();
+    }
+
+    private void deleteCounts(String cacheDir, String docName) {
+        new File(countsFileName(cacheDir, docName, TERM_COUNTS_SUFFIX)).delete();
+        new File(countsFileName(cacheDir, docName, RELATION_COUNTS_SUFFIX)).delete();
+    }
+
+    private void deleteCache(String cacheDir, String docName) {
+        new File(IcePreprocessor.getPosFileName(cacheDir, corpus.directory, inputFile(docName))).delete();
+        new File(IcePreprocessor.getAceFileName(cacheDir, corpus.directory, inputFile(docName))).delete();
+    }
+
+    private String countsFileName(String cacheDir, String docName, String suffix) {
+        return IcePreprocessor.cacheFileName(cacheDir, corpus.directory, inputFile(docName)) + suffix;
+    }
+
+    private static void writeDocList(String fileName, List<String> docNames) throws IOException {
+        IceUtils.writeLines(fileName, docNames.toArray(new String[docNames.size()]));
+    }
+
+    static Map<String, String> loadHashes(String fileName) throws IOException {
+        Map<String, String> hashes = new HashMap<String, String>();
+        if (!new File(fileName).exists()) return hashes;
+        for (String line : IceUtils.readLines(fileName)) {
+            String[] parts = line.split("\t", 2);
+            if (parts.length == 2) {
+                hashes.put(parts[1], parts[0]);
+            }
+        }
+        return hashes;
+    }
+
+    static void saveHashes(String fileName, Map<String, String> hashes) throws IOException {
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+        for (String docName : hashes.keySet()) {
+            pw.println(hashes.get(docName) + "\t" + docName);
+        }
+        pw.close();
+    }
+
+    /**
+     *  returns the SHA-1 hash of the contents of <CODE>file</CODE>, in hex.
+     */
+
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, n);
+        }
+        in.close();
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
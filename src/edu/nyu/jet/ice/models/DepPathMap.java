@@ -2,6 +2,7 @@ package edu.nyu.jet.ice.models;
 
 import edu.nyu.jet.aceJet.AnchoredPath;
 import edu.nyu.jet.ice.uicomps.Ice;
+import edu.nyu.jet.ice.utils.BKTree;
 import edu.nyu.jet.ice.utils.FileNameSchema;
 
 import java.io.*;
@@ -25,6 +26,11 @@ public class DepPathMap {
     private HashMap<String, String> pathExampleMap = new HashMap<String, String>();
     private DepPathMap() { }
     private String previousFileName = null;
+    // incremented whenever the maps change, so that indexes built from them can tell they are stale
+    private int generation = 0;
+    // the linearizations of reprPathMap, for findClosest
+    private BKTree reprIndex = null;
+    private int reprIndexGeneration = -1;
 
     private Set<String> leftRelations = new HashSet<String>();
     {
@@ -47,7 +53,7 @@ public class DepPathMap {
     /**
     DepPathMap is a singleton which is shared across the program.
      */
-    public static DepPathMap getInstance() {
+    public static synchronized DepPathMap getInstance() {
         if (instance == null) {
             instance = new DepPathMap();
         }
@@ -111,10 +117,21 @@ public class DepPathMap {
         return pathExampleMap.get(path);
     }
 
-    public void clear() {
+    /**
+     *  Returns a number which changes whenever the mappings are cleared or reloaded.
+     *  It changes once the new mappings are complete, and a reader which holds
+     *  the lock of this DepPathMap sees mappings which match the generation.
+     */
+
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    public synchronized void clear() {
         pathReprMap.clear();
         reprPathMap.clear();
         pathExampleMap.clear();
+        generation++;
     }
 
     public void unpersist() {
@@ -157,7 +174,7 @@ public class DepPathMap {
      *  currently selected corpus.
      */
 
-    public boolean forceLoad() {
+    public synchronized boolean forceLoad() {
         String fileName = FileNameSchema.getRelationReprFileName(Ice.selectedCorpusName);
         File f = new File(fileName);
         if (!f.exists() || f.isDirectory()) return false;
@@ -188,6 +205,9 @@ public class DepPathMap {
             e.printStackTrace();
             return false;
         }
+        finally {
+            generation++;
+        }
         previousFileName = fileName;
         return true;
     }
@@ -198,7 +218,7 @@ public class DepPathMap {
      *  have been previously loaded from the same file.
      */
 
-    public boolean load() {
+    public synchronized boolean load() {
         String fileName = FileNameSchema.getRelationReprFileName(Ice.selectedCorpusName);
         File f = new File(fileName);
         if (!f.exists() || f.isDirectory()) return false;
@@ -229,6 +249,9 @@ public class DepPathMap {
             e.printStackTrace();
             return false;
         }
+        finally {
+            generation++;
+        }
         previousFileName = fileName;
         return true;
     }
@@ -244,69 +267,35 @@ public class DepPathMap {
 
     /**
      *  Find the English phrase most similar to 'repr' (as measured by edit
-     *  distance) which is the representation of a dependency path.
+     *  distance) which is the representation of a dependency path.  Of
+     *  equally similar phrases, the first in the order of the mappings is
+     *  returned.  The phrases are searched with a BKTree, which is built when
+     *  first needed and rebuilt when the mappings change;  once it is built,
+     *  findClosest may be called by several threads at once.
      */
 
     public String findClosest (String repr) {
         String norm = normalizeRepr(repr);
-        int distance = 1000;
-        String closest = null;
-        for (String p : reprPathMap.keySet()) {
-            int d = minDistance (norm, p);
-            if (d < distance) {
-                distance = d;
-                closest = p;
+        return reprIndex().nearest(norm);
+    }
+
+    private synchronized BKTree reprIndex() {
+        if (reprIndex == null || reprIndexGeneration != generation) {
+            BKTree index = new BKTree();
+            for (String p : reprPathMap.keySet()) {
+                index.add(p);
             }
+            reprIndex = index;
+            reprIndexGeneration = generation;
         }
-        return closest;
+        return reprIndex;
     }
 
-    /**
-     *  maximum length of arguments to minDistance
-     */
-    static final int MAX_MINDISTANCE = 100;
-
-    private static int[][] dp = new int[MAX_MINDISTANCE][MAX_MINDISTANCE];
-
     /**
      * Computes the minimum edit distance between strings 'word1' and 'word2'.
      */
 
     public static int minDistance(String word1, String word2) {
-        int len1 = word1.length();
-        int len2 = word2.length();
-        if (len1 >= MAX_MINDISTANCE || len2 >= MAX_MINDISTANCE) 
-            return 1001;
-
-        for (int i = 0; i <= len1; i++) {
-            dp[i][0] = i;
-        }
-
-        for (int j = 0; j <= len2; j++) {
-            dp[0][j] = j;
-        }
-
-        //iterate through, and check last char
-	for (int i = 0; i < len1; i++) {
-            char c1 = word1.charAt(i);
-            for (int j = 0; j < len2; j++) {
-                char c2 = word2.charAt(j);
-
-                //if last two chars equal
-                if (c1 == c2) {
-                    //update dp value for +1 length
-                    dp[i + 1][j + 1] = dp[i][j];
-                } else {
-                    int replace = dp[i][j] + 1;
-                    int insert = dp[i][j + 1] + 1;
-                    int delete = dp[i + 1][j] + 1;
-
-                    int min = replace > insert ? insert : replace;
-                    min = delete > min ? min : delete;
-                    dp[i + 1][j + 1] = min;
-                }
-            }
-        }
-        return dp[len1][len2];
+        return BKTree.editDistance(word1, word2);
     }
 }
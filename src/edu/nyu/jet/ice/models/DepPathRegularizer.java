@@ -3,8 +3,14 @@ package edu.nyu.jet.ice.models;
 import edu.nyu.jet.lex.Stemmer;
 import edu.nyu.jet.parser.SyntacticRelation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * Regularizer for DepPath: deletes quantity constructs such as 'pound of X' from dependency paths.
@@ -34,17 +40,26 @@ public class DepPathRegularizer {
 
 	/**
 	 * Returns dependency path 'p' with quantity phrase 'Q of X' reduced to 'X'.
+	 * The relations of 'p', which are shared with the relation set it was built
+	 * from, are not changed, so paths may be regularized by several threads at once.
 	 */
 
 	public DepPath regularize(DepPath p) {
 		DepPath result = p.copy();
 
 		SyntacticRelation prevRelation = null;
+		boolean prevCopied = false;
 		for (SyntacticRelation r : p.getRelations()) {
 			// prep_of: when using transformation
 			// prep: when not using transformation
 			if ((r.type.equals("prep_of") || r.type.equals("prep"))
 					&& quantifiers.contains(stemmer.getStem(r.sourceWord.trim().toLowerCase(), "NN")) && prevRelation != null) {
+				if (!prevCopied) {
+					prevRelation = new SyntacticRelation(prevRelation.sourcePosn, prevRelation.sourceWord,
+							prevRelation.sourcePos, prevRelation.type, prevRelation.targetPosn,
+							prevRelation.targetWord, prevRelation.targetPos);
+					prevCopied = true;
+				}
 				prevRelation.targetPos = r.targetPos;
 				prevRelation.targetPosn = r.targetPosn;
 				prevRelation.targetWord = r.targetWord;
@@ -58,6 +73,7 @@ public class DepPathRegularizer {
 				} else {
 					prevRelation = r;
 				}
+				prevCopied = false;
 			}
 		}
 		if (prevRelation != null) {
@@ -66,17 +82,237 @@ public class DepPathRegularizer {
 		return result;
 	}
 
+	// compiled patterns for the quantifiers, built as they are needed
+	private Map<String, Pattern> quantifierPatterns = new ConcurrentHashMap<String, Pattern>();
+
+	private static final Pattern RCMOD = Pattern.compile("rcmod:\\d+:");
+
+	private static final String PREP_OF = "prep_of";
+
+	private static final String RCMOD_LABEL = "rcmod";
+
+	// the quantifier set compiled into a trie, rebuilt if the set is changed
+	private volatile QuantifierTrie trie = null;
+
+	private static final ThreadLocal<int[][]> scratch = new ThreadLocal<int[][]>() {
+		protected int[][] initialValue() {
+			return new int[3][16];
+		}
+	};
+
+	/**
+	 * Returns path string 'p' (label:word:label...) with quantity phrases ':Q:prep_of'
+	 * and 'rcmod:N:' removed.
+	 * <p>
+	 * The path is rewritten in a single left-to-right pass over its tokens,
+	 * looking up each token in a trie of the quantifiers.  The result is the
+	 * same as that of applying the patterns one after another
+	 * (<CODE>regularizeByPatterns</CODE>);  in the rare cases where the
+	 * two could differ (a deletion which creates a new match, or a match
+	 * within a token) the patterns are applied instead.
+	 */
+
 	public String regularize(String p) {
+		QuantifierTrie t = compiledQuantifiers();
+		if (t == null) {
+			return regularizeByPatterns(p);
+		}
+		int[][] buffers = scratch.get();
+		int length = p.length();
+		// ends[k] = end of token k;  token k starts at ends[k-1] + 1
+		int[] ends = buffers[0];
+		int n = 0;
+		for (int i = 0; i <= length; i++) {
+			if (i == length || p.charAt(i) == ':') {
+				if (n == ends.length) {
+					ends = buffers[0] = Arrays.copyOf(ends, 2 * n);
+				}
+				ends[n++] = i;
+			}
+		}
+		if (buffers[1].length < n) {
+			buffers[1] = new int[ends.length];
+			buffers[2] = new int[ends.length];
+		}
+		// tokens left after deleting ':Q:prep_of'
+		int[] kept = buffers[1];
+		int keptCount = 0;
+		boolean gap = false;
+		for (int k = 0; k < n; k++) {
+			if (k >= 1 && k + 1 < n && t.contains(p, start(ends, k), ends[k])
+					&& p.startsWith(PREP_OF, start(ends, k + 1))) {
+				if (ends[k + 1] - start(ends, k + 1) != PREP_OF.length()) {
+					return regularizeByPatterns(p);
+				}
+				k++;
+				gap = true;
+				continue;
+			}
+			if (gap && keptCount > 0) {
+				int prev = kept[keptCount - 1];
+				if (t.contains(p, start(ends, prev), ends[prev]) && p.startsWith(PREP_OF, start(ends, k))) {
+					return regularizeByPatterns(p);
+				}
+			}
+			gap = false;
+			kept[keptCount++] = k;
+		}
+		// tokens left after deleting 'rcmod:N:'
+		int[] result = buffers[2];
+		int resultCount = 0;
+		for (int j = 0; j < keptCount; j++) {
+			int k = kept[j];
+			if (j + 2 < keptCount && p.startsWith(RCMOD_LABEL, ends[k] - RCMOD_LABEL.length())
+					&& isNumber(p, start(ends, kept[j + 1]), ends[kept[j + 1]])) {
+				if (ends[k] - start(ends, k) != RCMOD_LABEL.length()) {
+					return regularizeByPatterns(p);
+				}
+				j++;
+				continue;
+			}
+			result[resultCount++] = k;
+		}
+		if (resultCount == n) {
+			return p;
+		}
+		StringBuilder sb = new StringBuilder(length);
+		for (int j = 0; j < resultCount; j++) {
+			if (j > 0) {
+				sb.append(':');
+			}
+			sb.append(p, start(ends, result[j]), ends[result[j]]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns path string 'p' with quantity phrases removed by applying a
+	 * pattern for each quantifier, and then one for 'rcmod:N:'.
+	 */
+
+	String regularizeByPatterns(String p) {
 		String result = p;
 		for (String w : quantifiers) {
-			result = result.replaceAll(":" + w + ":prep_of", "");
-		}
-		result = result.replaceAll("rcmod:\\d+:", "");
-		if (!p.equals(result)) {
-			// System.err.println("Before regularization:" + p);
-			// System.err.println("After regularization:" + result);
+			Pattern pattern = quantifierPatterns.get(w);
+			if (pattern == null) {
+				pattern = Pattern.compile(":" + w + ":prep_of");
+				quantifierPatterns.put(w, pattern);
+			}
+			result = pattern.matcher(result).replaceAll("");
 		}
+		result = RCMOD.matcher(result).replaceAll("");
 		return result;
 	}
 
+	private static int start(int[] ends, int k) {
+		return k == 0 ? 0 : ends[k - 1] + 1;
+	}
+
+	private static boolean isNumber(String s, int start, int end) {
+		if (start == end) return false;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the trie for the current quantifier set, or null if the set
+	 * contains words which the trie cannot handle (anything but letters).
+	 */
+
+	private QuantifierTrie compiledQuantifiers() {
+		QuantifierTrie t = trie;
+		int size = quantifiers.size();
+		int hashCode = quantifiers.hashCode();
+		if (t == null || t.size != size || t.hashCode != hashCode) {
+			t = new QuantifierTrie(new ArrayList<String>(quantifiers), size, hashCode);
+			trie = t;
+		}
+		return t.valid ? t : null;
+	}
+
+	/**
+	 * A trie over the characters of the quantifiers.  Node 0 is the root;
+	 * the children of a node are found by a linear search of its labels,
+	 * as there are few of them.
+	 */
+
+	static class QuantifierTrie {
+
+		int size;
+		int hashCode;
+		boolean valid = true;
+
+		char[][] labels = new char[1][0];
+		int[][] children = new int[1][0];
+		boolean[] terminal = new boolean[1];
+		int nodeCount = 1;
+
+		QuantifierTrie(List<String> words, int size, int hashCode) {
+			this.size = size;
+			this.hashCode = hashCode;
+			for (String w : words) {
+				if (w.length() == 0) {
+					valid = false;
+				}
+				for (int i = 0; i < w.length(); i++) {
+					if (!Character.isLetter(w.charAt(i))) {
+						valid = false;
+					}
+				}
+				if (valid) {
+					add(w);
+				}
+			}
+		}
+
+		private void add(String w) {
+			int node = 0;
+			for (int i = 0; i < w.length(); i++) {
+				int child = child(node, w.charAt(i));
+				if (child < 0) {
+					child = newNode();
+					labels[node] = Arrays.copyOf(labels[node], labels[node].length + 1);
+					children[node] = Arrays.copyOf(children[node], children[node].length + 1);
+					labels[node][labels[node].length - 1] = w.charAt(i);
+					children[node][children[node].length - 1] = child;
+				}
+				node = child;
+			}
+			terminal[node] = true;
+		}
+
+		private int newNode() {
+			if (nodeCount == terminal.length) {
+				labels = Arrays.copyOf(labels, 2 * nodeCount);
+				children = Arrays.copyOf(children, 2 * nodeCount);
+				terminal = Arrays.copyOf(terminal, 2 * nodeCount);
+			}
+			labels[nodeCount] = new char[0];
+			children[nodeCount] = new int[0];
+			return nodeCount++;
+		}
+
+		private int child(int node, char c) {
+			char[] l = labels[node];
+			for (int i = 0; i < l.length; i++) {
+				if (l[i] == c) return children[node][i];
+			}
+			return -1;
+		}
+
+		/**
+		 * returns true if s[start, end) is a quantifier
+		 */
+		boolean contains(String s, int start, int end) {
+			int node = 0;
+			for (int i = start; i < end && node >= 0; i++) {
+				node = child(node, s.charAt(i));
+			}
+			return node >= 0 && terminal[node];
+		}
+	}
+
 }
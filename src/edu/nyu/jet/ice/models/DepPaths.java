@@ -12,6 +12,7 @@ import edu.nyu.jet.ice.uicomps.Ice;
 import edu.nyu.jet.ice.utils.FileNameSchema;
 import edu.nyu.jet.ice.utils.IceUtils;
 import edu.nyu.jet.ice.utils.ProgressMonitorI;
+import edu.nyu.jet.ice.utils.StringCounter;
 import edu.nyu.jet.JetTest;
 import edu.nyu.jet.parser.SyntacticRelation;
 import edu.nyu.jet.parser.SyntacticRelationSet;
@@ -28,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * Collect a list of all dependency paths connecting two named entity mentions.
@@ -38,10 +40,16 @@ public class DepPaths {
     final static Logger logger = LoggerFactory.getLogger(DepPaths.class);
     public static final int MAX_ALLOWABLE_SENTLENGTH_FOR_DEPPATH = 600;
 
-    static Map<String, Integer> relationTypeCounts = new TreeMap<String, Integer>();
-    static Map<String, Integer> relationInstanceCounts = new TreeMap<String, Integer>();
-    static Map<String, String> sourceDict = new TreeMap<String, String>();
-    static Map<String, String> linearizationDict = new TreeMap<String, String>();
+    // counts are kept in unsorted primitive tables;  keys are sorted when
+    // the counts are written
+    static StringCounter relationTypeCounts = new StringCounter();
+    static StringCounter relationInstanceCounts = new StringCounter();
+    static StringCounter.FirstValues sourceDict = new StringCounter.FirstValues();
+    static StringCounter.FirstValues linearizationDict = new StringCounter.FirstValues();
+
+    // counts for the current document, saved if countPaths is asked to
+    static StringCounter documentInstanceCounts = new StringCounter();
+    static StringCounter documentTypeCounts = new StringCounter();
 
     static Map<String, String> pathRelations = new TreeMap<String, String>();
     static List<Event> depPathEvents = new ArrayList<Event>();
@@ -61,6 +69,8 @@ public class DepPaths {
 
     public static DepPathRegularizer depPathRegularizer = new DepPathRegularizer();
 
+    static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
     public static HashSet<String> disallowedRelations = new HashSet<String>();
 
     static {
@@ -92,12 +102,6 @@ public class DepPaths {
      */
 
     public static void main(String[] args) throws IOException {
-        relationTypeCounts.clear();
-        relationInstanceCounts.clear();
-        sourceDict.clear();
-        linearizationDict.clear();
-        DepTransformer transformer = new DepTransformer("yes");
-        transformer.setUsePrepositionTransformation(false);
         if (args.length != 7 && args.length != 8) {
             System.err.println("DepPaths requires 7 or 8 arguments:");
             System.err.println("  propsFile docList inputDir inputSuffix outputFile");
@@ -105,13 +109,37 @@ public class DepPaths {
         }
         String propsFile = args[0];
         String docList = args[1];
-        inputDir = args[2];
+        String inputDir = args[2];
         String inputSuffix = args[3];
         String outputFile = args[4];
         String typeOutputFile = args[5];
         // String sourceDictFile = args[6];
         String cacheDir = args.length == 8 ? args[7] :
                 FileNameSchema.getPreprocessCacheDir(Ice.selectedCorpusName);
+        countPaths(propsFile, docList, inputDir, inputSuffix, outputFile, typeOutputFile, cacheDir, false);
+    }
+
+    /**
+     * counts the dependency paths of the documents on <CODE>docList</CODE>, as
+     * <CODE>main</CODE> does.  If <CODE>saveDocumentCounts</CODE> is true, the
+     * relation instance and type counts of each document are also saved next to
+     * its annotation cache, for use in incremental corpus updates (see
+     * CorpusUpdate);  a document whose paths could not be collected gets no
+     * counts file.
+     * <p>
+     * The counts are kept in static tables, so only one count runs at a time.
+     */
+
+    public static synchronized void countPaths(String propsFile, String docList, String inputDir,
+                                               String inputSuffix, String outputFile, String typeOutputFile,
+                                               String cacheDir, boolean saveDocumentCounts) throws IOException {
+        DepPaths.inputDir = inputDir;
+        relationTypeCounts.clear();
+        relationInstanceCounts.clear();
+        sourceDict.clear();
+        linearizationDict.clear();
+        DepTransformer transformer = new DepTransformer("yes");
+        transformer.setUsePrepositionTransformation(false);
 
         // initialize Jet
 
@@ -150,9 +178,8 @@ public class DepPaths {
                 doc.stretchAll();
                 // process document
                 Ace.monocase = Ace.allLowerCase(doc);
-                Control.processDocument(doc, null, docCount == -1, docCount);
-
                 IcePreprocessor.fetchAnnotations (cacheDir, inputDir, inputFile);
+                IcePreprocessor.processDocument(doc, docCount);
 		// maintain two dependency trees:
 		//   relations is original parse, for generating repr (English phrase)
 		//   transformedRelations is transformed parse, for generating path
@@ -165,7 +192,15 @@ public class DepPaths {
                 IcePreprocessor.loadENAMEX(doc);
                 IcePreprocessor.loadAdditionalMentions(doc, cacheDir, inputDir, inputFile);
                 IcePreprocessor.addNumberAndTime(doc, cacheDir, inputDir, inputFile);
+                documentInstanceCounts.clear();
+                documentTypeCounts.clear();
                 collectPaths(doc, relations, transformedRelations);
+                if (saveDocumentCounts) {
+                    CorpusUpdate.saveRelationCounts(
+                            IcePreprocessor.cacheFileName(cacheDir, inputDir, inputFile)
+                                    + CorpusUpdate.RELATION_COUNTS_SUFFIX,
+                            documentInstanceCounts, documentTypeCounts);
+                }
                 if (progressMonitor != null) {
                     progressMonitor.setProgress(docCount);
                     progressMonitor.setNote(docCount + " files processed");
@@ -179,6 +214,7 @@ public class DepPaths {
                 e.printStackTrace();
             }
         }
+        docListReader.close();
         // *** write counts
         if (!isCanceled) {
             writer = new PrintWriter(new FileWriter(outputFile));
@@ -186,10 +222,10 @@ public class DepPaths {
             String relationReprFile = outputFile.substring(0, outputFile.length() - 1) + "Repr";
             PrintWriter relationReprWriter = new PrintWriter(new FileWriter(relationReprFile));
 //            PrintWriter sourceDictWriter = new PrintWriter(new FileWriter(sourceDictFile));
-            for (String r : relationInstanceCounts.keySet()) {
+            for (String r : relationInstanceCounts.sortedKeys()) {
                 writer.println(relationInstanceCounts.get(r) + "\t" + r);
             }
-            for (String r : relationTypeCounts.keySet()) {
+            for (String r : relationTypeCounts.sortedKeys()) {
                 typeWriter.println(relationTypeCounts.get(r) + "\t" + r);
 //                sourceDictWriter.println(relationTypeCounts.get(r) + "\t" + r + " ||| " + sourceDict.get(r));
                 relationReprWriter.println(r + ":::" + linearizationDict.get(r) + ":::" + sourceDict.get(r));
@@ -197,6 +233,8 @@ public class DepPaths {
             writer.close();
             typeWriter.close();
             relationReprWriter.close();
+            // index the instances for the bootstrappers
+            AnchoredPathIndex.build(outputFile);
 //            sourceDictWriter.close();
 
         }
@@ -216,7 +254,11 @@ public class DepPaths {
     /**
      *  generates dependency paths between all pairs of ENAMEXs appearing
      *  in the same sentence of document 'doc'.  These paths are then
-     *  recorded by 'recordPaths'.  
+     *  recorded by 'recordPaths'.
+     *  <p>
+     *  The dependency relations are first copied into RelationsFrom tables,
+     *  so that the search for each pair of mentions does not ask Jet for
+     *  the relations from each node again.
      */
 
     static void collectPaths(Document doc,
@@ -229,6 +271,58 @@ public class DepPaths {
         if (names == null) {
             return;
         }
+        List<SentenceMentions> sentences = selectSentences(doc, jetSentences, names);
+        List<FoundPath> found = findPaths(sentences, new RelationsFrom(relations),
+                new RelationsFrom(transformedRelations));
+        PathCollector collector = new PathCollector();
+        for (FoundPath p : found) {
+            recordPath(doc, p.sentence.sentence, relations, p.mention1, p.path, p.transPath, p.mention2, collector);
+        }
+        collector.addTo();
+    }
+
+    /**
+     *  A sentence from which paths are collected, with its mentions and
+     *  their spans.
+     */
+
+    static class SentenceMentions {
+        final Annotation sentence;
+        final List<Annotation> names = new ArrayList<Annotation>();
+        final List<Span> headSpans = new ArrayList<Span>();
+
+        SentenceMentions(Annotation sentence) {
+            this.sentence = sentence;
+        }
+    }
+
+    /**
+     *  A pair of mentions of a sentence with the paths found between them.
+     */
+
+    static class FoundPath {
+        final SentenceMentions sentence;
+        final Annotation mention1, mention2;
+        final DepPath path, transPath;
+
+        FoundPath(SentenceMentions sentence, Annotation mention1, Annotation mention2,
+                  DepPath path, DepPath transPath) {
+            this.sentence = sentence;
+            this.mention1 = mention1;
+            this.mention2 = mention2;
+            this.path = path;
+            this.transPath = transPath;
+        }
+    }
+
+    /**
+     *  returns the sentences of 'doc' from which paths are to be collected,
+     *  with their mentions.
+     */
+
+    static List<SentenceMentions> selectSentences(Document doc, List<Annotation> jetSentences,
+                                                  List<Annotation> names) {
+        List<SentenceMentions> sentences = new ArrayList<SentenceMentions>();
         int sentCount = 0;
         for (Annotation sentence : jetSentences) {
             sentCount++;
@@ -245,38 +339,123 @@ public class DepPaths {
                 continue;
             }
 
-            List<Annotation> localNames = new ArrayList<Annotation>();
-            List<Span> localHeadSpans = new ArrayList<Span>();
+            SentenceMentions s = new SentenceMentions(sentence);
             for (Annotation name : names) {
                 if (annotationInSentence(name, sentence)) {
-                    localNames.add(name);
+                    s.names.add(name);
                     // do not use 'findTerminalHead' till it is improved
-                    // localHeadSpans.add(IcePreprocessor.findTermHead(doc, name, relations).span()); >>> check
-                    localHeadSpans.add(name.span());
+                    // s.headSpans.add(IcePreprocessor.findTermHead(doc, name, relations).span()); >>> check
+                    s.headSpans.add(name.span());
                 }
             }
-            if (localNames.size() > MAX_MENTIONS_IN_SENTENCE) {
+            if (s.names.size() > MAX_MENTIONS_IN_SENTENCE) {
                 System.err.println("Too many mentions in one sentence. Skipped.");
                 continue;
             }
-            for (int i = 0; i < localNames.size(); i++) {
-                for (int j = 0; j < localNames.size(); j++) {
+            sentences.add(s);
+        }
+        return sentences;
+    }
+
+    /**
+     *  finds the paths between the mentions of 'sentences', in both
+     *  'relations' and 'transformedRelations'.  Only pairs with a path in
+     *  both are returned.
+     */
+
+    static List<FoundPath> findPaths(List<SentenceMentions> sentences,
+                                     RelationsFrom relations, RelationsFrom transformedRelations) {
+        List<FoundPath> found = new ArrayList<FoundPath>();
+        Map<Integer, DepPath> paths = new HashMap<Integer, DepPath>();
+        ArrayDeque<Integer> todo = new ArrayDeque<Integer>();
+        for (SentenceMentions sentence : sentences) {
+            List<Span> localHeadSpans = sentence.headSpans;
+            for (int i = 0; i < localHeadSpans.size(); i++) {
+                for (int j = 0; j < localHeadSpans.size(); j++) {
                     if (i == j) continue;
                     Span h1 = localHeadSpans.get(i);
                     Span h2 = localHeadSpans.get(j);
                     // - mention1 precedes mention2
                     if (h1.start() >= h2.start()) continue;
-                    // find and record dep path from head of m1 to head of m2
-                    DepPath path = buildSyntacticPathOnSpans(h1.start(), h2.start(),
-                            localNames.get(i).span(), localNames.get(j).span(),
-                            relations, localHeadSpans);
-                    DepPath transPath = buildSyntacticPathOnSpans(h1.start(), h2.start(),
-                            localNames.get(i).span(), localNames.get(j).span(),
-                            transformedRelations, localHeadSpans);
-                    recordPath(doc, sentence, relations, localNames.get(i), path,  transPath, localNames.get(j));
+                    // find dep path from head of m1 to head of m2
+                    DepPath path = buildSyntacticPathOnSpans(h1.start(), h2.start(), h1, h2,
+                            relations, localHeadSpans, paths, todo);
+                    if (path == null) continue;
+                    DepPath transPath = buildSyntacticPathOnSpans(h1.start(), h2.start(), h1, h2,
+                            transformedRelations, localHeadSpans, paths, todo);
+                    if (transPath == null) continue;
+                    found.add(new FoundPath(sentence, sentence.names.get(i), sentence.names.get(j),
+                            path, transPath));
                 }
             }
         }
+        return found;
+    }
+
+    /**
+     *  The dependency relations of a SyntacticRelationSet, indexed by the
+     *  position of their source, built by calling 'getRelationsFrom' once
+     *  for each source.
+     */
+
+    static class RelationsFrom {
+
+        private static final SyntacticRelation[] NONE = new SyntacticRelation[0];
+
+        private final Map<Integer, SyntacticRelation[]> bySource = new HashMap<Integer, SyntacticRelation[]>();
+
+        RelationsFrom(SyntacticRelationSet relations) {
+            for (int i = 0; i < relations.size(); i++) {
+                int source = relations.get(i).sourcePosn;
+                if (bySource.containsKey(source)) continue;
+                SyntacticRelationSet fromSet = relations.getRelationsFrom(source);
+                SyntacticRelation[] from = new SyntacticRelation[fromSet.size()];
+                for (int ifrom = 0; ifrom < from.length; ifrom++) {
+                    from[ifrom] = fromSet.get(ifrom);
+                }
+                bySource.put(source, from);
+            }
+        }
+
+        /**
+         *  returns the relations whose source is at 'posn'.
+         */
+
+        SyntacticRelation[] get(int posn) {
+            SyntacticRelation[] from = bySource.get(posn);
+            return from == null ? NONE : from;
+        }
+    }
+
+    /**
+     *  Paths collected from a document, added to the tables of DepPaths
+     *  once the document is done.
+     */
+
+    static class PathCollector {
+
+        StringCounter instanceCounts = new StringCounter();
+        StringCounter typeCounts = new StringCounter();
+        StringCounter.FirstValues sources = new StringCounter.FirstValues();
+        StringCounter.FirstValues linearizations = new StringCounter.FirstValues();
+        List<Event> events = new ArrayList<Event>();
+
+        // reused for each path
+        StringBuilder text = new StringBuilder();
+
+        /**
+         *  adds the paths collected here to the tables of DepPaths.
+         */
+
+        void addTo() {
+            relationInstanceCounts.addAll(instanceCounts);
+            documentInstanceCounts.addAll(instanceCounts);
+            relationTypeCounts.addAll(typeCounts);
+            documentTypeCounts.addAll(typeCounts);
+            sourceDict.addAll(sources);
+            linearizationDict.addAll(linearizations);
+            depPathEvents.addAll(events);
+        }
     }
 
     private static boolean mentionInSentence(AceEntityMention mention, Annotation sentence) {
@@ -302,7 +481,8 @@ public class DepPaths {
      */
 
     static void recordPath(Document doc, Annotation sentence, SyntacticRelationSet relations,
-                           Annotation mention1, DepPath path, DepPath transPath, Annotation mention2) {
+                           Annotation mention1, DepPath path, DepPath transPath, Annotation mention2,
+                           PathCollector collector) {
 
         if (transPath == null || path == null) return;
         DepPath regularizedPath = depPathRegularizer.regularize(transPath);
@@ -310,21 +490,20 @@ public class DepPaths {
         if (regularizedPath.length() > 5) {
             return;
         }
-        String m1 = doc.text(mention1).replaceAll("\\s+", " ").trim();
+        String regularizedPathString = regularizedPath.toString();
+        String m1 = WHITESPACE.matcher(doc.text(mention1)).replaceAll(" ").trim();
         String m1Val = m1;
         if (mention1.get("mType") != null &&
                 mention1.get("mType").equals("PRO")) {
-            m1Val = ((String) mention1.get("val")).replaceAll("\\s+", " ").trim();
+            m1Val = WHITESPACE.matcher((String) mention1.get("val")).replaceAll(" ").trim();
         }
-        String m2 = doc.text(mention2).replaceAll("\\s+", " ").trim();
+        String m2 = WHITESPACE.matcher(doc.text(mention2)).replaceAll(" ").trim();
         String m2Val = m2;
         if (mention2.get("mType") != null &&
                 mention2.get("mType").equals("PRO")) {
-            m2Val = ((String) mention2.get("val")).replaceAll("\\s+", " ").trim();
+            m2Val = WHITESPACE.matcher((String) mention2.get("val")).replaceAll(" ").trim();
         }
-        String source = pathText(doc, sentence, mention1, mention2);
-
-        count(relationInstanceCounts, m1Val + " -- " + regularizedPath + " -- " + m2Val);
+        collector.instanceCounts.increment(m1Val + " -- " + regularizedPathString + " -- " + m2Val);
 
         String type1 = mention1.get("TYPE") != null ? (String) mention1.get("TYPE") : "OTHER";
         String type2 = mention2.get("TYPE") != null ? (String) mention2.get("TYPE") : "OTHER";
@@ -333,27 +512,28 @@ public class DepPaths {
             type2 += "(2)";
         }
 
-        String fullPath = type1 + " -- " + regularizedPath + " -- " + type2;
-        count(relationTypeCounts, fullPath);
+        String fullPath = type1 + " -- " + regularizedPathString + " -- " + type2;
+        collector.typeCounts.increment(fullPath);
         // collect events
         // In EntitySetIndexer:
         // Event event = new Event(tokenString, contextList.toArray(new String[contextList.size()]));
-        String[] regularizedSegments = regularizedPath.toString().split(":");
+        String[] regularizedSegments = regularizedPathString.split(":");
         List<String> contextList = new ArrayList<String>();
         StringBuilder sb = new StringBuilder();
         for (int i = 0; regularizedSegments.length % 2 == 1 && i + 2 < regularizedSegments.length; i += 2) {
             sb.setLength(0);
             sb.append(regularizedSegments[i].trim()).append(":" + regularizedSegments[i + 1].trim()).append(":" + regularizedSegments[i + 2].trim());
             contextList.add(sb.toString());
-            Event event = new Event(regularizedPath.toString(), contextList.toArray(new String[contextList.size()]));
-            depPathEvents.add(event);
+            Event event = new Event(regularizedPathString, contextList.toArray(new String[contextList.size()]));
+            collector.events.add(event);
         }
-        if (!sourceDict.containsKey(fullPath)) {
-            sourceDict.put(fullPath, source);
+        // the example and linearization are only built for the first instance of a path
+        // (sourceDict and linearizationDict are only changed between documents)
+        if (!sourceDict.containsKey(fullPath) && !collector.sources.containsKey(fullPath)) {
+            collector.sources.putIfAbsent(fullPath, pathText(doc, sentence, mention1, mention2, collector.text));
         }
-        String linearizedPath = path.linearize(doc, relations, type1, type2, false);
-        if (!linearizationDict.containsKey(fullPath)) {
-            linearizationDict.put(fullPath, linearizedPath);
+        if (!linearizationDict.containsKey(fullPath) && !collector.linearizations.containsKey(fullPath)) {
+            collector.linearizations.putIfAbsent(fullPath, path.linearize(doc, relations, type1, type2, false));
         }
     }
 
@@ -370,24 +550,33 @@ public class DepPaths {
 
     public static DepPath buildSyntacticPathOnSpans (int fromPosn, int toPosn,
             Span arg1, Span arg2, SyntacticRelationSet relations, List<Span> localSpans) {
-        Map<Integer, DepPath> path = new HashMap<Integer, DepPath>();
+        return buildSyntacticPathOnSpans(fromPosn, toPosn, arg1, arg2, new RelationsFrom(relations), localSpans,
+                new HashMap<Integer, DepPath>(), new ArrayDeque<Integer>());
+    }
+
+    /**
+     * as above, using 'path' and 'todo' (which are cleared first) as scratch space.
+     */
+
+    static DepPath buildSyntacticPathOnSpans (int fromPosn, int toPosn,
+            Span arg1, Span arg2, RelationsFrom relations, List<Span> localSpans,
+            Map<Integer, DepPath> path, ArrayDeque<Integer> todo) {
+        path.clear();
+        todo.clear();
         DepPath p = new DepPath(fromPosn, toPosn, arg1, arg2);
-        int variable = 0;
-        LinkedList<Integer> todo = new LinkedList<Integer>();
-        todo.add(new Integer(fromPosn));
-        path.put(new Integer(fromPosn), p);
+        todo.add(fromPosn);
+        path.put(fromPosn, p);
 
         while (todo.size() > 0) {
             Integer from = todo.removeFirst();
             logger.trace("from = " + from);
-            SyntacticRelationSet fromSet = relations.getRelationsFrom(from.intValue());
-            logger.trace("fromSet = " + fromSet);
-            for (int ifrom = 0; ifrom < fromSet.size(); ifrom++) {
-                SyntacticRelation r = fromSet.get(ifrom);
+            SyntacticRelation[] fromSet = relations.get(from.intValue());
+            logger.trace("fromSet = " + Arrays.toString(fromSet));
+            for (SyntacticRelation r : fromSet) {
                 if (disallowedRelations.contains(r.type)) {
                     continue;
                 }
-                Integer to = new Integer(r.targetPosn);
+                Integer to = r.targetPosn;
                 // avoid loops
                 if (path.get(to) != null) continue;
                 // disallow mentions
@@ -415,13 +604,6 @@ public class DepPaths {
         return null;
     }
 
-
-    static void count(Map<String, Integer> map, String s) {
-        Integer n = map.get(s);
-        if (n == null) n = 0;
-        map.put(s, n + 1);
-    }
-
     /**
      *  returns text of 'sentence' with 'mention1' and 'mention2' enclosed in brackets.
      *  This is the form in which examples of relations are presented to the user.
@@ -429,24 +611,28 @@ public class DepPaths {
 
     static String pathText(Document doc, Annotation sentence,
                            Annotation mention1, Annotation mention2) {
+        return pathText(doc, sentence, mention1, mention2, new StringBuilder());
+    }
+
+    static String pathText(Document doc, Annotation sentence,
+                           Annotation mention1, Annotation mention2, StringBuilder text) {
         int head1start = mention1.start();
         int head1end = mention1.end();
         int head2start = mention2.start();
         int head2end = mention2.end();
         int start = sentence.start();  //mention1.jetExtent.start();
         int end = sentence.end();  //mention2.jetExtent.end();
-        int posn = head1start;
-        String text = "";
-        if (start < head1start) text += doc.normalizedText(new Span(start, head1start));
-        text += " [";
-        text += doc.normalizedText(new Span(head1start, head1end));
-        text += "] ";
-        if (head1end < head2start) text += doc.normalizedText(new Span(head1end, head2start));
-        text += " [";
-        text += doc.normalizedText(new Span(head2start, head2end));
-        text += "] ";
-        if (head2end < end) text += doc.normalizedText(new Span(head2end, end));
-        return text.trim();
+        text.setLength(0);
+        if (start < head1start) text.append(doc.normalizedText(new Span(start, head1start)));
+        text.append(" [");
+        text.append(doc.normalizedText(new Span(head1start, head1end)));
+        text.append("] ");
+        if (head1end < head2start) text.append(doc.normalizedText(new Span(head1end, head2start)));
+        text.append(" [");
+        text.append(doc.normalizedText(new Span(head2start, head2end)));
+        text.append("] ");
+        if (head2end < end) text.append(doc.normalizedText(new Span(head2end, end)));
+        return text.toString().trim();
     }
 
 
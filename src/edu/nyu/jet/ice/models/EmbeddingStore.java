@@ -0,0 +1,521 @@
+package edu.nyu.jet.ice.models;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A read-only table of word embeddings, kept in a binary file which is memory-mapped rather than read into the heap.
+ * <p>
+ * The binary file is made once from a text file of embeddings (one word per line, followed by its coordinates,
+ * optionally preceded by a line giving the number of words and the dimension, as written by word2vec), and is
+ * stored next to it with suffix <CODE>.bin</CODE>. It is rebuilt if the text file is newer. It holds
+ * <ul>
+ * <li>a hash table from words to row numbers,
+ * <li>the words, in UTF-8, in row order, and
+ * <li>a matrix of floats, one row per word.
+ * </ul>
+ * Words are looked up with <CODE>indexOf</CODE>, and their vectors are read from the mapped matrix by row number, so
+ * no objects are created per word. Stores are shared: <CODE>open</CODE> returns the same store for the same file.
+ *
+ * @version 1.0
+ */
+public class EmbeddingStore {
+
+	public static final String SUFFIX = ".bin";
+
+	static final int MAGIC = 0x49434545;
+	static final int FORMAT_VERSION = 1;
+	static final int HEADER_BYTES = 32;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Map<String, EmbeddingStore> stores = new HashMap<String, EmbeddingStore>();
+
+	private final String fileName;
+	private final long lastModified;
+	private final int size;
+	private final int dim;
+	private final IntBuffer table;
+	private final int tableMask;
+	private final IntBuffer wordOffsets;
+	private final ByteBuffer words;
+	private final FloatBuffer[] matrix;
+	private final int rowsPerChunk;
+
+	/**
+	 * Returns the store for embeddings file <CODE>fileName</CODE>, which may be a text file or a binary file made
+	 * from one. The binary file is made if needed; stores already open are shared.
+	 */
+	public static synchronized EmbeddingStore open(String fileName) throws IOException {
+		File file = new File(fileName);
+		File binaryFile = isBinary(file) ? file : binaryFile(file);
+		String key = binaryFile.getCanonicalPath();
+		EmbeddingStore store = stores.get(key);
+		if (store == null || store.lastModified != binaryFile.lastModified()) {
+			store = new EmbeddingStore(binaryFile.getPath());
+			stores.put(key, store);
+		}
+		return store;
+	}
+
+	/**
+	 * Returns the binary file for text file <CODE>textFile</CODE>, making it if it does not exist or is older than
+	 * the text file.
+	 */
+	static File binaryFile(File textFile) throws IOException {
+		File binaryFile = new File(textFile.getPath() + SUFFIX);
+		if (binaryFile.exists() && binaryFile.lastModified() >= textFile.lastModified() && isBinary(binaryFile)) {
+			return binaryFile;
+		}
+		File directory = textFile.getAbsoluteFile().getParentFile();
+		if (directory.canWrite()) {
+			File tempFile = File.createTempFile("embeddings", SUFFIX, directory);
+			convert(textFile, tempFile);
+			binaryFile.delete();
+			if (tempFile.renameTo(binaryFile)) {
+				return binaryFile;
+			}
+			tempFile.deleteOnExit();
+			return tempFile;
+		} else {
+			File tempFile = File.createTempFile("embeddings", SUFFIX);
+			tempFile.deleteOnExit();
+			convert(textFile, tempFile);
+			return tempFile;
+		}
+	}
+
+	private static boolean isBinary(File file) {
+		if (file.length() < HEADER_BYTES) {
+			return false;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Converts text file <CODE>textFile</CODE> into binary file <CODE>binaryFile</CODE>. If a word appears more than
+	 * once, the last vector is kept; lines whose dimension differs from that of the first are skipped.
+	 */
+	static void convert(File textFile, File binaryFile) throws IOException {
+		System.err.println("Converting embeddings " + textFile + " to binary...");
+		File matrixFile = File.createTempFile("matrix", ".tmp", binaryFile.getAbsoluteFile().getParentFile());
+		List<String> wordList = new ArrayList<String>();
+		TObjectIntHashMap<String> rows = new TObjectIntHashMap<String>(16, 0.5f, -1);
+		Map<Integer, float[]> replaced = new HashMap<Integer, float[]>();
+		int dim = -1;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(textFile), UTF8));
+		DataOutputStream matrixOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(matrixFile)));
+		try {
+			String line;
+			boolean firstLine = true;
+			while ((line = reader.readLine()) != null) {
+				StringTokenizer tok = new StringTokenizer(line, " \t");
+				int count = tok.countTokens();
+				if (count == 0) continue;
+				String word = tok.nextToken();
+				if (firstLine && count == 2 && isInteger(word)) {
+					// word2vec header: word count and dimension
+					String dimension = tok.nextToken();
+					if (isInteger(dimension)) {
+						dim = Integer.parseInt(dimension);
+						firstLine = false;
+						continue;
+					}
+					tok = new StringTokenizer(line, " \t");
+					word = tok.nextToken();
+				}
+				firstLine = false;
+				if (dim < 0) {
+					dim = count - 1;
+				}
+				if (count - 1 != dim) {
+					System.err.println("Skipping embedding of " + word + ": dimension " + (count - 1));
+					continue;
+				}
+				float[] v = new float[dim];
+				for (int i = 0; i < dim; i++) {
+					v[i] = Float.parseFloat(tok.nextToken());
+				}
+				int row = rows.get(word);
+				if (row >= 0) {
+					replaced.put(row, v);
+					continue;
+				}
+				rows.put(word, wordList.size());
+				wordList.add(word);
+				for (int i = 0; i < dim; i++) {
+					matrixOut.writeFloat(v[i]);
+				}
+				if (wordList.size() % 100000 == 0) {
+					System.err.print(wordList.size() + "...");
+				}
+			}
+		} finally {
+			reader.close();
+			matrixOut.close();
+		}
+		System.err.println();
+		if (dim < 0) {
+			dim = 0;
+		}
+		try {
+			write(binaryFile, wordList, dim, matrixFile, replaced);
+		} finally {
+			matrixFile.delete();
+		}
+	}
+
+	private static boolean isInteger(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i))) return false;
+		}
+		return s.length() > 0;
+	}
+
+	private static void write(File binaryFile, List<String> wordList, int dim, File matrixFile,
+	                          Map<Integer, float[]> replaced) throws IOException {
+		int size = wordList.size();
+		int tableSize = tableSize(size);
+		int[] table = new int[tableSize];
+		Arrays.fill(table, -1);
+		int[] offsets = new int[size + 1];
+		ByteArrayOutputStream wordBytes = new ByteArrayOutputStream();
+		for (int row = 0; row < size; row++) {
+			String word = wordList.get(row);
+			int slot = slot(word.hashCode(), tableSize - 1);
+			while (table[slot] >= 0) {
+				slot = (slot + 1) & (tableSize - 1);
+			}
+			table[slot] = row;
+			offsets[row] = wordBytes.size();
+			byte[] bytes = word.getBytes(UTF8);
+			wordBytes.write(bytes, 0, bytes.length);
+		}
+		offsets[size] = wordBytes.size();
+		while (wordBytes.size() % 4 != 0) {
+			wordBytes.write(0);
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(size);
+			out.writeInt(dim);
+			out.writeInt(tableSize);
+			out.writeInt(wordBytes.size());
+			out.writeInt(0);
+			out.writeInt(0);
+			for (int slot : table) {
+				out.writeInt(slot);
+			}
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+			wordBytes.writeTo(out);
+			InputStream matrixIn = new BufferedInputStream(new FileInputStream(matrixFile));
+			try {
+				byte[] buffer = new byte[1 << 16];
+				int n;
+				while ((n = matrixIn.read(buffer)) > 0) {
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				matrixIn.close();
+			}
+		} finally {
+			out.close();
+		}
+		if (!replaced.isEmpty()) {
+			long matrixStart = matrixStart(tableSize, size, wordBytes.size());
+			RandomAccessFile file = new RandomAccessFile(binaryFile, "rw");
+			try {
+				for (Map.Entry<Integer, float[]> entry : replaced.entrySet()) {
+					file.seek(matrixStart + (long) entry.getKey() * dim * 4);
+					for (float x : entry.getValue()) {
+						file.writeFloat(x);
+					}
+				}
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	private static int tableSize(int size) {
+		int tableSize = 2;
+		while (tableSize < 2 * size) {
+			tableSize *= 2;
+		}
+		return tableSize;
+	}
+
+	private static int slot(int hashCode, int mask) {
+		int h = hashCode * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static long matrixStart(int tableSize, int size, int wordBytesLength) {
+		return HEADER_BYTES + 4L * tableSize + 4L * (size + 1) + wordBytesLength;
+	}
+
+	/**
+	 * Maps binary embeddings file <CODE>fileName</CODE>.
+	 */
+	EmbeddingStore(String fileName) throws IOException {
+		this.fileName = fileName;
+		this.lastModified = new File(fileName).lastModified();
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+				throw new IOException(fileName + " is not a binary embeddings file");
+			}
+			size = header.getInt(8);
+			dim = header.getInt(12);
+			int tableSize = header.getInt(16);
+			int wordBytesLength = header.getInt(20);
+			tableMask = tableSize - 1;
+			long matrixStart = matrixStart(tableSize, size, wordBytesLength);
+			MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, matrixStart - HEADER_BYTES);
+			index.position(0).limit(4 * tableSize);
+			table = index.slice().asIntBuffer();
+			index.position(4 * tableSize).limit(4 * tableSize + 4 * (size + 1));
+			wordOffsets = index.slice().asIntBuffer();
+			index.position(4 * tableSize + 4 * (size + 1)).limit(index.capacity());
+			words = index.slice();
+			// the matrix is mapped in chunks of whole rows, as a mapping is limited to 2 GB
+			rowsPerChunk = dim == 0 ? Math.max(1, size) : Math.max(1, Integer.MAX_VALUE / (4 * dim));
+			int chunks = size == 0 ? 0 : (size + rowsPerChunk - 1) / rowsPerChunk;
+			matrix = new FloatBuffer[chunks];
+			for (int c = 0; c < chunks; c++) {
+				int rows = Math.min(rowsPerChunk, size - c * rowsPerChunk);
+				matrix[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+						matrixStart + 4L * dim * c * rowsPerChunk, 4L * dim * rows).asFloatBuffer();
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the number of words in the store.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the dimension of the vectors.
+	 */
+	public int dimension() {
+		return dim;
+	}
+
+	/**
+	 * Returns the row of <CODE>word</CODE>, or -1 if the store has no embedding for it.
+	 */
+	public int indexOf(String word) {
+		if (size == 0) {
+			return -1;
+		}
+		int slot = slot(word.hashCode(), tableMask);
+		while (true) {
+			int row = table.get(slot);
+			if (row < 0) {
+				return -1;
+			}
+			if (wordEquals(row, word)) {
+				return row;
+			}
+			slot = (slot + 1) & tableMask;
+		}
+	}
+
+	private boolean wordEquals(int row, String word) {
+		int start = wordOffsets.get(row);
+		int end = wordOffsets.get(row + 1);
+		if (end - start == word.length()) {
+			// one byte per char: the word is ASCII, and may be compared without decoding it
+			for (int i = 0; i < word.length(); i++) {
+				if (words.get(start + i) != word.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		// otherwise UTF-8 takes more bytes than chars
+		return end - start > word.length() && word(row).equals(word);
+	}
+
+	/**
+	 * Returns the word of row <CODE>row</CODE>.
+	 */
+	public String word(int row) {
+		int start = wordOffsets.get(row);
+		int end = wordOffsets.get(row + 1);
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = words.get(start + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Returns coordinate <CODE>k</CODE> of the vector of row <CODE>row</CODE>.
+	 */
+	public float get(int row, int k) {
+		return matrix[row / rowsPerChunk].get((row % rowsPerChunk) * dim + k);
+	}
+
+	/**
+	 * Returns a copy of the vector of row <CODE>row</CODE>.
+	 */
+	public double[] vector(int row) {
+		double[] v = new double[dim];
+		vector(row, v);
+		return v;
+	}
+
+	/**
+	 * Copies the vector of row <CODE>row</CODE> into <CODE>v</CODE>.
+	 */
+	public void vector(int row, double[] v) {
+		FloatBuffer chunk = matrix[row / rowsPerChunk];
+		int start = (row % rowsPerChunk) * dim;
+		for (int k = 0; k < dim; k++) {
+			v[k] = chunk.get(start + k);
+		}
+	}
+
+	/**
+	 * Returns the dot product of the vector of row <CODE>row</CODE> with <CODE>v</CODE>.
+	 */
+	public double dotProduct(int row, double[] v) {
+		FloatBuffer chunk = matrix[row / rowsPerChunk];
+		int start = (row % rowsPerChunk) * dim;
+		double result = 0;
+		for (int k = 0; k < dim && k < v.length; k++) {
+			result += chunk.get(start + k) * v[k];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a read-only view of the store as a map from phrases to vectors, for embeddings of phrases in which the
+	 * words are joined by '_' (as in word2vec phrase embeddings): the keys of the map have the words joined by blanks.
+	 * If <CODE>normalized</CODE> is true, the vectors are scaled to length 1. Vectors are read from the store as
+	 * they are requested.
+	 */
+	public Map<String, double[]> phraseMap(boolean normalized) {
+		return new PhraseMap(normalized);
+	}
+
+	private class PhraseMap extends AbstractMap<String, double[]> {
+
+		private final boolean normalized;
+
+		PhraseMap(boolean normalized) {
+			this.normalized = normalized;
+		}
+
+		private int row(Object key) {
+			if (!(key instanceof String) || ((String) key).indexOf('_') >= 0) {
+				return -1;
+			}
+			return indexOf(((String) key).replace(' ', '_'));
+		}
+
+		private double[] value(int row) {
+			double[] v = vector(row);
+			if (normalized) {
+				double l2sum = 0;
+				for (int i = 0; i < v.length; i++) {
+					l2sum += v[i] * v[i];
+				}
+				l2sum = Math.sqrt(l2sum);
+				for (int i = 0; i < v.length; i++) {
+					v[i] /= l2sum;
+				}
+			}
+			return v;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return row(key) >= 0;
+		}
+
+		@Override
+		public double[] get(Object key) {
+			int row = row(key);
+			return row < 0 ? null : value(row);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Set<Map.Entry<String, double[]>> entrySet() {
+			return new AbstractSet<Map.Entry<String, double[]>>() {
+				public int size() {
+					return size;
+				}
+
+				public Iterator<Map.Entry<String, double[]>> iterator() {
+					return new Iterator<Map.Entry<String, double[]>>() {
+						int row = 0;
+
+						public boolean hasNext() {
+							return row < size;
+						}
+
+						public Map.Entry<String, double[]> next() {
+							if (row >= size) {
+								throw new NoSuchElementException();
+							}
+							final int entryRow = row++;
+							return new Map.Entry<String, double[]>() {
+								public String getKey() {
+									return word(entryRow).replace('_', ' ');
+								}
+
+								public double[] getValue() {
+									return value(entryRow);
+								}
+
+								public double[] setValue(double[] value) {
+									throw new UnsupportedOperationException();
+								}
+							};
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
+}
@@ -8,6 +8,7 @@ package edu.nyu.jet.ice.models;// -*- tab-width: 4 -*-
 import edu.nyu.jet.aceJet.*;
 import edu.nyu.jet.Control;
 import edu.nyu.jet.ice.uicomps.Ice;
+import edu.nyu.jet.ice.utils.DocumentScheduler;
 import edu.nyu.jet.ice.utils.FileNameSchema;
 import edu.nyu.jet.ice.utils.IceUtils;
 import edu.nyu.jet.ice.utils.ProgressMonitorI;
@@ -67,10 +68,17 @@ import java.util.*;
  * recomputed using information computed in the first stage.
  * <p>
  * Annotation Cache:  all information from the first stage (except
- * the ACE entities) is stored in a single file. This information
+ * the ACE entities) is stored in a single file (see AnnotationCache
+ * for its format). This information
  * is initially loaded from disk into an <i>annotation cache</i>
  * by method fetchAnnotations;  specific methods (loadPOS,
  * load ENAMEX, ...) then extract information from the cache.
+ * The annotation cache is kept per thread.
+ * <p>
+ * Jet keeps its state in static fields, so a JVM preprocesses one
+ * document at a time;  documents can be preprocessed in parallel by
+ * worker processes (see setWorkerProcesses), each document being
+ * written to its own cache files.
  */
 
 public class IcePreprocessor extends Thread {
@@ -103,6 +111,46 @@ public class IcePreprocessor extends Thread {
 
     ProgressMonitorI progressMonitor = null;
 
+    /**
+     *  sets the number of worker processes used to preprocess the corpus, and
+     *  the command (program and arguments) which starts a worker process (see
+     *  serveDocuments).  With
+     *  more than one process, documents are handed out to the processes
+     *  instead of being preprocessed by this JVM.
+     */
+
+    public void setWorkerProcesses(int numProcesses, List<String> workerCommand) {
+        this.numProcesses = numProcesses;
+        this.workerCommand = workerCommand;
+    }
+
+    int numProcesses = 1;
+
+    List<String> workerCommand = null;
+
+    /**
+     *  returns the names of the documents of the last run which could not be
+     *  preprocessed.
+     */
+
+    public List<String> getFailedDocuments() {
+        return new ArrayList<String>(failedDocuments);
+    }
+
+    List<String> failedDocuments = new ArrayList<String>();
+
+    /**
+     *  if false, preprocessing does not go on to count the words and dependency
+     *  paths of the selected corpus (used for incremental updates, which merge
+     *  the counts of the new documents themselves).
+     */
+
+    public void setCountCorpus(boolean countCorpus) {
+        this.countCorpus = countCorpus;
+    }
+
+    boolean countCorpus = true;
+
 
     /**
      * creates an IcePreprocessor.
@@ -168,95 +216,47 @@ public class IcePreprocessor extends Thread {
             progressMonitor.setNote("Loading Jet models...");
         }
 
-        File cacheDirFile = new File(cacheDir);
-        cacheDirFile.mkdirs();
-
-        // initialize Jet
-        JetTest.initializeFromConfig(propsFile);
-
-        try {
-            FileUtils.copyFile(new File(JetTest.getConfig("Jet.dataPath") + File.separator + "apf.v5.1.1.dtd"),
-                    new File(cacheDir + File.separator + "apf.v5.1.1.dtd"));
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (numProcesses > 1 && workerCommand != null) {
+            // models are loaded by the worker processes
+            new File(cacheDir).mkdirs();
+        } else if (!initializeJet()) {
             return;
         }
-        // load ACE type dictionary
-        EDTtype.readTypeDict();
-        // ACE mode (provides additional antecedents ...)
-        Resolve.ACE = true;
 
-        int docCount = 0;
-        String docName;
         if (progressMonitor != null) {
             progressMonitor.setProgress(5);
             progressMonitor.setNote("Loading Jet models... done.");
         }
         try {
+            List<String> docNames = new ArrayList<String>();
             BufferedReader docListReader = new BufferedReader(new FileReader(docList));
-            boolean isCanceled = false;
-            docCount = 0;
-            System.out.println();
+            String docName;
             while ((docName = docListReader.readLine()) != null) {
-                docCount++;
-                try {
-                    String inputFile;
-                    if ("*".equals(inputSuffix.trim())) {
-                        inputFile = docName;
-                    } else {
-                        inputFile = docName + "." + inputSuffix;
-                    }
-                    System.out.println(String.format("[Corpus:%s]", Ice.selectedCorpusName)
-                            + " Processing document " + docCount + ": " + inputFile);
-                    ExternalDocument doc = new ExternalDocument("sgml", inputDir, inputFile);
-                    doc.setAllTags(true);
-                    doc.open();
-                    // process document
-                    Ace.monocase = Ace.allLowerCase(doc);
-                    // --------------- code from Ace.java
-                    doc.stretchAll();
-                    // process document
-                    Ace.monocase = Ace.allLowerCase(doc);
-                    Control.processDocument(doc, null, docCount == -1, docCount);
-                    Ace.tagReciprocalRelations(doc);
-                    String docId = Ace.getDocId(doc);
-                    if (docId == null)
-                        docId = docName;
-                    // create empty Ace document
-                    String sourceType = "text";
-                    AceDocument aceDoc =
-                            new AceDocument(inputFile, sourceType, docId, doc.text());
-                    // build entities
-                    Ace.buildAceEntities(doc, docId, aceDoc);
-                    aceDoc.write(new PrintWriter(
-                            new BufferedWriter(
-                                    new FileWriter(getAceFileName(cacheDir, inputDir, inputFile)))), doc);
-                    // ---------------
-                    // IcePreprocessor.tagAdditionalMentions(doc, aceDoc);
-                    saveAnnotations(doc, aceDoc, getPosFileName(cacheDir, inputDir, inputFile));
-
-                    doc.removeAnnotationsOfType("ENAMEX");
-                    doc.removeAnnotationsOfType("entity");
-                    SyntacticRelationSet relations = doc.relations;
-                    if (relations == null) {
-                        continue;
+                docNames.add(docName);
+            }
+            docListReader.close();
+            System.out.println();
+            boolean isCanceled;
+            failedDocuments.clear();
+            if (numProcesses > 1 && workerCommand != null) {
+                isCanceled = processDocumentsInWorkerProcesses(docNames);
+            } else {
+                isCanceled = false;
+                int docCount = 0;
+                for (String name : docNames) {
+                    docCount++;
+                    if (!preprocessDocument(name, docCount)) {
+                        failedDocuments.add(name);
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                if (progressMonitor != null) {
-                    progressMonitor.setProgress(docCount + 5);
-                    progressMonitor.setNote(docCount + " files processed");
-                    if (progressMonitor.isCanceled()) {
+                    if (reportProgress(docCount)) {
                         isCanceled = true;
-                        System.err.println("Relation path collection canceled.");
                         break;
                     }
                 }
             }
 
             // Do word count now
-            if (Ice.selectedCorpus != null) {
+            if (Ice.selectedCorpus != null && countCorpus) {
                 if (progressMonitor != null) {
                     progressMonitor.setNote("Counting words and relations...");
                 }
@@ -284,67 +284,223 @@ public class IcePreprocessor extends Thread {
         }
     }
 
+    /**
+     *  Loads the Jet models and creates the cache directory.
+     *
+     *  @return false if the cache directory could not be set up
+     */
+
+    private boolean initializeJet() {
+        File cacheDirFile = new File(cacheDir);
+        cacheDirFile.mkdirs();
+
+        // initialize Jet
+        JetTest.initializeFromConfig(propsFile);
+
+        try {
+            FileUtils.copyFile(new File(JetTest.getConfig("Jet.dataPath") + File.separator + "apf.v5.1.1.dtd"),
+                    new File(cacheDir + File.separator + "apf.v5.1.1.dtd"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        // load ACE type dictionary
+        EDTtype.readTypeDict();
+        // ACE mode (provides additional antecedents ...)
+        Resolve.ACE = true;
+        return true;
+    }
+
+    /**
+     *  Preprocesses a single document: runs Jet over it and writes its
+     *  <CODE>.ace</CODE> and <CODE>.pos</CODE> cache files.  Errors are
+     *  reported and do not stop the processing of the rest of the corpus.
+     *
+     *  @return true if the document was preprocessed successfully
+     */
+
+    private boolean preprocessDocument(String docName, int docCount) {
+        try {
+            String inputFile;
+            if ("*".equals(inputSuffix.trim())) {
+                inputFile = docName;
+            } else {
+                inputFile = docName + "." + inputSuffix;
+            }
+            System.out.println(String.format("[Corpus:%s]", Ice.selectedCorpusName)
+                    + " Processing document " + docCount + ": " + inputFile);
+            ExternalDocument doc = new ExternalDocument("sgml", inputDir, inputFile);
+            doc.setAllTags(true);
+            doc.open();
+            // --------------- code from Ace.java
+            doc.stretchAll();
+            // process document
+            Ace.monocase = Ace.allLowerCase(doc);
+            Control.processDocument(doc, null, docCount == -1, docCount);
+            Ace.tagReciprocalRelations(doc);
+            String docId = Ace.getDocId(doc);
+            if (docId == null)
+                docId = docName;
+            // create empty Ace document
+            String sourceType = "text";
+            AceDocument aceDoc =
+                    new AceDocument(inputFile, sourceType, docId, doc.text());
+            // build entities
+            Ace.buildAceEntities(doc, docId, aceDoc);
+            aceDoc.write(new PrintWriter(
+                    new BufferedWriter(
+                            new FileWriter(getAceFileName(cacheDir, inputDir, inputFile)))), doc);
+            // ---------------
+            saveAnnotations(doc, aceDoc, getPosFileName(cacheDir, inputDir, inputFile));
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     *  Preprocesses the documents of the corpus using <CODE>numProcesses</CODE>
+     *  long-lived worker processes started with <CODE>workerCommand</CODE>.
+     *  Each process loads the Jet models once and is then sent the next
+     *  document from a shared queue whenever it is done with the previous
+     *  one;  all processes write to the cache of this corpus.
+     *
+     *  @return true if preprocessing was canceled through the progress monitor
+     */
+
+    private boolean processDocumentsInWorkerProcesses(List<String> docNames) {
+        System.out.println("Preprocessing with " + numProcesses + " processes.");
+        DocumentScheduler scheduler = newScheduler();
+        for (int i = 1; i <= numProcesses; i++) {
+            scheduler.addWorker(new DocumentScheduler.ProcessWorker("process-" + i, workerCommand));
+        }
+        boolean isCanceled = scheduler.run(docNames);
+        failedDocuments.addAll(scheduler.getFailedDocuments());
+        return isCanceled;
+    }
+
+    private DocumentScheduler newScheduler() {
+        DocumentScheduler scheduler = new DocumentScheduler();
+        scheduler.setProgressListener(new DocumentScheduler.ProgressListener() {
+            public boolean documentDone(int docCount) {
+                return reportProgress(docCount);
+            }
+        });
+        return scheduler;
+    }
+
+    /**
+     *  Runs this preprocessor as a worker process:  loads the Jet models, then
+     *  preprocesses the documents whose names are read from <CODE>in</CODE>,
+     *  reporting the result of each on <CODE>out</CODE>, until <CODE>in</CODE>
+     *  is closed (see DocumentScheduler.ProcessWorker).
+     */
+
+    public void serveDocuments(InputStream in, PrintStream out) throws IOException {
+        if (!initializeJet()) return;
+        DocumentScheduler.ProcessWorker.serve(new DocumentScheduler.Worker("worker") {
+            public boolean process(String docName, int docNumber) {
+                return preprocessDocument(docName, docNumber);
+            }
+        }, in, out);
+    }
+
+    /**
+     *  Reports to the progress monitor (if any) that <CODE>docCount</CODE>
+     *  documents have been preprocessed.
+     *
+     *  @return true if the user has canceled preprocessing
+     */
+
+    private synchronized boolean reportProgress(int docCount) {
+        if (progressMonitor != null) {
+            progressMonitor.setProgress(docCount + 5);
+            progressMonitor.setNote(docCount + " files processed");
+            if (progressMonitor.isCanceled()) {
+                System.err.println("Relation path collection canceled.");
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      *  Saves POS tags, name tags, terms, dependency parses, and the extents
-     *  of entity mentions.  This information is saved in a single file;  the first
-     *  token in each line of the file indicates the type of information in that line.
+     *  of entity mentions.  This information is saved in a single file, in the
+     *  binary format of AnnotationCache, with one section for each type of
+     *  information.
      */
 
     public static void saveAnnotations (Document doc, AceDocument aceDoc, String fn) throws IOException {
-        PrintWriter pw = new PrintWriter (new FileWriter (fn));
-        savePOS (doc, pw);
-        saveENAMEX (doc, pw);
-        saveTerms (doc, pw);
-        saveJetExtents (aceDoc, pw);
-        saveSyntacticRelationSet (doc.relations, pw);
-        pw.close();
+        AnnotationCache cache = new AnnotationCache();
+        savePOS (doc, cache);
+        saveENAMEX (doc, cache);
+        saveTerms (doc, cache);
+        saveJetExtents (aceDoc, cache);
+        saveSyntacticRelationSet (doc.relations, cache);
+        saveSentences (doc, cache);
+        saveTokens (doc, cache);
+        cache.write(fn);
     }
 
     /**
-     *  Saves POS tags.
+     *  Saves sentence boundaries.
      */
 
-    public static void savePOS (Document doc, PrintWriter pw) {
-        List<Annotation> names = doc.annotationsOfType("tagger");
-        if (names != null) {
-            for (Annotation name : names) {
-                saveAnnotation(pw, "tagger", name.span(), (String) name.get("cat"));
+    public static void saveSentences (Document doc, AnnotationCache cache) {
+        List<Annotation> sentences = doc.annotationsOfType("sentence");
+        if (sentences != null) {
+            AnnotationCache.Section section = cache.section(AnnotationCache.SENTENCE);
+            for (Annotation sentence : sentences) {
+                section.add(sentence.start(), sentence.end());
             }
         }
     }
 
-    public static void saveAnnotation (PrintWriter pw, String type, Span s, String feat) {
-        saveAnnotation (pw, type, String.format("%d\t%d\t%s", s.start(), s.end(), feat));
+    /**
+     *  Saves tokens, with their <CODE>case</CODE> and <CODE>intvalue</CODE> features.
+     */
+
+    public static void saveTokens (Document doc, AnnotationCache cache) {
+        List<Annotation> tokens = doc.annotationsOfType("token");
+        if (tokens != null) {
+            AnnotationCache.Section section = cache.section(AnnotationCache.TOKEN);
+            for (Annotation token : tokens) {
+                Object tokenCase = token.get("case");
+                Object intValue = token.get("intvalue");
+                section.add(token.start(), token.end(),
+                        tokenCase == null ? "" : tokenCase.toString(),
+                        intValue instanceof Integer ? (Integer) intValue : AnnotationCache.NO_INTVALUE);
+            }
+        }
     }
 
-    public static void saveAnnotation (PrintWriter pw, String type, String feat) {
-        pw.println(String.format("%s\t%s", type, feat));
+    /**
+     *  Saves POS tags.
+     */
+
+    public static void savePOS (Document doc, AnnotationCache cache) {
+        List<Annotation> names = doc.annotationsOfType("tagger");
+        if (names != null) {
+            AnnotationCache.Section section = cache.section(AnnotationCache.TAGGER);
+            for (Annotation name : names) {
+                section.add(name.start(), name.end(), (String) name.get("cat"));
+            }
+        }
     }
 
     /**
-     * save each name (ENAMEX annotation) in document <CODE>doc</CODE> to PrintWriter 
-     * <CODE>pw</CODE>.  File format: one name per line:  ENAMEX + start + end + type
+     * save each name (ENAMEX annotation) in document <CODE>doc</CODE> to
+     * annotation cache <CODE>cache</CODE>:  start + end + type
      */
 
-//    public static void saveENAMEX(Document doc, String fileName) throws IOException {
-//        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
-//        List<Annotation> names = doc.annotationsOfType("ENAMEX");
-//        if (names != null) {
-//            for (Annotation name : names) {
-//                pw.println(String.format("%s\t%d\t%d\t%s\t%s",
-//                        name.get("TYPE"), name.start(), name.end(),
-//                        name.get("val") != null ? name.get("val") : doc.text(name).replaceAll("\\s+", " ").trim(),
-//                        name.get("mType") != null ? name.get("mType") : name.get("TYPE")));
-//            }
-//        }
-//        pw.close();
-//    }
-
-    public static void saveENAMEX (Document doc, PrintWriter pw) {
+    public static void saveENAMEX (Document doc, AnnotationCache cache) {
         List<Annotation> names = doc.annotationsOfType("ENAMEX");
         if (names != null) {
+            AnnotationCache.Section section = cache.section(AnnotationCache.ENAMEX);
             for (Annotation name : names) {
-                saveAnnotation(pw, "ENAMEX", name.span(), (String) name.get("TYPE"));
+                section.add(name.start(), name.end(), (String) name.get("TYPE"));
             }
         }
     }
@@ -352,11 +508,11 @@ public class IcePreprocessor extends Thread {
     /**
      * compute the local count of each potential term
      * (head of NP with preceding nouns and adjectives) in document <CODE>doc</CODE>
-     * and save the result in PrintWriter <CODE>pw</CODE>.  File format:
-     * one term per line.  Names [tagged with ENAMEX] are not included.
+     * and save the result in annotation cache <CODE>cache</CODE>:
+     * one entry per term.  Names [tagged with ENAMEX] are not included.
      */
 
-    public static void saveTerms(Document doc, PrintWriter pw) throws IOException {
+    public static void saveTerms(Document doc, AnnotationCache cache) throws IOException {
         List<Annotation> nps = doc.annotationsOfType("ng");
         Map<String, Integer> localCount = new HashMap<String, Integer>();
         if (nps != null) {
@@ -370,8 +526,9 @@ public class IcePreprocessor extends Thread {
                 }
             }
         }
+        AnnotationCache.Section section = cache.section(AnnotationCache.TERM);
         for (String k : localCount.keySet()) {
-            saveAnnotation (pw, "term", k + "\t" + localCount.get(k));
+            section.add(k, localCount.get(k));
         }
     }
 
@@ -435,13 +592,10 @@ public class IcePreprocessor extends Thread {
 
     public static Map<String, Integer> loadTerms (Document doc) throws IOException {
         Map<String, Integer> localCount = new HashMap<String, Integer>();
-        for (String line : annotationCache) {
-            if (line.startsWith("term")) {
-                String[] parts = line.split("\\t");
-                String term = parts[1];
-                int count = Integer.valueOf(parts[2]);
-                localCount.put(term, count);
-            }
+        AnnotationCache.Section terms = annotationCache().section(AnnotationCache.TERM);
+        for (int i = 0; i < terms.size(); i++) {
+            localCount.put(terms.getString(AnnotationCache.TERM_TEXT, i),
+                    terms.getInt(AnnotationCache.TERM_COUNT, i));
         }
         return localCount;
     }
@@ -484,15 +638,16 @@ public class IcePreprocessor extends Thread {
 
     /**
      * Save every Ace entity mention in <CODE>aceDocument</CODE>
-     * along with its extent.  Format:  one mention per line, mention id + start + end.
+     * along with its extent:  start + end + mention id.
      */
 
-    public static void saveJetExtents(AceDocument aceDocument, PrintWriter pw) throws IOException {
+    public static void saveJetExtents(AceDocument aceDocument, AnnotationCache cache) throws IOException {
         List<AceEntity> entities = aceDocument.entities;
         if (entities != null) {
+            AnnotationCache.Section section = cache.section(AnnotationCache.JET_EXTENT);
             for (AceEntity entity : entities) {
                 for (AceEntityMention mention : entity.mentions) {
-                    saveAnnotation (pw, "jetExtent", mention.jetHead, mention.id);
+                    section.add(mention.jetHead.start(), mention.jetHead.end(), mention.id);
                 }
             }
         }
@@ -500,14 +655,11 @@ public class IcePreprocessor extends Thread {
 
     public static Map<String, Span> loadJetExtents() throws IOException {
         Map<String, Span> jetExtentsMap = new HashMap<String, Span>();
-        for (String line : annotationCache) {
-            if (line.startsWith("jetExtent")) {
-                String[] parts = line.split("\\t");
-                int start = Integer.valueOf(parts[1]);
-                int end = Integer.valueOf(parts[2]);
-                String id = parts[3];
-                jetExtentsMap.put(id, new Span(start, end));
-            }
+        AnnotationCache.Section extents = annotationCache().section(AnnotationCache.JET_EXTENT);
+        for (int i = 0; i < extents.size(); i++) {
+            jetExtentsMap.put(extents.getString(AnnotationCache.JET_EXTENT_ID, i),
+                    new Span(extents.getInt(AnnotationCache.JET_EXTENT_START, i),
+                            extents.getInt(AnnotationCache.JET_EXTENT_END, i)));
         }
         return jetExtentsMap;
     }
@@ -519,32 +671,23 @@ public class IcePreprocessor extends Thread {
     public static void loadENAMEX (Document doc) throws IOException {
         List<Annotation> existingNames = doc.annotationsOfType("ENAMEX");
         existingNames = existingNames == null ? new ArrayList<Annotation>() : existingNames;
-        for (String line : annotationCache) {
-            if (line.startsWith("ENAMEX")) {
-                String[] parts = line.split("\\t");
-                if (parts.length != 4 && parts.length != 6) {
-                    System.err.println("Format error in ENAMEX cache:");
-                    System.err.println("\tline:" + line);
-                    continue;
-                }
-                int start = Integer.valueOf(parts[1]);
-                int end = Integer.valueOf(parts[2]);
-                String type = parts[3];
-                String val  = parts.length == 6 ? parts[4].trim() : "UNK";
-                String mType = parts.length == 6 ? parts[5].trim() : "UNK";
-                Annotation newAnn = new Annotation("ENAMEX", new Span(start, end),
-                        new FeatureSet("TYPE", type));
-
-                boolean conflict = false;
-                for (Annotation existingAnn : existingNames) {
-                    if (isCrossed(newAnn, existingAnn)) {
-                        conflict = true;
-                    }
-                }
-                if (!conflict) {
-                    doc.addAnnotation(newAnn);
+        AnnotationCache.Section names = annotationCache().section(AnnotationCache.ENAMEX);
+        for (int i = 0; i < names.size(); i++) {
+            int start = names.getInt(AnnotationCache.ENAMEX_START, i);
+            int end = names.getInt(AnnotationCache.ENAMEX_END, i);
+            String type = names.getString(AnnotationCache.ENAMEX_TYPE, i);
+            Annotation newAnn = new Annotation("ENAMEX", new Span(start, end),
+                    type == null ? new FeatureSet() : new FeatureSet("TYPE", type));
+
+            boolean conflict = false;
+            for (Annotation existingAnn : existingNames) {
+                if (isCrossed(newAnn, existingAnn)) {
+                    conflict = true;
                 }
             }
+            if (!conflict) {
+                doc.addAnnotation(newAnn);
+            }
         }
     }
     /**
@@ -692,50 +835,133 @@ public class IcePreprocessor extends Thread {
 
     /**
      *  Loads the annotation cache from file cacheDir/inputDir/inputFile.
+     *  The file may be in either the binary or the older text format.
      */
 
     public static void fetchAnnotations (String cacheDir, String inputDir, String inputFile) throws IOException {
         String inputFileName = getPosFileName(cacheDir, inputDir, inputFile);
-        BufferedReader br = new BufferedReader(new FileReader(inputFileName));
-        annotationCache.clear();
-        String line = null;
-        while ((line = br.readLine()) != null) {
-            annotationCache.add(line);
-        }
-        br.close();
+        annotationCaches.set(AnnotationCache.read(inputFileName));
     }
 
-    private static List<String> annotationCache = new ArrayList<String> ();
+    // each thread has its own annotation cache, so that documents can be
+    // loaded concurrently by different threads
+    private static ThreadLocal<AnnotationCache> annotationCaches = new ThreadLocal<AnnotationCache>() {
+        @Override
+        protected AnnotationCache initialValue() {
+            return new AnnotationCache();
+        }
+    };
+
+    private static AnnotationCache annotationCache() {
+        return annotationCaches.get();
+    }
 
     public static String getPosFileName(String cacheDir, String inputDir, String inputFile) {
         return cacheFileName(cacheDir, inputDir, inputFile) + ".pos";
     }
 
     /**
-     * Regenerate <CODE>tagger</CODE> annotations from annotation cache.
+     *  Name of the Jet script applied to each sentence of a document
+     *  restored from the annotation cache (see processDocument).
      */
 
-    public static void loadPOS (Document doc) {
-        for (String line : annotationCache) {
-            if (line.startsWith("tagger")) {
-                String[] parts = line.split("\\t");
-                int start = Integer.valueOf(parts[1]);
-                int end = Integer.valueOf(parts[2]);
-                String cat = parts[3];
-                doc.addAnnotation(new Annotation("tagger", new Span(start, end), new FeatureSet("cat", cat)));
+    public static final String CACHED_SENTENCE_SCRIPT = "processCachedSentence";
+
+    /**
+     *  Performs the Jet analysis of document <CODE>doc</CODE> needed for
+     *  corpus analysis, reusing the annotation cache fetched for the document.
+     *  <p>
+     *  If the cache is complete (it includes sentences and tokens) and the Jet
+     *  configuration defines script <CODE>processCachedSentence</CODE>, the
+     *  sentences and tokens are restored from the cache and only that script
+     *  is applied to each sentence;  it should contain just the steps
+     *  which depend on the current entity sets (such as lexLookup and
+     *  tagNamesFromOnoma).  Otherwise the full <CODE>processDocument</CODE>
+     *  script is run, as for caches written by earlier versions of ICE.
+     *  <p>
+     *  In either case the caller then loads POS tags, names and dependency
+     *  relations using loadPOS, loadENAMEX and loadSyntacticRelationSet.
+     *
+     *  @return true if the document was restored from the cache
+     */
+
+    public static boolean processDocument (Document doc, int docCount) throws IOException {
+        AnnotationCache cache = annotationCache();
+        String script = JetTest.getConfig(CACHED_SENTENCE_SCRIPT);
+        if (script == null ||
+                !cache.contains(AnnotationCache.SENTENCE) || !cache.contains(AnnotationCache.TOKEN)) {
+            Control.processDocument(doc, null, false, docCount);
+            return false;
+        }
+        loadTokens(doc);
+        List<Annotation> sentences = loadSentences(doc);
+        for (Annotation sentence : sentences) {
+            Control.applyScript(doc, sentence.span(), script);
+        }
+        return true;
+    }
+
+    /**
+     *  Regenerate <CODE>sentence</CODE> annotations from annotation cache.
+     *
+     *  @return the sentences added to the document
+     */
+
+    public static List<Annotation> loadSentences (Document doc) {
+        List<Annotation> sentences = new ArrayList<Annotation>();
+        AnnotationCache.Section section = annotationCache().section(AnnotationCache.SENTENCE);
+        for (int i = 0; i < section.size(); i++) {
+            Annotation sentence = new Annotation("sentence",
+                    new Span(section.getInt(AnnotationCache.SENTENCE_START, i),
+                            section.getInt(AnnotationCache.SENTENCE_END, i)),
+                    new FeatureSet());
+            doc.addAnnotation(sentence);
+            sentences.add(sentence);
+        }
+        return sentences;
+    }
+
+    /**
+     *  Regenerate <CODE>token</CODE> annotations from annotation cache.
+     */
+
+    public static void loadTokens (Document doc) {
+        AnnotationCache.Section section = annotationCache().section(AnnotationCache.TOKEN);
+        for (int i = 0; i < section.size(); i++) {
+            FeatureSet features = new FeatureSet();
+            String tokenCase = section.getString(AnnotationCache.TOKEN_CASE, i);
+            if (tokenCase.length() > 0) {
+                features.put("case", tokenCase);
             }
+            int intValue = section.getInt(AnnotationCache.TOKEN_INTVALUE, i);
+            if (intValue != AnnotationCache.NO_INTVALUE) {
+                features.put("intvalue", intValue);
+            }
+            doc.addAnnotation(new Annotation("token",
+                    new Span(section.getInt(AnnotationCache.TOKEN_START, i),
+                            section.getInt(AnnotationCache.TOKEN_END, i)),
+                    features));
         }
     }
 
-    public static void saveSyntacticRelationSet(SyntacticRelationSet relationSet, PrintWriter pw) throws IOException {
-        for (SyntacticRelation sr : relationSet)
-            saveAnnotation (pw, "dep", relationToString(sr));
+    /**
+     * Regenerate <CODE>tagger</CODE> annotations from annotation cache.
+     */
+
+    public static void loadPOS (Document doc) {
+        AnnotationCache.Section tags = annotationCache().section(AnnotationCache.TAGGER);
+        for (int i = 0; i < tags.size(); i++) {
+            int start = tags.getInt(AnnotationCache.TAGGER_START, i);
+            int end = tags.getInt(AnnotationCache.TAGGER_END, i);
+            String cat = tags.getString(AnnotationCache.TAGGER_CAT, i);
+            doc.addAnnotation(new Annotation("tagger", new Span(start, end),
+                    cat == null ? new FeatureSet() : new FeatureSet("cat", cat)));
+        }
     }
 
-    private static String relationToString (SyntacticRelation sr) {
-        return sr.type + " | " 
-               + sr.sourceWord + " | " + sr.sourcePosn + " | " + sr.sourcePos + " | "
-               + sr.targetWord + " | " + sr.targetPosn + " | " + sr.targetPos;
+    public static void saveSyntacticRelationSet(SyntacticRelationSet relationSet, AnnotationCache cache) throws IOException {
+        for (SyntacticRelation sr : relationSet)
+            cache.addRelation(sr);
     }
 
     /**
@@ -745,15 +971,12 @@ public class IcePreprocessor extends Thread {
 
     public static SyntacticRelationSet loadSyntacticRelationSet() throws IOException {
         SyntacticRelationSet relations = new SyntacticRelationSet();
-        boolean found = false;
-        for (String line : annotationCache) {
-            if (line.startsWith("dep")) {
-                line = line.substring(4);
-                relations.add(new SyntacticRelation(line));
-                found = true;
-            }
+        AnnotationCache cache = annotationCache();
+        int depCount = cache.section(AnnotationCache.DEP).size();
+        for (int i = 0; i < depCount; i++) {
+            relations.add(cache.getRelation(i));
         }
-        if (!found)
+        if (depCount == 0)
             System.out.println("Warning: no dependency information in annotation cache.");
         return relations;
     }
@@ -63,6 +63,9 @@ public class JetEngineBuilder {
 
 			buildOnoma(properNounWriter);
 			buildRelationPatternFile(relationPatternWriter, negatedPatternWriter);
+			// compiled rules, which taggers load without parsing and stemming the paths
+			CompiledRuleModel.compile(relationPatternFileName);
+			CompiledRuleModel.compile(negatedPatternFileName);
 		} catch (IOException e) {
 			e.printStackTrace(System.err);
 		}
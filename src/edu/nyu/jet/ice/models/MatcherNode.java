@@ -1,5 +1,8 @@
 package edu.nyu.jet.ice.models;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A matcher node is a node on the dependency tree. It contains a dependency label and a word governed by the label.
  *
@@ -10,9 +13,118 @@ public class MatcherNode {
 	String label;
 	String token;
 
+	// label and token as ints, so that PathMatcher compares ids instead of strings;  UNKNOWN if the string is not
+	// interned (see sameLabel and sameToken)
+	final int labelId;
+	final int tokenId;
+
+	// the word embedding of the token, looked up when first needed
+	private volatile Embedding embedding = null;
+
+	// the strings of the nodes of rules.  Only rules add to the table, so that it does not grow with every candidate
+	// path matched against them.
+	private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private static final AtomicInteger nextId = new AtomicInteger(0);
+
+	/**
+	 * The id of a string which has not been interned.
+	 */
+	static final int UNKNOWN = -2;
+
+	/**
+	 * Creates a node of a candidate path: its label and token get the ids of the rules' strings, or UNKNOWN.
+	 */
 	public MatcherNode(String label, String token) {
+		this(label, token, false);
+	}
+
+	/**
+	 * Creates a node, interning its label and token if <CODE>intern</CODE> is true (for the nodes of rules).
+	 */
+	MatcherNode(String label, String token, boolean intern) {
 		this.label = label;
 		this.token = token;
+		this.labelId = intern ? intern(label) : id(label);
+		this.tokenId = intern ? intern(token) : id(token);
+	}
+
+	/**
+	 * Returns true if the labels of this node and <CODE>that</CODE> are equal.
+	 */
+	boolean sameLabel(MatcherNode that) {
+		return same(labelId, label, that.labelId, that.label);
+	}
+
+	/**
+	 * Returns true if the tokens of this node and <CODE>that</CODE> are equal.
+	 */
+	boolean sameToken(MatcherNode that) {
+		return same(tokenId, token, that.tokenId, that.token);
+	}
+
+	private static boolean same(int id1, String s1, int id2, String s2) {
+		if (id1 != UNKNOWN && id2 != UNKNOWN) {
+			return id1 == id2;
+		}
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	/**
+	 * Returns the id of <CODE>s</CODE> if it has been interned, and UNKNOWN if not.
+	 */
+	static int id(String s) {
+		if (s == null) {
+			return -1;
+		}
+		Integer id = ids.get(s);
+		return id == null ? UNKNOWN : id;
+	}
+
+	/**
+	 * Returns the id of <CODE>s</CODE>: equal strings have the same id and different strings have different ids.
+	 */
+	static int intern(String s) {
+		if (s == null) {
+			return -1;
+		}
+		Integer id = ids.get(s);
+		if (id == null) {
+			Integer newId = nextId.getAndIncrement();
+			id = ids.putIfAbsent(s, newId);
+			if (id == null) {
+				id = newId;
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * The word embedding of a token and its norm, for the embeddings loaded as <CODE>version</CODE>.
+	 */
+	static class Embedding {
+		final int version;
+		final double[] vector;
+		final double norm;
+
+		Embedding(int version, double[] vector) {
+			this.version = version;
+			this.vector = vector;
+			this.norm = vector == null ? 0 : WordEmbedding.norm(vector);
+		}
+	}
+
+	/**
+	 * Returns the word embedding of the token (with a null vector if it has none), looking it up only once for each
+	 * set of embeddings loaded.
+	 */
+	Embedding embedding() {
+		Embedding e = embedding;
+		int version = WordEmbedding.getVersion();
+		if (e == null || e.version != version) {
+			e = new Embedding(version, WordEmbedding.embed(token));
+			embedding = e;
+		}
+		return e;
 	}
 
 	@Override
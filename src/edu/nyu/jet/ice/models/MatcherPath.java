@@ -17,22 +17,30 @@ public class MatcherPath {
 	String arg1Type = "UNK";
 	String arg2Type = "UNK";
 	String relationType = "NONE";
-	Stemmer stemmer = Stemmer.getDefaultStemmer();
 
 	public MatcherPath(String pathString) {
+		this(pathString, false);
+	}
+
+	/**
+	 * Creates a path from its string form, interning the labels and tokens of its nodes if <CODE>intern</CODE> is
+	 * true (for rules; see MatcherNode).
+	 */
+	MatcherPath(String pathString, boolean intern) {
 		// System.out.println(pathString);
 		nodes.clear();
 		String[] parts = pathString.split("--");
 		if (parts.length == 3) {
+			Stemmer stemmer = Stemmer.getDefaultStemmer();
 			arg1Type = parts[0].trim();
 			arg2Type = parts[2].trim();
 			parts = parts[1].split(":");
 			for (int i = 0; i < (parts.length - 1) / 2; i++) {
-				MatcherNode node = new MatcherNode(parts[2 * i], stemmer.getStem(parts[2 * i + 1], "UNK"));
+				MatcherNode node = new MatcherNode(parts[2 * i], stemmer.getStem(parts[2 * i + 1], "UNK"), intern);
 				nodes.add(node);
 				// System.out.println(node.label + node.token);
 			}
-			MatcherNode node = new MatcherNode(parts[parts.length - 1], "END_OF_PATH");
+			MatcherNode node = new MatcherNode(parts[parts.length - 1], "END_OF_PATH", intern);
 			nodes.add(node);
 			// System.out.println(node.label + node.token);
 		}
@@ -43,6 +51,7 @@ public class MatcherPath {
 		String pathString = path.toString();
 		String[] parts = pathString.split("--");
 		if (parts.length == 3) {
+			Stemmer stemmer = Stemmer.getDefaultStemmer();
 			arg1Type = parts[0].trim();
 			arg2Type = parts[2].trim();
 			parts = parts[1].split(":");
@@ -55,6 +64,15 @@ public class MatcherPath {
 		}
 	}
 
+	/**
+	 * Creates a path from its argument types and nodes, whose tokens are already stemmed (used by CompiledRuleModel).
+	 */
+	MatcherPath(String arg1Type, String arg2Type, List<MatcherNode> nodes) {
+		this.arg1Type = arg1Type;
+		this.arg2Type = arg2Type;
+		this.nodes.addAll(nodes);
+	}
+
 	public void setRelationType(String relationType) {
 		this.relationType = relationType;
 	}
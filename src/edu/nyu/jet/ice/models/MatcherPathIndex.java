@@ -0,0 +1,135 @@
+package edu.nyu.jet.ice.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of MatcherPaths (rules) for finding the rule nearest to a path, as measured by PathMatcher, without
+ * matching the path against every rule.
+ * <p>
+ * A rule whose argument types differ from those of the path scores at least 1 (the maximum score), so rules are
+ * bucketed by argument types and only the bucket of the path is searched. Within a bucket, rules are grouped by
+ * length; the groups are searched in order of the lower bound on their score (PathMatcher.lowerBound), and a group
+ * is skipped once the bound exceeds the best score found. Each rule is matched with the best score found so far as
+ * the ceiling of its cost (see PathMatcher.matchPaths(MatcherPath, MatcherPath, double)). The rule found is the same
+ * as that of a search of all rules in the order they were added.
+ *
+ * @version 1.0
+ */
+public class MatcherPathIndex {
+
+	// allowance for rounding in the edit distance
+	private static final double EPSILON = 1e-9;
+
+	// rules by argument types, then by length
+	private Map<String, Map<Integer, List<Entry>>> buckets = new HashMap<String, Map<Integer, List<Entry>>>();
+
+	private int size = 0;
+
+	static class Entry {
+		MatcherPath rule;
+		// position of the rule in the order rules were added
+		int index;
+
+		Entry(MatcherPath rule, int index) {
+			this.rule = rule;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * The result of a search: the nearest rule and its score, or a null rule if no rule scored below the maximum.
+	 */
+	public static class Match {
+		public final MatcherPath rule;
+		public final double score;
+
+		Match(MatcherPath rule, double score) {
+			this.rule = rule;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * Adds <CODE>rule</CODE> to the index. Empty rules are not added, as they never match.
+	 */
+	public void add(MatcherPath rule) {
+		int index = size++;
+		if (rule.isEmpty()) {
+			return;
+		}
+		String key = key(rule.arg1Type, rule.arg2Type);
+		Map<Integer, List<Entry>> bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new HashMap<Integer, List<Entry>>();
+			buckets.put(key, bucket);
+		}
+		List<Entry> group = bucket.get(rule.length());
+		if (group == null) {
+			group = new ArrayList<Entry>();
+			bucket.put(rule.length(), group);
+		}
+		group.add(new Entry(rule, index));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private static String key(String arg1Type, String arg2Type) {
+		return arg1Type + "\n" + arg2Type;
+	}
+
+	/**
+	 * Returns the rule with the lowest score <CODE>matcher.matchPaths(path, rule) / rule.length()</CODE> below
+	 * <CODE>maxScore</CODE>, taking the rule added first if several have the lowest score. <CODE>maxScore</CODE> must
+	 * be at most 1, the score of a rule with other argument types.
+	 */
+	public Match nearest(MatcherPath path, PathMatcher matcher, double maxScore) {
+		MatcherPath minRule = null;
+		int minIndex = Integer.MAX_VALUE;
+		double minScore = maxScore;
+		Map<Integer, List<Entry>> bucket = buckets.get(key(path.arg1Type, path.arg2Type));
+		if (bucket == null) {
+			return new Match(null, maxScore);
+		}
+		boolean useBounds = matcher.hasNonNegativeCosts();
+		// search the groups of rules in order of increasing lower bound
+		int[] lengths = new int[bucket.size()];
+		double[] bounds = new double[bucket.size()];
+		Integer[] order = new Integer[bucket.size()];
+		int n = 0;
+		for (int length : bucket.keySet()) {
+			lengths[n] = length;
+			bounds[n] = useBounds ? matcher.lowerBound(path.length(), length) / length : Double.NEGATIVE_INFINITY;
+			order[n] = n;
+			n++;
+		}
+		final double[] groupBounds = bounds;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer g1, Integer g2) {
+				return Double.compare(groupBounds[g1], groupBounds[g2]);
+			}
+		});
+		for (int g : order) {
+			if (bounds[g] - EPSILON > minScore) {
+				break;
+			}
+			for (Entry entry : bucket.get(lengths[g])) {
+				// a rule costing more than minScore * length is not taken, so its cost need only be known up to there
+				double ceiling = useBounds ? minScore * entry.rule.length() : Double.POSITIVE_INFINITY;
+				double score = matcher.matchPaths(path, entry.rule, ceiling) / entry.rule.length();
+				if (score < minScore || (score == minScore && minRule != null && entry.index < minIndex)) {
+					minScore = score;
+					minRule = entry.rule;
+					minIndex = entry.index;
+				}
+			}
+		}
+		return new Match(minRule, minScore);
+	}
+}
@@ -0,0 +1,154 @@
+package edu.nyu.jet.ice.models;
+
+import edu.nyu.jet.aceJet.AnchoredPath;
+
+import java.util.*;
+
+/**
+ * An index of the paths of DepPathMap with given argument types by the word embeddings of their linearizations
+ * (reprs), for finding the paths whose reprs are most similar to a seed embedding without embedding and scoring
+ * every path.
+ * <p>
+ * Paths with the same repr have the same embedding, so the index holds one unit vector per distinct repr. Reprs
+ * without an embedding (similarity 0) and reprs consisting of just the argument types are left out, as are paths
+ * without an example, as bootstrapping does not propose them. A search scans the vectors, so its result is exact.
+ * <p>
+ * Indexes are built when first requested and kept until the paths of DepPathMap or the word embeddings change.
+ *
+ * @version 1.0
+ */
+public class PathEmbeddingIndex {
+
+	private static Map<String, PathEmbeddingIndex> indexes = new HashMap<String, PathEmbeddingIndex>();
+	private static int indexedGeneration = -1;
+	private static int indexedVersion = -1;
+
+	private final List<String> reprs = new ArrayList<String>();
+	// paths for each repr, in the order of DepPathMap.getPathSet()
+	private final Map<String, List<String>> paths = new HashMap<String, List<String>>();
+	private float[][] vectors;
+
+	/**
+	 * Returns the index of the paths with argument types <CODE>arg1Type</CODE> and <CODE>arg2Type</CODE>, building it
+	 * if needed. Word embeddings must have been loaded.
+	 */
+	public static synchronized PathEmbeddingIndex forArgTypes(String arg1Type, String arg2Type) {
+		DepPathMap depPathMap = DepPathMap.getInstance();
+		// DepPathMap is not reloaded while its lock is held, so the index matches the generation it is kept for
+		synchronized (depPathMap) {
+			if (depPathMap.getGeneration() != indexedGeneration || WordEmbedding.getVersion() != indexedVersion) {
+				indexes.clear();
+				indexedGeneration = depPathMap.getGeneration();
+				indexedVersion = WordEmbedding.getVersion();
+			}
+			String key = arg1Type + "\n" + arg2Type;
+			PathEmbeddingIndex index = indexes.get(key);
+			if (index == null) {
+				index = new PathEmbeddingIndex(depPathMap, arg1Type, arg2Type);
+				indexes.put(key, index);
+			}
+			return index;
+		}
+	}
+
+	PathEmbeddingIndex(DepPathMap depPathMap, String arg1Type, String arg2Type) {
+		long start = System.currentTimeMillis();
+		String argTypesRepr = arg1Type + " " + arg2Type;
+		Map<String, Integer> reprIds = new HashMap<String, Integer>();
+		List<float[]> vectorList = new ArrayList<float[]>();
+		for (String fullp : depPathMap.getPathSet()) {
+			AnchoredPath a = new AnchoredPath(fullp);
+			if (!arg1Type.equals(a.arg1) || !arg2Type.equals(a.arg2)) continue;
+			String repr = depPathMap.findRepr(fullp);
+			if (repr == null || repr.equals(argTypesRepr)) continue;
+			if (depPathMap.findExample(fullp) == null) continue;
+			Integer id = reprIds.get(repr);
+			if (id == null) {
+				float[] v = unitVector(WordEmbedding.embed(repr.split(" ")));
+				if (v == null) {
+					id = -1;
+				} else {
+					id = reprs.size();
+					reprs.add(repr);
+					paths.put(repr, new ArrayList<String>());
+					vectorList.add(v);
+				}
+				reprIds.put(repr, id);
+			}
+			if (id >= 0) {
+				paths.get(repr).add(fullp);
+			}
+		}
+		vectors = vectorList.toArray(new float[vectorList.size()][]);
+		System.err.println("Indexed " + reprs.size() + " path reprs for " + arg1Type + " -- " + arg2Type
+				+ " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static float[] unitVector(double[] v) {
+		if (v == null) {
+			return null;
+		}
+		double norm = WordEmbedding.norm(v);
+		if (norm == 0 || Double.isNaN(norm)) {
+			return null;
+		}
+		float[] u = new float[v.length];
+		for (int i = 0; i < v.length; i++) {
+			u[i] = (float) (v[i] / norm);
+		}
+		return u;
+	}
+
+	public int size() {
+		return reprs.size();
+	}
+
+	/**
+	 * Returns the <CODE>k</CODE> reprs most similar to <CODE>embedding</CODE>, most similar first.
+	 */
+	public List<String> nearestReprs(double[] embedding, int k) {
+		List<String> result = new ArrayList<String>();
+		float[] query = unitVector(embedding);
+		if (query == null) {
+			return result;
+		}
+		// scan, keeping the k most similar in a heap with the least similar on top
+		final double[] scores = new double[vectors.length];
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(k + 1, new Comparator<Integer>() {
+			public int compare(Integer id1, Integer id2) {
+				return Double.compare(scores[id1], scores[id2]);
+			}
+		});
+		for (int id = 0; id < vectors.length; id++) {
+			float[] v = vectors[id];
+			double score = 0;
+			for (int i = 0; i < v.length && i < query.length; i++) {
+				score += v[i] * query[i];
+			}
+			scores[id] = score;
+			if (best.size() < k) {
+				best.add(id);
+			} else if (k > 0 && score > scores[best.peek()]) {
+				best.poll();
+				best.add(id);
+			}
+		}
+		while (!best.isEmpty()) {
+			result.add(reprs.get(best.poll()));
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * Returns the paths (in DepPathMap form, with argument types) whose repr is <CODE>repr</CODE>, in the order of
+	 * DepPathMap.getPathSet().
+	 */
+	public List<String> getPaths(String repr) {
+		List<String> result = paths.get(repr);
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return result;
+	}
+}
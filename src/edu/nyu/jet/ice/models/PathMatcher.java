@@ -23,6 +23,18 @@ public class PathMatcher {
 
 	public static double labelMismatchCost = 2.5;
 
+	/**
+	 * similarities of pairs of tokens, shared by all PathMatchers
+	 */
+	public static SimilarityCache similarityCache = new SimilarityCache(1 << 19);
+
+	// allowance for rounding when comparing costs with a ceiling
+	private static final double EPSILON = 1e-9;
+
+	// the least cost of an insertion and of a deletion, and whether the weights are non-negative, computed from the
+	// weights when first needed
+	private volatile double[] indelBounds = null;
+
 	public PathMatcher() {
 		setWeights();
 		setLabelWeights();
@@ -30,12 +42,14 @@ public class PathMatcher {
 	}
 
 	public void setWeights() {
+		indelBounds = null;
 		weights.put("replace", 0.5);
 		weights.put("insert", 0.25);
 		weights.put("delete", 1.0);
 	}
 
 	public void setLabelWeights() {
+		indelBounds = null;
 		// dependency count >= 1000
 		labelWeights.put("pobj", 0.2);
 		labelWeights.put("prep", 0.2);
@@ -117,6 +131,7 @@ public class PathMatcher {
 	}
 
 	public void setWordWeights() {
+		indelBounds = null;
 		wordWeights.put("work", 1.5);
 		wordWeights.put("chairman", 1.5);
 		wordWeights.put("executive", 1.5);
@@ -132,11 +147,62 @@ public class PathMatcher {
 	}
 
 	public void updateWeights(double replace, double insert, double delete) {
+		indelBounds = null;
 		weights.put("replace", replace);
 		weights.put("insert", insert);
 		weights.put("delete", delete);
 	}
 
+	/**
+	 * Returns a lower bound on <CODE>matchPaths(path1, path2)</CODE> for paths of <CODE>len1</CODE> and
+	 * <CODE>len2</CODE> nodes with the same argument types: each node by which one path is longer than the other must
+	 * be inserted or deleted, at no less than the cheapest insertion or deletion.
+	 */
+	public double lowerBound(int len1, int len2) {
+		double[] bounds = indelBounds();
+		if (len1 > len2) {
+			return (len1 - len2) * bounds[0];
+		} else {
+			return (len2 - len1) * bounds[1];
+		}
+	}
+
+	/**
+	 * Returns the least cost of an insertion and of a deletion (insertions and deletions at the start of the paths cost
+	 * 1), and 1 if no weight is negative, 0 otherwise.
+	 */
+	private double[] indelBounds() {
+		double[] bounds = indelBounds;
+		if (bounds == null) {
+			boolean nonNegative = minWeight(weights) >= 0 && minWeight(labelWeights) >= 0 && minWeight(wordWeights) >= 0;
+			bounds = new double[] {
+					Math.min(1, weights.get("insert") * minWeight(labelWeights) * minWeight(wordWeights)),
+					Math.min(1, weights.get("delete") * minWeight(labelWeights) * minWeight(wordWeights)),
+					nonNegative ? 1 : 0 };
+			indelBounds = bounds;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Returns the smallest weight in <CODE>table</CODE>, or 1 (the weight of labels and words not in the table) if
+	 * that is smaller.
+	 */
+	private static double minWeight(TObjectDoubleHashMap table) {
+		double min = 1;
+		for (double weight : table.values()) {
+			min = Math.min(min, weight);
+		}
+		return min;
+	}
+
+	/**
+	 * Returns <CODE>true</CODE> if no cost of an edit is negative, so that <CODE>lowerBound</CODE> applies.
+	 */
+	public boolean hasNonNegativeCosts() {
+		return labelMismatchCost >= 0 && indelBounds()[2] > 0;
+	}
+
 	public double matchPaths(String path1, String path2) {
 		MatcherPath matcherPath1 = new MatcherPath(path1);
 		MatcherPath matcherPath2 = new MatcherPath(path2);
@@ -144,68 +210,202 @@ public class PathMatcher {
 		return matchPaths(matcherPath1, matcherPath2);
 	}
 
+	/**
+	 * Buffers for matchPaths, reused by each thread: two rows of the edit distance table, and the weights of the nodes
+	 * of the two paths.
+	 */
+	private static class Buffers {
+		double[] previous = new double[16];
+		double[] current = new double[16];
+		double[] insertCost = new double[16];
+		double[] deleteCost = new double[16];
+		double[] labelWeight = new double[16];
+
+		void ensureCapacity(int len1, int len2) {
+			if (insertCost.length < len1) {
+				insertCost = new double[2 * len1];
+			}
+			if (previous.length < len2 + 1) {
+				previous = new double[2 * (len2 + 1)];
+				current = new double[2 * (len2 + 1)];
+				deleteCost = new double[2 * (len2 + 1)];
+				labelWeight = new double[2 * (len2 + 1)];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
+	/**
+	 * Returns the cost of the alignment of <CODE>matcherPath1</CODE> with <CODE>matcherPath2</CODE>. The weights of
+	 * the nodes are looked up once per call, labels and tokens are compared by their ids (see MatcherNode), and the
+	 * edit distance table is kept one row at a time in buffers reused by the calling thread.
+	 */
 	public double matchPaths(MatcherPath matcherPath1, MatcherPath matcherPath2) {
+		return matchPaths(matcherPath1, matcherPath2, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns the cost of the alignment of <CODE>matcherPath1</CODE> with <CODE>matcherPath2</CODE> if it is at most
+	 * <CODE>ceiling</CODE>, and otherwise some number greater than <CODE>ceiling</CODE>.
+	 * <p>
+	 * If no cost is negative (see <CODE>hasNonNegativeCosts</CODE>), costs only grow along an alignment, so cells of
+	 * the table whose cost, plus the least cost of the insertions or deletions still needed to reach the end of both
+	 * paths, exceeds the ceiling cannot be on an alignment within the ceiling:  they are not computed, and only a band
+	 * of diagonals of the table is filled in. The computation stops as soon as every cell of a row exceeds the
+	 * ceiling. Cells which are computed are computed as by a full table, so a cost within the ceiling is exactly that
+	 * returned by <CODE>matchPaths(matcherPath1, matcherPath2)</CODE>.
+	 */
+	public double matchPaths(MatcherPath matcherPath1, MatcherPath matcherPath2, double ceiling) {
 		int len1 = matcherPath1.nodes.size();
 		int len2 = matcherPath2.nodes.size();
+		boolean sameArgTypes = matcherPath1.arg1Type.equals(matcherPath2.arg1Type)
+				&& matcherPath1.arg2Type.equals(matcherPath2.arg2Type);
 
 		if (len1 == 1 && len2 == 1) {
-			return matcherPath1.nodes.get(0).label.equals(matcherPath2.nodes.get(0).label)
-					&& matcherPath1.arg1Type.equals(matcherPath2.arg1Type) && matcherPath1.arg2Type.equals(matcherPath2.arg2Type)
-							? 0 : 1;
+			return matcherPath1.nodes.get(0).sameLabel(matcherPath2.nodes.get(0)) && sameArgTypes ? 0 : 1;
+		}
+		if (!sameArgTypes) {
+			return Math.max(matcherPath1.length(), matcherPath2.length());
 		}
 
-		double[][] dp = new double[len1 + 1][len2 + 1];
+		double replaceWeight = weights.get("replace");
+		double insertWeight = weights.get("insert");
+		double deleteWeight = weights.get("delete");
+		double mismatchCost = labelMismatchCost;
+
+		Buffers b = buffers.get();
+		b.ensureCapacity(len1, len2);
+		for (int i = 0; i < len1; i++) {
+			MatcherNode c1 = matcherPath1.nodes.get(i);
+			b.insertCost[i] = insertWeight * weight(labelWeights, c1.label) * weight(wordWeights, c1.token);
+		}
+		for (int j = 0; j < len2; j++) {
+			MatcherNode c2 = matcherPath2.nodes.get(j);
+			b.labelWeight[j] = weight(labelWeights, c2.label);
+			b.deleteCost[j] = deleteWeight * b.labelWeight[j] * weight(wordWeights, c2.token);
+		}
 
-		for (int i = 0; i <= len1; i++) {
-			dp[i][0] = i;
+		// cell (i, j) is skipped if the insertions or deletions needed to reach it and to go on from it to the end
+		// of both paths cost more than the ceiling; the cells kept form a band of diagonals k = i - j
+		boolean bounded = ceiling < Double.POSITIVE_INFINITY && hasNonNegativeCosts();
+		int minDiagonal = -len2;
+		int maxDiagonal = len1;
+		if (bounded) {
+			double[] bounds = indelBounds();
+			double limit = ceiling + EPSILON;
+			while (minDiagonal < maxDiagonal && indelCost(minDiagonal, len1 - len2, bounds) > limit) {
+				minDiagonal++;
+			}
+			while (maxDiagonal > minDiagonal && indelCost(maxDiagonal, len1 - len2, bounds) > limit) {
+				maxDiagonal--;
+			}
+			if (indelCost(minDiagonal, len1 - len2, bounds) > limit) {
+				return indelCost(minDiagonal, len1 - len2, bounds);
+			}
 		}
 
+		// previous holds row i of the table, current row i + 1
+		double[] previous = b.previous;
+		double[] current = b.current;
 		for (int j = 0; j <= len2; j++) {
-			dp[0][j] = j;
+			previous[j] = -j > maxDiagonal || -j < minDiagonal ? Double.POSITIVE_INFINITY : j;
 		}
 
-		// iterate though, and check last char
 		for (int i = 0; i < len1; i++) {
 			MatcherNode c1 = matcherPath1.nodes.get(i);
+			current[0] = i + 1 > maxDiagonal || i + 1 < minDiagonal ? Double.POSITIVE_INFINITY : i + 1;
+			double rowMin = current[0];
 			for (int j = 0; j < len2; j++) {
+				int diagonal = i - j;
+				if (diagonal > maxDiagonal || diagonal < minDiagonal) {
+					current[j + 1] = Double.POSITIVE_INFINITY;
+					continue;
+				}
 				MatcherNode c2 = matcherPath2.nodes.get(j);
 
-				// if last two chars equal
-				if (c1.equals(c2)) {
-					// update dp value for +1 length
-					dp[i + 1][j + 1] = dp[i][j];
+				boolean sameLabel = c1.sameLabel(c2);
+				if (sameLabel && c1.sameToken(c2)) {
+					current[j + 1] = previous[j];
 				} else {
-					double labelWeight = labelWeights.containsKey(c2.label) ? labelWeights.get(c2.label) : 1;
-					double wordWeight = wordWeights.containsKey(c2.token) ? wordWeights.get(c2.token) : 1;
-					double insertLabelWeight = labelWeights.containsKey(c1.label) ? labelWeights.get(c1.label) : 1;
-					double insertWordWeight = wordWeights.containsKey(c1.token) ? wordWeights.get(c1.token) : 1;
-
-					double replaceLabelCost = c1.label.equals(c2.label) ? 1 : labelMismatchCost;
-					double replaceWordCost = 1 - WordEmbedding.similarity(c1.token, c2.token);
-					// if (c1.token.equals("distribute") || c2.token.equals("distribute")) {
-					// System.err.println("[LOG] " + c1.token + " " + c2.token + " " + replaceCost);
-					// }
-					double replace = dp[i][j] + weights.get("replace") * replaceLabelCost * replaceWordCost * labelWeight;
-					double insert = dp[i][j + 1] + weights.get("insert") * insertLabelWeight * insertWordWeight;
-					double delete = dp[i + 1][j] + weights.get("delete") * labelWeight * wordWeight;
+					double replaceLabelCost = sameLabel ? 1 : mismatchCost;
+					double replaceWordCost = 1 - similarity(c1, c2);
+					double replace = previous[j] + replaceWeight * replaceLabelCost * replaceWordCost * b.labelWeight[j];
+					double insert = previous[j + 1] + b.insertCost[i];
+					double delete = current[j] + b.deleteCost[j];
 
 					double min = replace > insert ? insert : replace;
 					min = delete > min ? min : delete;
-					dp[i + 1][j + 1] = min; // smallest of replace, insert and delete
-
-					// System.out.println(c2.label + labelWeight);
-					// System.out.println(c1.label + insertLabelWeight);
-					// System.out.println(replacePenalty);
-					// System.out.println(c1.token + c2.token + replaceCost);
-					// System.out.println("replace " + replace);
-					// System.out.println("insert " + insert);
-					// System.out.println("delete " + delete);
+					current[j + 1] = min; // smallest of replace, insert and delete
+				}
+				if (current[j + 1] < rowMin) {
+					rowMin = current[j + 1];
 				}
 			}
+			double[] row = previous;
+			previous = current;
+			current = row;
+			// every alignment goes through this row
+			if (bounded && rowMin > ceiling + EPSILON) {
+				return rowMin;
+			}
 		}
 
-		return matcherPath1.arg1Type.equals(matcherPath2.arg1Type) && matcherPath1.arg2Type.equals(matcherPath2.arg2Type)
-				? dp[len1][len2] : Math.max(matcherPath1.length(), matcherPath2.length());
+		return previous[len2];
+	}
+
+	/**
+	 * Returns the least cost of the insertions or deletions on any alignment through a cell on diagonal
+	 * <CODE>k</CODE> (i - j) of the table of paths whose lengths differ by <CODE>d</CODE> (len1 - len2).
+	 */
+	private static double indelCost(int k, int d, double[] bounds) {
+		return indelCost(k, bounds) + indelCost(d - k, bounds);
+	}
+
+	private static double indelCost(int k, double[] bounds) {
+		return k > 0 ? k * bounds[0] : -k * bounds[1];
+	}
+
+	private static double weight(TObjectDoubleHashMap table, String key) {
+		return table.containsKey(key) ? table.get(key) : 1;
+	}
+
+	/**
+	 * Returns the cosine similarity of the tokens of <CODE>c1</CODE> and <CODE>c2</CODE>, as
+	 * WordEmbedding.similarity(String, String) does. Similarities are kept in <CODE>similarityCache</CODE>, except
+	 * those of tokens which are not interned; those not in the cache are computed from the embeddings and norms cached
+	 * in the nodes.
+	 */
+	private static double similarity(MatcherNode c1, MatcherNode c2) {
+		if (c1.sameToken(c2)) {
+			return 1.;
+		}
+		if (c1.tokenId == MatcherNode.UNKNOWN || c2.tokenId == MatcherNode.UNKNOWN) {
+			return computeSimilarity(c1, c2);
+		}
+		int version = WordEmbedding.getVersion();
+		double similarity = similarityCache.get(c1.tokenId, c2.tokenId, version);
+		if (Double.isNaN(similarity)) {
+			similarity = computeSimilarity(c1, c2);
+			similarityCache.put(c1.tokenId, c2.tokenId, version, similarity);
+		}
+		return similarity;
+	}
+
+	private static double computeSimilarity(MatcherNode c1, MatcherNode c2) {
+		if (c1.token.equalsIgnoreCase(c2.token)) {
+			return 1.;
+		}
+		MatcherNode.Embedding e1 = c1.embedding();
+		MatcherNode.Embedding e2 = c2.embedding();
+		if (e1.vector == null || e2.vector == null) {
+			return 0;
+		}
+		return WordEmbedding.dotProduct(e1.vector, e2.vector) / (e1.norm * e2.norm);
 	}
 
 }
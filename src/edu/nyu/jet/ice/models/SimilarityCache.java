@@ -0,0 +1,151 @@
+package edu.nyu.jet.ice.models;
+
+import gnu.trove.map.hash.TLongDoubleHashMap;
+
+/**
+ * A bounded cache of the similarities of pairs of tokens, keyed by the ids of the tokens (see MatcherNode).  Used by
+ * PathMatcher, which compares the same pairs of rule and candidate tokens many times when tagging a corpus.
+ * <p>
+ * The cache is divided into segments, each with its own lock, so that it may be shared by several threads.  A segment
+ * which reaches its share of <CODE>maxEntries</CODE> is emptied.  The similarities are those of one set of word
+ * embeddings (identified by WordEmbedding.getVersion()), and are discarded when another set is loaded.
+ *
+ * @version 1.0
+ */
+public class SimilarityCache {
+
+	private static final int SEGMENTS = 64;
+
+	private final int maxEntriesPerSegment;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	static class Segment {
+		TLongDoubleHashMap similarities = new TLongDoubleHashMap(16, 0.5f, Long.MIN_VALUE, Double.NaN);
+		int version = -1;
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0;
+	}
+
+	public SimilarityCache(int maxEntries) {
+		maxEntriesPerSegment = Math.max(1, maxEntries / SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	// similarity is symmetric, so the pair is keyed with the smaller id first
+	private static long key(int id1, int id2) {
+		return id1 < id2 ? ((long) id1 << 32) | (id2 & 0xffffffffL) : ((long) id2 << 32) | (id1 & 0xffffffffL);
+	}
+
+	private Segment segment(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return segments[(int) (h >>> 58) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Returns the cached similarity of tokens <CODE>id1</CODE> and <CODE>id2</CODE> for embeddings
+	 * <CODE>version</CODE>, or NaN if it is not in the cache.
+	 */
+	public double get(int id1, int id2, int version) {
+		long key = key(id1, id2);
+		Segment segment = segment(key);
+		synchronized (segment) {
+			if (segment.version != version) {
+				segment.similarities.clear();
+				segment.version = version;
+			}
+			double similarity = segment.similarities.get(key);
+			if (Double.isNaN(similarity)) {
+				segment.misses++;
+			} else {
+				segment.hits++;
+			}
+			return similarity;
+		}
+	}
+
+	/**
+	 * Records the similarity of tokens <CODE>id1</CODE> and <CODE>id2</CODE> for embeddings <CODE>version</CODE>.
+	 */
+	public void put(int id1, int id2, int version, double similarity) {
+		long key = key(id1, id2);
+		Segment segment = segment(key);
+		synchronized (segment) {
+			if (segment.version != version) {
+				segment.similarities.clear();
+				segment.version = version;
+			}
+			if (segment.similarities.size() >= maxEntriesPerSegment) {
+				segment.evictions += segment.similarities.size();
+				segment.similarities.clear();
+			}
+			segment.similarities.put(key, similarity);
+		}
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.similarities.clear();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.similarities.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		long hits = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				hits += segment.hits;
+			}
+		}
+		return hits;
+	}
+
+	public long getMisses() {
+		long misses = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				misses += segment.misses;
+			}
+		}
+		return misses;
+	}
+
+	public long getEvictions() {
+		long evictions = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				evictions += segment.evictions;
+			}
+		}
+		return evictions;
+	}
+
+	/**
+	 * Returns the fraction of lookups which found the similarity in the cache.
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries, %d hits, %d misses (hit rate %.3f), %d evicted",
+				size(), getHits(), getMisses(), getHitRate(), getEvictions());
+	}
+}
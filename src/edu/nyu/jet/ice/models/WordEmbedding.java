@@ -1,10 +1,6 @@
 package edu.nyu.jet.ice.models;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * WordEmbedding provides the basic functionality for loading, accessing, and computing similarities using word
@@ -13,35 +9,32 @@ import java.util.Map;
 
 public class WordEmbedding {
 
-	private static Map<String, double[]> embeddings = null;
+	private static EmbeddingStore embeddings = null;
 	private static int dim = 0;
 
+	// incremented each time embeddings are loaded
+	private static volatile int version = 0;
+
 	/**
 	 * Load word embeddings from <CODE>embeddingFile</CODE>. Each line of the file consists of a word and the coordinates
-	 * of word, separated by a single blank.
+	 * of word, separated by a single blank. The embeddings are kept in an EmbeddingStore, which converts the file to
+	 * binary form the first time it is loaded and shares it with other users of the same file.
 	 */
 
 	public static void loadWordEmbedding(String embeddingFile) throws IOException {
-		BufferedReader br = new BufferedReader(new FileReader(embeddingFile));
-		String line;
-		embeddings = new HashMap<String, double[]>();
-		int count = 1;
 		System.err.println("Load embeddings...");
-		while ((line = br.readLine()) != null) {
-			String[] parts = line.split(" ");
-			dim = parts.length - 1;
-			double[] embedding = new double[dim];
-			for (int i = 1; i < parts.length; i++) {
-				embedding[i - 1] = Double.valueOf(parts[i]);
-			}
-			embeddings.put(parts[0], embedding);
-			if (count % 10000 == 0) {
-				System.err.print(count + "...");
-			}
-			count++;
-		}
-		System.err.println();
-		br.close();
+		embeddings = EmbeddingStore.open(embeddingFile);
+		dim = embeddings.dimension();
+		version++;
+	}
+
+	/**
+	 * Returns a number which changes each time a file of word embeddings is loaded, so that embeddings looked up
+	 * earlier may be discarded.
+	 */
+
+	static int getVersion() {
+		return version;
 	}
 
 	/**
@@ -57,7 +50,8 @@ public class WordEmbedding {
 	 */
 
 	public static double[] embed(String word) {
-		return embeddings.get(word.toLowerCase());
+		int row = embeddings.indexOf(word.toLowerCase());
+		return row < 0 ? null : embeddings.vector(row);
 	}
 
 	/**
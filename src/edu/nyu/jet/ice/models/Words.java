@@ -19,6 +19,7 @@ import edu.nyu.jet.pat.Pat;
 import edu.nyu.jet.aceJet.Ace;
 import edu.nyu.jet.JetTest;
 import edu.nyu.jet.lex.*;
+import edu.nyu.jet.ice.utils.StringCounter;
 
 /**
  *  process a set of documents through Jet and then accumulate word counts,
@@ -30,7 +31,7 @@ public class Words {
     //static Stemmer stemmer=new Stemmer().getDefaultStemmer();
     static Stemmer stemmer;
 
-    static Map<String, Integer> wordCounts = new TreeMap<String, Integer>();
+    static StringCounter wordCounts = new StringCounter();
 
     public static ProgressMonitor progressMonitor = null;
 
@@ -102,7 +103,7 @@ public class Words {
 	// write counts
         if (!isCanceled) {
 	    PrintWriter writer = new PrintWriter (new FileWriter (outputFile));
-	    for (String r : wordCounts.keySet()) {
+	    for (String r : wordCounts.sortedKeys()) {
 		writer.printf ("%8d\t%s\n", wordCounts.get(r), r);
 	    }
 	    writer.close();
@@ -189,9 +190,7 @@ public class Words {
 		if (!edtType.startsWith("OTHER")) {
 		    r = r + "/" + edtType;
 		}
-		Integer count = wordCounts.get(r);
-		if (count == null) count = 0;
-		wordCounts.put(r, count + 1);
+		wordCounts.increment(r);
 	    }
 	}
     }
@@ -1,10 +1,11 @@
 package edu.nyu.jet.ice.relation;// -*- tab-width: 4 -*-
 
 import edu.nyu.jet.aceJet.AnchoredPath;
-import edu.nyu.jet.aceJet.AnchoredPathSet;
 import edu.nyu.jet.aceJet.SimAnchoredPathSet;
+import edu.nyu.jet.ice.models.AnchoredPathIndex;
 import edu.nyu.jet.ice.models.DepPathMap;
 import edu.nyu.jet.ice.models.IcePath;
+import edu.nyu.jet.ice.models.PathEmbeddingIndex;
 import edu.nyu.jet.ice.models.PathMatcher;
 import edu.nyu.jet.ice.models.WordEmbedding;
 import edu.nyu.jet.ice.models.IcePath.IcePathChoice;
@@ -49,6 +50,20 @@ public class ActiveLearner {
 
 	private ProgressMonitorI progressMonitor = null;
 
+	/**
+	 * If false, messages are written to System.err instead of being shown in dialogs, and progress is reported
+	 * on System.err instead of System.out (as when run by RelationSimulation, which may write its report to
+	 * System.out).
+	 */
+
+	private boolean interactive = true;
+
+	/**
+	 * Number of candidate paths scored by the last iteration of bootstrapping.
+	 */
+
+	private int candidateCount = 0;
+
 	public String relationName = "";
 
 	public String getRelationName() {
@@ -92,7 +107,7 @@ public class ActiveLearner {
 	 * Set of all paths in corpus.
 	 */
 
-	AnchoredPathSet pathSet;
+	AnchoredPathIndex pathSet;
 
 	/**
 	 * Sum of word embeddings of seeds.
@@ -182,16 +197,15 @@ public class ActiveLearner {
 				}
 			}
 			if (allPaths.size() == 0) {
-				JOptionPane.showMessageDialog(Ice.mainFrame,
-						"Seed is invalid or not in corpus. Choose another seed or run [find common patterns].", "Unable to proceed",
-						JOptionPane.WARNING_MESSAGE);
+				showMessage("Seed is invalid or not in corpus. Choose another seed or run [find common patterns].",
+						"Unable to proceed", JOptionPane.WARNING_MESSAGE);
 				return foundPatterns;
 			}
 			seedPaths.addAll(allPaths);
 
-			System.out.println(patternFileName);
+			log().println(patternFileName);
 
-			pathSet = new AnchoredPathSet(patternFileName);
+			pathSet = AnchoredPathIndex.open(patternFileName);
 			bootstrap(arg1Type, arg2Type);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -240,8 +254,30 @@ public class ActiveLearner {
 		this.progressMonitor = progressMonitor;
 	}
 
+	public void setInteractive(boolean interactive) {
+		this.interactive = interactive;
+	}
+
+	public int getCandidateCount() {
+		return candidateCount;
+	}
+
+	// where progress is reported
+	private PrintStream log() {
+		return interactive ? System.out : System.err;
+	}
+
+	private void showMessage(String message, String title, int messageType) {
+		if (interactive) {
+			JOptionPane.showMessageDialog(Ice.mainFrame, message, title, messageType);
+		} else {
+			System.err.println(title + ": " + message);
+		}
+	}
+
 	Map<String, Integer> sharedCount = new HashMap<String, Integer>();
 	Map<String, Integer> totalCount = new HashMap<String, Integer>();
+	SharedArgumentScorer scorer = null;
 
 	/**
 	 * Starting from a set of seed paths, generate a ranked list of candidate paths to be displayed and (if approved by
@@ -255,6 +291,7 @@ public class ActiveLearner {
 			DEBUG = Boolean.valueOf(Ice.iceProperties.getProperty("Ice.Bootstrapper.debug"));
 		}
 		foundPatterns.clear();
+		candidateCount = 0;
 		DepPathMap depPathMap = DepPathMap.getInstance();
 
 		if (progressMonitor != null) {
@@ -292,7 +329,7 @@ public class ActiveLearner {
 			if (icePath.getScore() > MIN_BOOTSTRAP_SCORE && count < MAX_BOOTSTRAPPED_ITEMS && isValid) {
 				String relation = icePath.getRepr().trim() + " = " + this.getRelationName();
 
-				System.out.println(icePath.getRepr().trim() + " = " + icePath.getScore());
+				log().println(icePath.getRepr().trim() + " = " + icePath.getScore());
 
 				if (!negPatterns.contains(relation)) { // don't add prev patterns
 					foundPatterns.add(icePath);
@@ -304,7 +341,7 @@ public class ActiveLearner {
 		}
 
 		if (foundPatterns.isEmpty()) {
-			JOptionPane.showMessageDialog(Ice.mainFrame, "Cannot suggest any [more] patterns.");
+			showMessage("Cannot suggest any [more] patterns.", "Message", JOptionPane.INFORMATION_MESSAGE);
 			return;
 		}
 		if (progressMonitor != null) {
@@ -323,50 +360,21 @@ public class ActiveLearner {
 
 	List<IcePath> scoreUsingSharedArguments() {
 
-		List<BootstrapAnchoredPath> seedPathInstances = new ArrayList<BootstrapAnchoredPath>();
-
-		for (String sp : seedPaths) {
-			List<AnchoredPath> posPaths = pathSet.getByPath(sp);
-			if (posPaths != null) {
-				for (AnchoredPath p : posPaths) {
-					seedPathInstances.add(new BootstrapAnchoredPath(p, sp, BootstrapAnchoredPathType.POSITIVE));
-				}
-			}
+		// the counts of shared argument pairs are kept from one iteration to the next, and updated for the
+		// seeds added since
+		if (scorer == null || scorer.getIndex() != pathSet) {
+			scorer = new SharedArgumentScorer(pathSet);
 		}
-		if (seedPathInstances == null) {
-			System.out.println("No examples of this path.");
-			return null;
-		}
-		System.out.println(seedPathInstances.size() + " examples of this path (Batch AL).");
+		scorer.update(seedPaths);
+		log().println(scorer.getSeedInstanceCount() + " examples of this path (Batch AL).");
 
 		if (progressMonitor != null) {
 			progressMonitor.setNote("Collecting argument pairs");
 			progressMonitor.setProgress(1);
 		}
-		// collect other paths connecting the same argument pairs connected by
-		// seeds
-		// shared = set of arg pairs this pattern shares with seeds
-		Map<String, Set<String>> shared = new HashMap<String, Set<String>>();
-		Map<String, BootstrapAnchoredPathType> pathSourceMap = new HashMap<String, BootstrapAnchoredPathType>();
-		for (BootstrapAnchoredPath seed : seedPathInstances) {
-			for (AnchoredPath p : pathSet.getByArgs(seed.argPair())) {
-				String pp = p.path;
-
-				if (seedPaths.contains(pp))
-					continue;
-				if (rejects.contains(pp))
-					continue;
-				if (shared.get(pp) == null) {
-					shared.put(pp, new HashSet<String>());
-				}
-				shared.get(pp).add(seed.argPair());
-				if (pathSourceMap.containsKey(pp) && pathSourceMap.get(pp) != seed.type) {
-					pathSourceMap.put(pp, BootstrapAnchoredPathType.BOTH);
-				} else {
-					pathSourceMap.put(pp, seed.type);
-				}
-			}
-		}
+		// shared = number of arg pairs each other path shares with seeds
+		Map<String, Integer> shared = scorer.sharedCounts(rejects);
+		candidateCount = shared.size();
 		List<IcePath> scoreList = new ArrayList<IcePath>();
 		DepPathMap depPathMap = DepPathMap.getInstance();
 
@@ -376,17 +384,10 @@ public class ActiveLearner {
 		// currently used)
 		// -- score
 		for (String p : shared.keySet()) {
-			sharedCount.put(p, shared.get(p).size());
-
-			// System.out.println(shared.get(p).toString() + " = " + p);
-
+			sharedCount.put(p, shared.get(p));
 			if (sharedCount.get(p) < MIN_RELATION_COUNT)
 				continue;
-			Set<String> argPairsForP = new HashSet<String>();
-			for (AnchoredPath ap : pathSet.getByPath(p)) {
-				argPairsForP.add(ap.arg1 + ":" + ap.arg2);
-			}
-			totalCount.put(p, argPairsForP.size());
+			totalCount.put(p, scorer.totalCount(p));
 			// double score = (double)sharedCount.get(p) / totalCount.get(p) *
 			// Math.log(sharedCount.get(p) + 1);
 			double score = (double) sharedCount.get(p);
@@ -417,38 +418,30 @@ public class ActiveLearner {
 
 	List<IcePath> scoreUsingWordEmbeddings() {
 		List<IcePath> scoreList = new ArrayList<IcePath>();
+		if (seedEmbedding == null) {
+			return scoreList;
+		}
 		DepPathMap depPathMap = DepPathMap.getInstance();
 
-		for (String fullp : depPathMap.getPathSet()) {
-			AnchoredPath a = new AnchoredPath(fullp);
-			String pRepr = depPathMap.findRepr(fullp);
-			if (pRepr == null) {
-				continue;
-			}
-			String pExample = depPathMap.findExample(fullp);
-			if (pExample == null) {
-				continue;
-			}
-			if (seedPaths.contains(a.path)) { // prevent seed path from showing up on scoreList
-				continue;
-			}
-			String tooltip = IceUtils.splitIntoLine(depPathMap.findExample(fullp), 80);
-			tooltip = "<html>" + tooltip.replaceAll("\\n", "<\\br>");
-
-			if (!arg1Type.equals(a.arg1))
-				continue;
-			if (!arg2Type.equals(a.arg2))
-				continue;
-
+		// only the best-scoring path for each linearization can be suggested, so it is enough to score the paths of
+		// the linearizations nearest to the seeds, with enough to spare for seed paths and previously rejected ones
+		int k = 2 * MAX_BOOTSTRAPPED_ITEMS + seedPaths.size() + RelationOracle.getPreviousNegPatterns().size();
+		PathEmbeddingIndex index = PathEmbeddingIndex.forArgTypes(arg1Type, arg2Type);
+		for (String pRepr : index.nearestReprs(seedEmbedding, k)) {
 			String[] words = pRepr.split(" ");
 			double[] v = WordEmbedding.embed(words);
 			double score = WordEmbedding.similarity(v, seedEmbedding);
 
-			IcePath icePath = new IcePath(a.path, pRepr, tooltip, score);
-			if (pRepr.equals(arg1Type + " " + arg2Type)) {
-				continue;
+			for (String fullp : index.getPaths(pRepr)) {
+				AnchoredPath a = new AnchoredPath(fullp);
+				if (seedPaths.contains(a.path)) { // prevent seed path from showing up on scoreList
+					continue;
+				}
+				candidateCount++;
+				String tooltip = IceUtils.splitIntoLine(depPathMap.findExample(fullp), 80);
+				tooltip = "<html>" + tooltip.replaceAll("\\n", "<\\br>");
+				scoreList.add(new IcePath(a.path, pRepr, tooltip, score));
 			}
-			scoreList.add(icePath);
 		}
 		return scoreList;
 	}
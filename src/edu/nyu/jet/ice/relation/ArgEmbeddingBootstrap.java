@@ -4,6 +4,7 @@ import edu.nyu.jet.aceJet.AnchoredPathSet;
 import edu.nyu.jet.aceJet.ArgEmbeddingAnchoredPathSet;
 import edu.nyu.jet.aceJet.SimAnchoredPathSet;
 import edu.nyu.jet.ice.models.DepPathMap;
+import edu.nyu.jet.ice.models.EmbeddingStore;
 import edu.nyu.jet.ice.models.IcePath;
 import edu.nyu.jet.ice.uicomps.Ice;
 import edu.nyu.jet.ice.utils.FileNameSchema;
@@ -12,9 +13,7 @@ import edu.nyu.jet.ice.utils.ProgressMonitorI;
 import gnu.trove.map.hash.TObjectDoubleHashMap;
 
 import javax.swing.*;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 
@@ -102,26 +101,13 @@ public class ArgEmbeddingBootstrap extends RichBootstrap {
         return foundPatterns;
     }
 
+    /**
+     * Uses the phrase embeddings of <CODE>fileName</CODE>, normalized to length 1, keyed by phrases
+     * with words separated by blanks.  The embeddings are read from a shared EmbeddingStore as needed.
+     */
     private void loadEmbeddings(String fileName) {
-        String line;
         try {
-            BufferedReader br = new BufferedReader(new FileReader(fileName));
-            line = br.readLine();
-            int featureSize = Integer.valueOf(line.split(" ")[1]);
-
-            while ((line = br.readLine()) != null) {
-                StringTokenizer tok = new StringTokenizer(line);
-                String word = tok.nextToken().replaceAll("_", " ");
-                double[] v = new double[featureSize];
-                int i = 0;
-                while (tok.hasMoreTokens()) {
-                    v[i] = Double.valueOf(tok.nextToken());
-                    i++;
-                }
-                IceUtils.l2norm(v);
-                normalizedPhraseEmbeddings.put(word, v);
-            }
-            br.close();
+            normalizedPhraseEmbeddings = EmbeddingStore.open(fileName).phraseMap(true);
         } catch (IOException e) {
             e.printStackTrace();
         }
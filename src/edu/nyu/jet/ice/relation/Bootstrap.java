@@ -1,10 +1,11 @@
 package edu.nyu.jet.ice.relation;// -*- tab-width: 4 -*-
 
 import edu.nyu.jet.aceJet.AnchoredPath;
-import edu.nyu.jet.aceJet.AnchoredPathSet;
 import edu.nyu.jet.aceJet.SimAnchoredPathSet;
+import edu.nyu.jet.ice.models.AnchoredPathIndex;
 import edu.nyu.jet.ice.models.DepPathMap;
 import edu.nyu.jet.ice.models.IcePath;
+import edu.nyu.jet.ice.models.PathEmbeddingIndex;
 import edu.nyu.jet.ice.models.PathMatcher;
 import edu.nyu.jet.ice.models.WordEmbedding;
 import edu.nyu.jet.ice.uicomps.Ice;
@@ -91,7 +92,7 @@ public class Bootstrap {
      *  Set of all paths in corpus.
      */
 
-    AnchoredPathSet pathSet;
+    AnchoredPathIndex pathSet;
 
     /**
      *  Sum of word embeddings of seeds.
@@ -187,7 +188,7 @@ public class Bootstrap {
             }
             seedPaths.addAll(allPaths);
 
-            pathSet = new AnchoredPathSet(patternFileName);
+            pathSet = AnchoredPathIndex.open(patternFileName);
             bootstrap(arg1Type, arg2Type);
         }
         catch (IOException e) {
@@ -240,6 +241,7 @@ public class Bootstrap {
 
     Map<String, Integer> sharedCount = new HashMap<String, Integer>();
     Map<String, Integer> totalCount = new HashMap<String, Integer>();
+    SharedArgumentScorer scorer = null;
 
     /**
      *  Starting from a set of seed paths, generate a ranked list of candidate paths
@@ -261,32 +263,21 @@ public class Bootstrap {
             progressMonitor.setProgress(4);
         }
 
-        List<IcePath> scoreList = WordEmbedding.isLoaded() ? scoreUsingWordEmbeddings() : scoreUsingSharedArguments();
-        if (scoreList == null) return;
-        //
-        // sort the patterns by score
         //
-        Collections.sort(scoreList);
+        // the scoring keeps the best patterns, sorted by score:  at most MAX_BOOTSTRAPPED_ITEMS,
+        // scoring above MIN_BOOTSTRAP_SCORE, dropping paths which have the same linearization as
+        // higher-ranked paths.  Only these are given examples.
         //
-        // filter the pattern set:
-        //   drop paths which have the same linearization as higher-ranked paths
-        //
-        Set<String>   existingReprs = new HashSet<String>();
-        Set<String>   foundPatternStrings = new HashSet<String>();
-        int count = 0;
+        List<IcePath> scoreList = WordEmbedding.isLoaded() ? scoreUsingWordEmbeddings() : scoreUsingSharedArguments();
+        if (scoreList == null) return;
         for (IcePath icePath : scoreList) {
             String p = icePath.getPath();
             if (DEBUG) {
                 System.err.print("Score for " + icePath.toString() + " " + icePath.getScore());
                 System.err.println(" (shared = " + sharedCount.get(p) + " total = " + totalCount.get(p) + ")");
             }
-            boolean isValid = !existingReprs.contains(icePath.getRepr());
-            if (icePath.getScore() > MIN_BOOTSTRAP_SCORE && count < MAX_BOOTSTRAPPED_ITEMS  && isValid) {
-                foundPatterns.add(icePath);
-                foundPatternStrings.add(p);
-                existingReprs.add(icePath.getRepr());
-                count++;
-            }
+            icePath.setExample(tooltip(p));
+            foundPatterns.add(icePath);
         }
         if (foundPatterns.isEmpty()) {
             JOptionPane.showMessageDialog(Ice.mainFrame, "Cannot suggest any [more] patterns.");
@@ -305,128 +296,101 @@ public class Bootstrap {
     }
 
     /**
-     *  Construct a list of candidate relation patterns, with scores
+     *  Construct a list of the best candidate relation patterns, with scores
      *  based on number of shared arguments.
      */
 
     List<IcePath> scoreUsingSharedArguments () {
 
-        List<BootstrapAnchoredPath> seedPathInstances = new ArrayList<BootstrapAnchoredPath>();
-
-        for (String sp : seedPaths) {
-            List<AnchoredPath> posPaths = pathSet.getByPath(sp);
-            if (posPaths != null) {
-                for (AnchoredPath p : posPaths) {
-                    seedPathInstances.add(new BootstrapAnchoredPath(p,
-                            sp,
-                            BootstrapAnchoredPathType.POSITIVE));
-                }
-            }
+        // the counts of shared argument pairs are kept from one iteration to the next, and updated for the
+        // seeds added since
+        if (scorer == null || scorer.getIndex() != pathSet) {
+            scorer = new SharedArgumentScorer(pathSet);
         }
-        if (seedPathInstances == null) {
-            System.out.println("No examples of this path.");
-            return null;
-        }
-        System.out.println(seedPathInstances.size() + " examples of this path.");
+        scorer.update(seedPaths);
+        System.out.println(scorer.getSeedInstanceCount() + " examples of this path.");
 
         if (progressMonitor != null) {
             progressMonitor.setNote("Collecting argument pairs");
             progressMonitor.setProgress(1);
         }
-        // collect other paths connecting the same argument pairs connected by seeds
-        //   shared = set of arg pairs this pattern shares with seeds
-        Map<String, Set<String>> shared = new HashMap<String, Set<String>>();
-        Map<String, BootstrapAnchoredPathType> pathSourceMap =
-                new HashMap<String, BootstrapAnchoredPathType>();
-        for (BootstrapAnchoredPath seed : seedPathInstances) {
-            for (AnchoredPath p : pathSet.getByArgs(seed.argPair())) {
-                String pp = p.path;
-                if (seedPaths.contains(pp)) continue;
-                if (rejects.contains(pp)) continue;
-                if (shared.get(pp) == null) {
-                    shared.put(pp, new HashSet<String>());
-                }
-                shared.get(pp).add(seed.argPair());
-                if (pathSourceMap.containsKey(pp) && pathSourceMap.get(pp) != seed.type) {
-                    pathSourceMap.put(pp, BootstrapAnchoredPathType.BOTH);
-                }
-                else {
-                    pathSourceMap.put(pp, seed.type);
-                }
-            }
-        }
-        List<IcePath> scoreList = new ArrayList<IcePath>();
-        DepPathMap depPathMap = DepPathMap.getInstance();
+        // shared = number of arg pairs each other path shares with seeds
+        final Map<String, Integer> shared = scorer.sharedCounts(rejects);
+        final DepPathMap depPathMap = DepPathMap.getInstance();
+        final String arg1Type = this.arg1Type;
+        final String arg2Type = this.arg2Type;
 
         // for each path which shares pairs with the seed, compute
         // -- sharedCount = number of distinct argument pairs it shares
         // -- totalCount = total number of argument pairs for this path (not currently used)
         // -- score
-        for (String p : shared.keySet()) {
-            sharedCount.put(p, shared.get(p).size());
-            if (sharedCount.get(p) < MIN_RELATION_COUNT) continue;
-            Set<String> argPairsForP = new HashSet<String>();
-            for (AnchoredPath ap : pathSet.getByPath(p)) {
-                argPairsForP.add(ap.arg1 + ":" + ap.arg2);
-            }
-            totalCount.put(p, argPairsForP.size());
-            // double score = (double)sharedCount.get(p) / totalCount.get(p) * Math.log(sharedCount.get(p) + 1);
-            double score = (double)sharedCount.get(p);
-
-            String fullp = arg1Type + " -- " + p + " -- " + arg2Type;
-            String pRepr = depPathMap.findRepr(fullp);
-            if (pRepr == null) {
-                continue;
-            }
-            String pExample = depPathMap.findExample(fullp);
-            if (pExample == null) {
-                continue;
-            }
-            String tooltip = IceUtils.splitIntoLine(depPathMap.findExample(fullp), 80);
-            tooltip = "<html>" + tooltip.replaceAll("\\n", "<\\br>");
-            IcePath icePath = new IcePath(p, pRepr, tooltip, score);
-            if (pRepr.equals(arg1Type + " " + arg2Type)) {
-                continue;
+        List<IcePath> scoreList = CandidateRanker.top(new ArrayList<String>(shared.keySet()),
+                new CandidateRanker.Scorer() {
+            public void score(String p, List<IcePath> scored) {
+                if (shared.get(p) < MIN_RELATION_COUNT) return;
+                // double score = (double)sharedCount.get(p) / totalCount.get(p) * Math.log(sharedCount.get(p) + 1);
+                double score = (double)shared.get(p);
+
+                String fullp = arg1Type + " -- " + p + " -- " + arg2Type;
+                String pRepr = depPathMap.findRepr(fullp);
+                if (pRepr == null) {
+                    return;
+                }
+                String pExample = depPathMap.findExample(fullp);
+                if (pExample == null) {
+                    return;
+                }
+                if (pRepr.equals(arg1Type + " " + arg2Type)) {
+                    return;
+                }
+                scored.add(new IcePath(p, pRepr, null, score));
             }
-            scoreList.add(icePath);
+        }, MAX_BOOTSTRAPPED_ITEMS, MIN_BOOTSTRAP_SCORE);
+        for (IcePath icePath : scoreList) {
+            String p = icePath.getPath();
+            sharedCount.put(p, shared.get(p));
+            totalCount.put(p, scorer.totalCount(p));
         }
         return scoreList;
     }
 
     /**
-     *  Construct a list of candidate relation patterns with scores based on
+     *  Construct a list of the best candidate relation patterns with scores based on
      *  similarities of embeddings.
      */
 
     List<IcePath> scoreUsingWordEmbeddings () {
-        List<IcePath> scoreList = new ArrayList<IcePath>();
-        DepPathMap depPathMap = DepPathMap.getInstance();
-        for (String fullp : depPathMap.getPathSet()) {
-            AnchoredPath a = new AnchoredPath(fullp);
-            String pRepr = depPathMap.findRepr(fullp);
-            if (pRepr == null) {
-                continue;
-            }
-            String pExample = depPathMap.findExample(fullp);
-            if (pExample == null) {
-                continue;
-            }
-            String tooltip = IceUtils.splitIntoLine(depPathMap.findExample(fullp), 80);
-            tooltip = "<html>" + tooltip.replaceAll("\\n", "<\\br>");
-
-            if (! arg1Type.equals(a.arg1)) continue;
-            if (! arg2Type.equals(a.arg2)) continue;
-            String[] words = pRepr.split(" ");
-            double[] v = WordEmbedding.embed(words);
-            double score = WordEmbedding.similarity(v, seedEmbedding);
-
-            IcePath icePath = new IcePath(a.path, pRepr, tooltip, score);
-            if (pRepr.equals(arg1Type + " " + arg2Type)) {
-                continue;
-            }
-            scoreList.add(icePath);
+        if (seedEmbedding == null) {
+            return new ArrayList<IcePath>();
         }
-        return scoreList;
+        // only the best-scoring path for each linearization can be bootstrapped, so it is enough
+        // to score the paths of the linearizations nearest to the seeds (with some to spare)
+        final PathEmbeddingIndex index = PathEmbeddingIndex.forArgTypes(arg1Type, arg2Type);
+        final double[] seedEmbedding = this.seedEmbedding;
+        return CandidateRanker.top(index.nearestReprs(seedEmbedding, 2 * MAX_BOOTSTRAPPED_ITEMS),
+                new CandidateRanker.Scorer() {
+            public void score(String pRepr, List<IcePath> scored) {
+                String[] words = pRepr.split(" ");
+                double[] v = WordEmbedding.embed(words);
+                double score = WordEmbedding.similarity(v, seedEmbedding);
+                // the paths of a linearization score the same, and only the first can be kept
+                List<String> paths = index.getPaths(pRepr);
+                if (!paths.isEmpty()) {
+                    AnchoredPath a = new AnchoredPath(paths.get(0));
+                    scored.add(new IcePath(a.path, pRepr, null, score));
+                }
+            }
+        }, MAX_BOOTSTRAPPED_ITEMS, MIN_BOOTSTRAP_SCORE);
+    }
+
+    /**
+     *  Returns the example of path <CODE>p</CODE>, as a tooltip.
+     */
+
+    private String tooltip(String p) {
+        String fullp = arg1Type + " -- " + p + " -- " + arg2Type;
+        String tooltip = IceUtils.splitIntoLine(DepPathMap.getInstance().findExample(fullp), 80);
+        return "<html>" + tooltip.replaceAll("\\n", "<\\br>");
     }
 
     public enum BootstrapAnchoredPathType {
@@ -0,0 +1,167 @@
+package edu.nyu.jet.ice.relation;
+
+import edu.nyu.jet.ice.models.IcePath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Scores bootstrapping candidates in parallel and keeps only the best, as the bootstrappers display no more than a
+ * fixed number of them.
+ * <p>
+ * The candidates are scored in partitions by several threads. Each partition keeps, for each linearization (repr), its
+ * best path, and of these only the <CODE>k</CODE> best, in a bounded heap; the partitions are then merged the same
+ * way. The result is the list the bootstrappers built before by sorting all scored paths (stably, best first) and
+ * taking the first <CODE>k</CODE> paths scoring above a minimum whose reprs had not been taken yet.
+ *
+ * @version 1.0
+ */
+public class CandidateRanker {
+
+    /**
+     * Scores a candidate, adding the IcePaths for it (without examples, which are only looked up for the paths kept)
+     * to <CODE>scored</CODE>. May be called by several threads at once.
+     */
+    public interface Scorer {
+        void score(String candidate, List<IcePath> scored);
+    }
+
+    // partitions of fewer than this many candidates are not split
+    static final int CANDIDATES_PER_TASK = 1024;
+
+    private static ExecutorService pool = null;
+
+    /**
+     * A scored path, with its position in the order in which the candidates were scored, which breaks ties.
+     */
+    private static class Ranked {
+        final IcePath path;
+        final int candidate;
+        final int rank;
+
+        Ranked(IcePath path, int candidate, int rank) {
+            this.path = path;
+            this.candidate = candidate;
+            this.rank = rank;
+        }
+    }
+
+    // best first
+    private static final Comparator<Ranked> ORDER = new Comparator<Ranked>() {
+        public int compare(Ranked r1, Ranked r2) {
+            int c = Double.compare(r2.path.getScore(), r1.path.getScore());
+            if (c != 0) return c;
+            if (r1.candidate != r2.candidate) return r1.candidate < r2.candidate ? -1 : 1;
+            return r1.rank < r2.rank ? -1 : (r1.rank == r2.rank ? 0 : 1);
+        }
+    };
+
+    /**
+     * Returns the (at most) <CODE>k</CODE> best paths scored by <CODE>scorer</CODE> for <CODE>candidates</CODE>,
+     * scoring more than <CODE>minScore</CODE> and with distinct reprs, best first.
+     */
+    public static List<IcePath> top(final List<String> candidates, final Scorer scorer,
+                                    final int k, final double minScore) {
+        List<Ranked> best;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        if (numThreads == 1 || candidates.size() <= CANDIDATES_PER_TASK) {
+            best = top(candidates, 0, candidates.size(), scorer, k, minScore);
+        } else {
+            int partitionSize = Math.max(CANDIDATES_PER_TASK, (candidates.size() + numThreads - 1) / numThreads);
+            List<Future<List<Ranked>>> tasks = new ArrayList<Future<List<Ranked>>>();
+            for (int start = 0; start < candidates.size(); start += partitionSize) {
+                final int from = start;
+                final int to = Math.min(start + partitionSize, candidates.size());
+                tasks.add(pool().submit(new Callable<List<Ranked>>() {
+                    public List<Ranked> call() {
+                        return top(candidates, from, to, scorer, k, minScore);
+                    }
+                }));
+            }
+            List<Ranked> partitionBest = new ArrayList<Ranked>();
+            for (Future<List<Ranked>> task : tasks) {
+                try {
+                    partitionBest.addAll(task.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return new ArrayList<IcePath>();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            best = top(partitionBest, k);
+        }
+        List<IcePath> result = new ArrayList<IcePath>(best.size());
+        for (Ranked r : best) {
+            result.add(r.path);
+        }
+        return result;
+    }
+
+    private static List<Ranked> top(List<String> candidates, int from, int to, Scorer scorer,
+                                    int k, double minScore) {
+        List<Ranked> ranked = new ArrayList<Ranked>();
+        List<IcePath> scored = new ArrayList<IcePath>();
+        for (int i = from; i < to; i++) {
+            scored.clear();
+            scorer.score(candidates.get(i), scored);
+            for (int j = 0; j < scored.size(); j++) {
+                IcePath path = scored.get(j);
+                if (path.getScore() > minScore) {
+                    ranked.add(new Ranked(path, i, j));
+                }
+            }
+        }
+        return top(ranked, k);
+    }
+
+    /**
+     * Returns the best of <CODE>ranked</CODE> for each repr, and of these the <CODE>k</CODE> best, best first.
+     */
+    private static List<Ranked> top(List<Ranked> ranked, int k) {
+        Map<String, Ranked> bestForRepr = new HashMap<String, Ranked>();
+        for (Ranked r : ranked) {
+            Ranked other = bestForRepr.get(r.path.getRepr());
+            if (other == null || ORDER.compare(r, other) < 0) {
+                bestForRepr.put(r.path.getRepr(), r);
+            }
+        }
+        // the k best, worst on top
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(k + 1, Collections.reverseOrder(ORDER));
+        for (Ranked r : bestForRepr.values()) {
+            if (heap.size() < k) {
+                heap.add(r);
+            } else if (k > 0 && ORDER.compare(r, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(r);
+            }
+        }
+        List<Ranked> result = new ArrayList<Ranked>(heap);
+        Collections.sort(result, ORDER);
+        return result;
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CandidateRanker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+}
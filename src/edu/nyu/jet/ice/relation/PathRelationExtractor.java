@@ -2,13 +2,13 @@ package edu.nyu.jet.ice.relation;
 
 import opennlp.model.Event;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import edu.nyu.jet.ice.models.CompiledRuleModel;
 import edu.nyu.jet.ice.models.MatcherPath;
+import edu.nyu.jet.ice.models.MatcherPathIndex;
 import edu.nyu.jet.ice.models.PathMatcher;
 import edu.nyu.jet.ice.models.WordEmbedding;
 
@@ -37,6 +37,11 @@ public class PathRelationExtractor {
 
 	private List<MatcherPath> negTable = new ArrayList<MatcherPath>();
 
+	// the rules of ruleTable and negTable, indexed by argument types and length
+	private MatcherPathIndex ruleIndex = new MatcherPathIndex();
+
+	private MatcherPathIndex negIndex = new MatcherPathIndex();
+
 	public void updateWeights(double replace, double insert, double delete) {
 		pathMatcher.updateWeights(replace, insert, delete);
 	}
@@ -45,40 +50,21 @@ public class PathRelationExtractor {
 		pathMatcher.updateLabelMismatchCost(cost);
 	}
 
+	/**
+	 * Loads the rules of <CODE>rulesFile</CODE>, from its compiled form (see CompiledRuleModel) if that is up to date.
+	 */
 	public void loadRules(String rulesFile) throws IOException {
-		BufferedReader br = new BufferedReader(new FileReader(rulesFile));
-		String line = null;
-		while ((line = br.readLine()) != null) {
-			String[] parts = line.split("=");
-			MatcherPath path = new MatcherPath(parts[0].trim());
-			if (parts[0].contains("EMPTY")) {
-				continue;
-			}
-			if (!path.isEmpty()) {
-				path.setRelationType(parts[1].trim());
-			}
+		for (MatcherPath path : CompiledRuleModel.load(rulesFile)) {
 			ruleTable.add(path);
+			ruleIndex.add(path);
 		}
-
-		br.close();
 	}
 
 	public void loadNeg(String negRulesFile) throws IOException {
-		BufferedReader br = new BufferedReader(new FileReader(negRulesFile));
-		String line = null;
-		while ((line = br.readLine()) != null) {
-			String[] parts = line.split("=");
-			MatcherPath path = new MatcherPath(parts[0].trim());
-			if (parts[0].contains("EMPTY")) {
-				continue;
-			}
-			if (!path.isEmpty()) {
-				path.setRelationType(parts[1].trim());
-			}
+		for (MatcherPath path : CompiledRuleModel.load(negRulesFile)) {
 			negTable.add(path);
+			negIndex.add(path);
 		}
-
-		br.close();
 	}
 
 	public void loadEmbeddings(String embeddingFile) throws IOException {
@@ -94,65 +80,70 @@ public class PathRelationExtractor {
 	 * @return
 	 */
 	public String predict(Event e) {
+		return predict(toMatcherPath(e), e.getOutcome());
+	}
+
+	/**
+	 * Builds the MatcherPath of an Event with context [dependency path, arg1 type, arg2 type].
+	 */
+	public static MatcherPath toMatcherPath(Event e) {
 		String[] context = e.getContext();
 		String depPath = context[0];
 		String arg1Type = context[1];
 		String arg2Type = context[2];
 		String fullDepPath = arg1Type + "--" + depPath + "--" + arg2Type;
-		MatcherPath matcherPath = new MatcherPath(fullDepPath);
-		double minScore = 1;
-		double minNegScore = 1;
-		MatcherPath minRule = null;
-
-		// System.out.println("candidate path: " + fullDepPath);
+		return new MatcherPath(fullDepPath);
+	}
 
-		for (MatcherPath rule : ruleTable) { // positive paths
-			// System.out.println("positive path: " + rule);
+	/**
+	 * Predict the relation type of a candidate path, built by <CODE>toMatcherPath</CODE>. Unlike building the path, this
+	 * may be called by several threads at once, provided that the rules and weights are not changed meanwhile.
+	 *
+	 * @param actual
+	 *          the relation type of the candidate, if known, for logging
+	 */
+	public String predict(MatcherPath matcherPath, String actual) {
+		// System.out.println("candidate path: " + matcherPath);
 
-			double score = pathMatcher.matchPaths(matcherPath, rule) / rule.length(); // normalized by the length of the path
-			if (score < minScore) {
-				minScore = score;
-				minRule = rule;
-			}
-		}
+		// nearest positive path; rules with other argument types or far from the candidate's length are skipped, and
+		// as only a rule scoring below minThreshold is accepted, no rule is matched beyond that
+		MatcherPathIndex.Match match = ruleIndex.nearest(matcherPath, pathMatcher, Math.min(1, minThreshold));
+		double minScore = match.score;
+		MatcherPath minRule = match.rule;
 
+		double minNegScore = 1;
 		MatcherPath minNegRule = null;
 
 		if (minScore < minThreshold) {
-			for (MatcherPath rule : negTable) { // negative paths
-				if (!rule.getRelationType().equals(minRule.getRelationType())) {
-					// continue; // e.g. ORG-AFF vs ORG-AFF-1 should be allowed, but not ORG-AFF vs GEN-AFF
-				}
-
-				// System.out.println("negative path: " + rule);
-
-				double score = pathMatcher.matchPaths(matcherPath, rule) / rule.length();
-				if (score < minNegScore) {
-					minNegScore = score;
-					minNegRule = rule;
-				}
-			}
+			// nearest negative path
+			MatcherPathIndex.Match negMatch = negIndex.nearest(matcherPath, pathMatcher, 1);
+			minNegScore = negMatch.score;
+			minNegRule = negMatch.rule;
 		} else {
 			return null;
 		}
 
 		if (minScore < minThreshold && minScore < minNegScore * negDiscount) {
-			System.err.println("[ACCEPT] Pos Score:" + minScore);
-			System.err.println("[ACCEPT] Neg Score:" + minNegScore * negDiscount);
-			System.err.println("[ACCEPT] Pos Rule:" + minRule);
-			System.err.println("[ACCEPT] Neg Rule:" + minNegRule);
-			System.err.println("[ACCEPT] Current:" + matcherPath);
-			System.err.println("[ACCEPT] Actual:" + e.getOutcome() + "\tPredicted:" + minRule.getRelationType());
+			synchronized (System.err) { // keep the lines of a candidate together when tagging with several threads
+				System.err.println("[ACCEPT] Pos Score:" + minScore);
+				System.err.println("[ACCEPT] Neg Score:" + minNegScore * negDiscount);
+				System.err.println("[ACCEPT] Pos Rule:" + minRule);
+				System.err.println("[ACCEPT] Neg Rule:" + minNegRule);
+				System.err.println("[ACCEPT] Current:" + matcherPath);
+				System.err.println("[ACCEPT] Actual:" + actual + "\tPredicted:" + minRule.getRelationType());
+			}
 
 			return minRule.getRelationType();
 		}
 		if (minScore > minNegScore * negDiscount) {
-			System.err.println("[REJECT] Pos Score:" + minScore);
-			System.err.println("[REJECT] Neg Score:" + minNegScore * negDiscount);
-			System.err.println("[REJECT] Pos Rule:" + minRule);
-			System.err.println("[REJECT] Neg Rule:" + minNegRule);
-			System.err.println("[REJECT] Current:" + matcherPath);
-			System.err.println("[REJECT] Actual:" + e.getOutcome() + "\tPredicted:" + minRule.getRelationType());
+			synchronized (System.err) {
+				System.err.println("[REJECT] Pos Score:" + minScore);
+				System.err.println("[REJECT] Neg Score:" + minNegScore * negDiscount);
+				System.err.println("[REJECT] Pos Rule:" + minRule);
+				System.err.println("[REJECT] Neg Rule:" + minNegRule);
+				System.err.println("[REJECT] Current:" + matcherPath);
+				System.err.println("[REJECT] Actual:" + actual + "\tPredicted:" + minRule.getRelationType());
+			}
 		}
 		return null;
 	}
@@ -17,12 +17,36 @@ import java.io.*;
  * If there is a local file <CODE>relationOracle</CODE>, use that file to label candidate paths. If there is no entry
  * for a particular candidate, ask the user to label it and record that label for future use in file
  * <CODE>newRelationOracle</CODE>.
+ * <p>
+ * The table is read once and kept in memory, indexed by repr and relation; new labels are appended to the file as they
+ * are added.
  */
 
 public class RelationOracle {
 
 	static String jetHome = System.getProperty("jetHome");
-	static Set<String> knownRepr = new HashSet<String>();
+	// the oracle file, if not $jetHome/data/relationOracle
+	static String oracleFileName = null;
+
+	// The oracle file is read once and kept in memory, with the tables below built from it.  The file only grows by
+	// lines appended by addRepr (which updates the tables with them) and is only rewritten by alterChoice; it is read
+	// again only if its length or modification time show it was changed by someone else.
+
+	// the file the tables were built from, and its length and modification time
+	private static File oracleFile = null;
+	private static long oracleLength = -1;
+	private static long oracleModified = -1;
+	// the lines of the file, in order, and as a set
+	private static List<String> lines = new ArrayList<String>();
+	private static Set<String> knownRepr = new HashSet<String>();
+	// "repr = relation : YES/NO" for each line, without the "-1" of inverse relations
+	private static Set<String> knownReprRelation = new HashSet<String>();
+	// "repr = relation" for each line, and for each line labeled NO, without the "-1" of inverse relations
+	private static Set<String> previousPatterns = new HashSet<String>();
+	private static Set<String> previousNegPatterns = new HashSet<String>();
+	// the "repr = relation" keys of the lines, and whether alterChoice would change the file
+	private static Set<String> choiceKeys = new HashSet<String>();
+	private static boolean altered = false;
 
 	/**
 	 * If a relation oracle table has been loaded, use that table to label the candidate paths on
@@ -32,34 +56,20 @@ public class RelationOracle {
 	 * At the end, write a file <CODE>newRelationOracle</CODE> with an updated table.
 	 */
 
-	public static boolean existsRepr() {
+	public static synchronized boolean existsRepr() {
 		try {
-			if (new File(jetHome + "/data/relationOracle").exists()) {
-				BufferedReader br = new BufferedReader(new FileReader(new File(jetHome + "/data/relationOracle")));
-				String line;
-
-				while ((line = br.readLine()) != null) {
-					knownRepr.add(line);
-				}
-
-				br.close();
-				return true;
-			} else {
-				return false;
-			}
+			return refresh();
 		} catch (IOException e) {
 			System.err.println("IOException in RelationOracle");
 			return false;
 		}
 	}
 
-	public static void label(List<IcePath> foundPatterns, String relationName) {
-		Set<String> knownReprRelation = new HashSet<String>();
-
-		for (String reprLine : knownRepr) {
-			String repr = reprLine.split("=")[0].trim();
-			String relation = reprLine.split("=")[1].replace("-1", "").trim();
-			knownReprRelation.add(repr + " = " + relation);
+	public static synchronized void label(List<IcePath> foundPatterns, String relationName) {
+		try {
+			refresh();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 
 		// label patterns
@@ -72,55 +82,68 @@ public class RelationOracle {
 				fp.setChoice(IcePathChoice.NO);
 			}
 		}
-
-		knownRepr.clear();
 	}
 
 	// write a relation representation to oracle file
-	public static void addRepr(List<IcePath> approvedPaths, String[] seedsArr, List<IcePath> rejectedPaths,
+	public static synchronized void addRepr(List<IcePath> approvedPaths, String[] seedsArr, List<IcePath> rejectedPaths,
 			String relationName) {
 		try {
-			BufferedWriter bw = new BufferedWriter(new FileWriter(new File(jetHome + "/data/relationOracle"), true)); // append
+			refresh();
+			List<String> newLines = new ArrayList<String>();
 
 			for (IcePath path : approvedPaths) { // add approved paths
 				String outputPath = path.getRepr() + " = " + relationName + " : YES";
 				if (!knownRepr.contains(outputPath)) {
-					bw.write(outputPath + "\n");
+					newLines.add(outputPath);
 				}
 			}
 
 			for (int i = 0; i < seedsArr.length; i++) { // add user supplied seed paths
 				String outputPath = seedsArr[i].trim() + " = " + relationName + " : YES";
 				if (!knownRepr.contains(outputPath)) {
-					bw.write(outputPath + "\n");
+					newLines.add(outputPath);
 				}
 			}
 
 			for (IcePath path : rejectedPaths) { // add negative paths
 				String outputPath = path.getRepr() + " = " + relationName + " : NO";
 				if (!knownRepr.contains(outputPath)) {
-					bw.write(outputPath + "\n");
+					newLines.add(outputPath);
 				}
 			}
 
-			knownRepr.clear();
-			bw.close();
+			File file = oracleFile();
+			BufferedWriter bw = new BufferedWriter(new FileWriter(file, true)); // append
+			try {
+				for (String line : newLines) {
+					bw.write(line + "\n");
+				}
+			} finally {
+				bw.close();
+			}
+			for (String line : newLines) {
+				addLine(line);
+			}
+			loaded(file);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	// In case previous choices have been altered
-	public static void alterChoice() {
+	public static synchronized void alterChoice() {
 		try {
-			BufferedReader br = new BufferedReader(new FileReader(new File(jetHome + "/data/relationOracle")));
+			if (!refresh()) {
+				throw new FileNotFoundException(oracleFile().getPath());
+			}
+			if (!altered) { // every key appears once, as alterChoice would write it
+				return;
+			}
 
 			// use linked hash map to keep original order
 			LinkedHashMap<String, String> alteredRepr = new LinkedHashMap<String, String>();
 
-			String line;
-
-			while ((line = br.readLine()) != null) {
+			for (String line : lines) {
 				String repr = line.split(":")[0].trim();
 				String choice = line.split(":")[1].trim();
 
@@ -131,80 +154,58 @@ public class RelationOracle {
 				alteredRepr.put(repr, choice);
 			}
 
-			br.close();
-
-			BufferedWriter bw = new BufferedWriter(new FileWriter(new File(jetHome + "/data/relationOracle"))); // rewrite
+			File file = oracleFile();
+			BufferedWriter bw = new BufferedWriter(new FileWriter(file)); // rewrite
+			try {
+				for (String key : alteredRepr.keySet()) {
+					bw.write(key + " : " + alteredRepr.get(key) + "\n");
+				}
+			} finally {
+				bw.close();
+			}
 
+			clear();
 			for (String key : alteredRepr.keySet()) {
-				bw.write(key + " : " + alteredRepr.get(key) + "\n");
+				addLine(key + " : " + alteredRepr.get(key));
 			}
-
-			bw.close();
+			loaded(file);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	// don't include previously labeled negative patterns on the list
-	public static Set<String> getPreviousNegPatterns() {
-		Set<String> negPatterns = new HashSet<String>();
-
+	public static synchronized Set<String> getPreviousNegPatterns() {
 		try {
-			BufferedReader br = new BufferedReader(new FileReader(new File(jetHome + "/data/relationOracle")));
-			String line;
-
-			while ((line = br.readLine()) != null) {
-				String repr = line.split("=")[0].trim(); // ORGANIZATION secretary PERSON
-				String relation = line.split("=")[1].replace("-1", "").trim(); // ORG-AFF : YES
-				String relationName = relation.split(":")[0].trim(); // ORG-AFF
-				String choice = relation.split(":")[1].trim(); // YES
-
-				if (choice.equals("NO")) {
-					negPatterns.add(repr + " = " + relationName);
-				}
-			}
-
-			br.close();
+			refresh();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
-		return negPatterns;
+		return new HashSet<String>(previousNegPatterns);
 	}
 
 	// don't include previously labeled positive and negative patterns on the list
-	public static Set<String> getPreviousPatterns() {
-		Set<String> negPatterns = new HashSet<String>();
-
+	public static synchronized Set<String> getPreviousPatterns() {
 		try {
-			BufferedReader br = new BufferedReader(new FileReader(new File(jetHome + "/data/relationOracle")));
-			String line;
-
-			while ((line = br.readLine()) != null) {
-				String repr = line.split("=")[0].trim(); // ORGANIZATION secretary PERSON
-				String relation = line.split("=")[1].replace("-1", "").trim(); // ORG-AFF : YES
-				String relationName = relation.split(":")[0].trim(); // ORG-AFF
-
-				negPatterns.add(repr + " = " + relationName);
-			}
-
-			br.close();
+			refresh();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
-		return negPatterns;
+		return new HashSet<String>(previousPatterns);
 	}
 
 	// convert repr to LDP format
-	public static void addLDP(DepPathMap depPathMap) {
+	public static synchronized void addLDP(DepPathMap depPathMap) {
 		try {
-			BufferedReader br = new BufferedReader(new FileReader(new File(jetHome + "/data/relationOracle")));
+			if (!refresh()) {
+				throw new FileNotFoundException(oracleFile().getPath());
+			}
 			BufferedWriter bw = new BufferedWriter(new FileWriter(new File(jetHome + "/data/relationOracleLDP"))); // rewrite
 			BufferedWriter bwNeg = new BufferedWriter(new FileWriter(new File(jetHome + "/data/relationOracleLDP.neg"))); // rewrite
-			String inputLine;
 
-			while ((inputLine = br.readLine()) != null) {
+			for (String inputLine : lines) {
 				String repr = inputLine.split("=")[0].trim();
 				String relation = inputLine.split("=")[1].split(":")[0].trim();
 
@@ -224,11 +225,98 @@ public class RelationOracle {
 				}
 			}
 
-			br.close();
 			bw.close();
 			bwNeg.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Use file <CODE>fileName</CODE> as the relation oracle instead of <CODE>$jetHome/data/relationOracle</CODE>.
+	 */
+
+	public static synchronized void setOracleFileName(String fileName) {
+		oracleFileName = fileName;
+	}
+
+	private static File oracleFile() {
+		return new File(oracleFileName != null ? oracleFileName : jetHome + "/data/relationOracle");
+	}
+
+	/**
+	 * Brings the tables up to date with the oracle file, reading it only if it is not the file they were built from or
+	 * has been changed since. Returns false if there is no oracle file (the tables are then empty).
+	 */
+	private static boolean refresh() throws IOException {
+		File file = oracleFile();
+		if (!file.exists()) {
+			if (oracleFile != null) {
+				clear();
+				oracleFile = null;
+			}
+			return false;
+		}
+		if (file.equals(oracleFile) && file.length() == oracleLength && file.lastModified() == oracleModified) {
+			return true;
+		}
+		clear();
+		oracleFile = null;
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+
+			while ((line = br.readLine()) != null) {
+				addLine(line);
+			}
+		} finally {
+			br.close();
+		}
+		loaded(file);
+		return true;
+	}
+
+	// records the length and modification time of the file the tables now match
+	private static void loaded(File file) {
+		oracleFile = file;
+		oracleLength = file.length();
+		oracleModified = file.lastModified();
+	}
+
+	private static void clear() {
+		lines.clear();
+		knownRepr.clear();
+		knownReprRelation.clear();
+		previousPatterns.clear();
+		previousNegPatterns.clear();
+		choiceKeys.clear();
+		altered = false;
+	}
+
+	private static void addLine(String line) {
+		lines.add(line);
+		knownRepr.add(line);
+
+		String[] parts = line.split("=");
+		if (parts.length > 1) {
+			String repr = parts[0].trim(); // ORGANIZATION secretary PERSON
+			String relation = parts[1].replace("-1", "").trim(); // ORG-AFF : YES
+			String[] relationParts = relation.split(":");
+			String relationName = relationParts[0].trim(); // ORG-AFF
+			knownReprRelation.add(repr + " = " + relation);
+			previousPatterns.add(repr + " = " + relationName);
+			if (relationParts.length > 1 && relationParts[1].trim().equals("NO")) {
+				previousNegPatterns.add(repr + " = " + relationName);
+			}
+		}
+
+		String[] choiceParts = line.split(":");
+		if (choiceParts.length > 1) {
+			String key = choiceParts[0].trim();
+			String choice = choiceParts[1].trim();
+			if (!choiceKeys.add(key) || !line.equals(key + " : " + choice)) {
+				altered = true;
+			}
+		}
+	}
+}
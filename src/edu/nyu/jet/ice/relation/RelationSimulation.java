@@ -0,0 +1,349 @@
+package edu.nyu.jet.ice.relation;
+
+import edu.nyu.jet.ice.controllers.Nice;
+import edu.nyu.jet.ice.models.DepPathMap;
+import edu.nyu.jet.ice.models.IcePath;
+import edu.nyu.jet.ice.models.IcePath.IcePathChoice;
+import edu.nyu.jet.ice.uicomps.Ice;
+import edu.nyu.jet.ice.utils.FileNameSchema;
+import edu.nyu.jet.ice.utils.IceUtils;
+import org.apache.commons.cli.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * RelationSimulation runs simulated active learning of relations without a user interface, the labels of the
+ * relation oracle standing in for those of the user, to measure how fast and how well the ActiveLearner finds
+ * patterns. See documentation for the main() method for usage.
+ * <p>
+ * Each run bootstraps one relation from a seed. The candidates suggested by each iteration are labeled by the oracle
+ * (as in the Swing interface); those labeled YES are approved and those labeled NO rejected for the next iteration,
+ * and those the oracle has no label for are left undecided. A run stops after the given number of iterations, when
+ * nothing is suggested, or when no suggestion is labeled. Runs are independent and are done in parallel.
+ * <p>
+ * For each iteration the report gives the time taken, the number of candidate paths scored (and scored per second),
+ * the number of paths suggested, how many of them the oracle labels YES and NO, and the precision: the fraction of
+ * suggestions labeled YES. As the ActiveLearner does not suggest paths the oracle labels NO for the relation,
+ * suggestions the oracle has no label for count against the precision.
+ *
+ * @version 1.0
+ */
+public class RelationSimulation {
+
+    public static final int DEFAULT_ITERATIONS = 10;
+
+    /**
+     * A relation to be bootstrapped: its name, as in the oracle, and its seed, one or more English expressions
+     * separated by ':::'.
+     */
+    public static class Run {
+        private final String relationName;
+        private final String seed;
+
+        public Run(String relationName, String seed) {
+            this.relationName = relationName;
+            this.seed = seed;
+        }
+
+        public String getRelationName() {
+            return relationName;
+        }
+
+        public String getSeed() {
+            return seed;
+        }
+    }
+
+    /**
+     * The measurements of one iteration of a run.
+     */
+    public static class Iteration {
+        public static final String HEADER =
+                "relation\titeration\tmillis\tcandidates\tcandidates/sec\tsuggested\tyes\tno\tprecision";
+
+        private final Run run;
+        private final int iteration;
+        private final long nanos;
+        private final int candidates;
+        private final int suggested;
+        private final int yes;
+        private final int no;
+
+        Iteration(Run run, int iteration, long nanos, int candidates, int suggested, int yes, int no) {
+            this.run = run;
+            this.iteration = iteration;
+            this.nanos = nanos;
+            this.candidates = candidates;
+            this.suggested = suggested;
+            this.yes = yes;
+            this.no = no;
+        }
+
+        public Run getRun() {
+            return run;
+        }
+
+        public int getIteration() {
+            return iteration;
+        }
+
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+
+        public int getCandidates() {
+            return candidates;
+        }
+
+        public double getCandidatesPerSecond() {
+            return nanos == 0 ? 0 : candidates / (nanos / 1e9);
+        }
+
+        public int getSuggested() {
+            return suggested;
+        }
+
+        public int getYes() {
+            return yes;
+        }
+
+        public int getNo() {
+            return no;
+        }
+
+        public double getPrecision() {
+            return suggested == 0 ? 0 : (double) yes / suggested;
+        }
+
+        public String toString() {
+            return String.format("%s\t%d\t%.1f\t%d\t%.0f\t%d\t%d\t%d\t%.4f", run.getRelationName(), iteration,
+                    getMillis(), candidates, getCandidatesPerSecond(), suggested, yes, no, getPrecision());
+        }
+    }
+
+    private final String patternFileName;
+    private final int iterations;
+
+    /**
+     * Creates a simulation of up to <CODE>iterations</CODE> iterations per run, over the dependency path instances
+     * in file <CODE>patternFileName</CODE>.
+     */
+    public RelationSimulation(String patternFileName, int iterations) {
+        this.patternFileName = patternFileName;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Bootstraps the relation of <CODE>run</CODE>, returning the measurements of each iteration.
+     */
+    public List<Iteration> simulate(Run run) {
+        ActiveLearner learner = ActiveLearner.makeBootstrap("ActiveLearner", null, run.getRelationName());
+        learner.setInteractive(false);
+        List<Iteration> result = new ArrayList<Iteration>();
+        long start = System.nanoTime();
+        List<IcePath> found = learner.initialize(run.getSeed(), patternFileName);
+        long nanos = System.nanoTime() - start;
+        for (int i = 1; ; i++) {
+            List<IcePath> approvedPaths = new ArrayList<IcePath>();
+            List<IcePath> rejectedPaths = new ArrayList<IcePath>();
+            for (IcePath path : found) {
+                if (path.getChoice() == IcePathChoice.YES) {
+                    approvedPaths.add(path);
+                } else if (path.getChoice() == IcePathChoice.NO) {
+                    rejectedPaths.add(path);
+                }
+            }
+            result.add(new Iteration(run, i, nanos, learner.getCandidateCount(), found.size(),
+                    approvedPaths.size(), rejectedPaths.size()));
+            if (i >= iterations || found.isEmpty() || (approvedPaths.isEmpty() && rejectedPaths.isEmpty())) {
+                break;
+            }
+            start = System.nanoTime();
+            found = learner.iterate(approvedPaths, rejectedPaths);
+            nanos = System.nanoTime() - start;
+        }
+        return result;
+    }
+
+    /**
+     * Bootstraps the relations of <CODE>runs</CODE>, <CODE>numOfThreads</CODE> at a time, returning the
+     * measurements of each run in the order of <CODE>runs</CODE>. A run which fails has no measurements.
+     */
+    public List<List<Iteration>> simulate(List<Run> runs, int numOfThreads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(numOfThreads);
+        try {
+            List<Future<List<Iteration>>> tasks = new ArrayList<Future<List<Iteration>>>();
+            for (final Run run : runs) {
+                tasks.add(pool.submit(new Callable<List<Iteration>>() {
+                    public List<Iteration> call() {
+                        return simulate(run);
+                    }
+                }));
+            }
+            List<List<Iteration>> result = new ArrayList<List<Iteration>>();
+            for (Future<List<Iteration>> task : tasks) {
+                try {
+                    result.add(task.get());
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    result.add(new ArrayList<Iteration>());
+                }
+            }
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads runs from file <CODE>fileName</CODE>, one per line: the name of the relation, a tab, and the seed.
+     * Blank lines are ignored.
+     */
+    public static List<Run> readRuns(String fileName) throws IOException {
+        List<Run> runs = new ArrayList<Run>();
+        for (String line : IceUtils.readLines(fileName)) {
+            if (line.trim().isEmpty()) continue;
+            String[] parts = line.split("\t");
+            if (parts.length != 2) {
+                throw new IOException("Bad line in " + fileName + " (expected RELATION<tab>SEED): " + line);
+            }
+            runs.add(new Run(parts[0].trim(), parts[1].trim()));
+        }
+        return runs;
+    }
+
+    /**
+     * Runs simulations from the command line:
+     * <pre>
+     * RelationSimulation CORPUS RUNS [OPTIONS]
+     * </pre>
+     * where CORPUS is a corpus whose phrases have been found, and RUNS is a file of relations and seeds (see
+     * <CODE>readRuns</CODE>). The relation oracle is <CODE>$jetHome/data/relationOracle</CODE> unless another file
+     * is given with --oracle. The report, a table with one line per iteration, is written to standard output unless
+     * a file is given with --report.
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+        Option iterationsOpt = OptionBuilder.withLongOpt("iterations").hasArg().withArgName("numOfIterations")
+                .withDescription("Max num of bootstrapping iterations per relation (default " +
+                        DEFAULT_ITERATIONS + ")").create("n");
+        Option threadsOpt = OptionBuilder.withLongOpt("threads").hasArg().withArgName("numOfThreads")
+                .withDescription("Num of relations bootstrapped in parallel (default: num of processors)")
+                .create("t");
+        Option oracleOpt = OptionBuilder.withLongOpt("oracle").hasArg().withArgName("oracleFileName")
+                .withDescription("Relation oracle file (default: $jetHome/data/relationOracle)").create("o");
+        Option reportOpt = OptionBuilder.withLongOpt("report").hasArg().withArgName("reportFileName")
+                .withDescription("File for the report (default: standard output)").create("r");
+        Option branchOpt = OptionBuilder.withLongOpt("branch").hasArg().withArgName("branch")
+                .withDescription("Yaml file for restoring status").create("y");
+        options.addOption(iterationsOpt);
+        options.addOption(threadsOpt);
+        options.addOption(oracleOpt);
+        options.addOption(reportOpt);
+        options.addOption(branchOpt);
+
+        CommandLineParser parser = new GnuParser();
+        try {
+            CommandLine cmd = parser.parse(options, args);
+            String[] arguments = cmd.getArgs();
+            if (arguments.length != 2) {
+                System.err.println("Must provide exactly 2 arguments: CORPUS RUNS");
+                printHelp(options);
+                System.exit(-1);
+            }
+            String corpusName = arguments[0];
+            String runsFileName = arguments[1];
+            int iterations = getPositiveInt(cmd, options, "iterations", DEFAULT_ITERATIONS);
+            int numOfThreads = getPositiveInt(cmd, options, "threads", Runtime.getRuntime().availableProcessors());
+            String branch = cmd.getOptionValue("branch");
+            if (branch == null) branch = "ice";
+
+            Properties iceProperties = Nice.loadIceProperties();
+            Nice.initIce(branch);
+            if (!Ice.corpora.containsKey(corpusName)) {
+                System.err.println("Cannot find corpus " + corpusName + ".");
+                System.exit(-1);
+            }
+            Ice.selectCorpus(corpusName);
+            Nice.loadPathMatcher(iceProperties);
+            if (!DepPathMap.getInstance().load()) {
+                System.err.println("Cannot load phrases of corpus " + corpusName + ". Please run findPhrases first.");
+                System.exit(-1);
+            }
+            if (cmd.getOptionValue("oracle") != null) {
+                RelationOracle.setOracleFileName(cmd.getOptionValue("oracle"));
+            }
+            if (!RelationOracle.existsRepr()) {
+                System.err.println("Cannot find relation oracle file.");
+                System.exit(-1);
+            }
+            List<Run> runs = readRuns(runsFileName);
+
+            ActiveLearner.DEBUG = false;
+            RelationSimulation simulation =
+                    new RelationSimulation(FileNameSchema.getRelationsFileName(corpusName), iterations);
+            long start = System.nanoTime();
+            List<List<Iteration>> results = simulation.simulate(runs, numOfThreads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            PrintStream report = cmd.getOptionValue("report") != null ?
+                    new PrintStream(new FileOutputStream(cmd.getOptionValue("report"))) : System.out;
+            report.println(Iteration.HEADER);
+            for (List<Iteration> result : results) {
+                for (Iteration iteration : result) {
+                    report.println(iteration);
+                }
+            }
+            report.println(String.format("# %d runs on %d threads in %.1f seconds",
+                    runs.size(), numOfThreads, seconds));
+            report.flush();
+            if (report != System.out) {
+                report.close();
+            }
+        }
+        catch (ParseException e) {
+            System.err.println(e.getMessage());
+            printHelp(options);
+            System.exit(-1);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    private static int getPositiveInt(CommandLine cmd, Options options, String optionName, int defaultValue) {
+        int value = defaultValue;
+        String valueStr = cmd.getOptionValue(optionName);
+        if (valueStr != null) {
+            try {
+                value = Integer.valueOf(valueStr);
+                if (value < 1) {
+                    throw new Exception();
+                }
+            }
+            catch (Exception e) {
+                System.err.println("--" + optionName + " only accepts an integer (>=1) as parameter");
+                printHelp(options);
+                System.exit(-1);
+            }
+        }
+        return value;
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("RelationSimulation CORPUS RUNS [OPTIONS]\n" +
+                "RUNS=file with one RELATION<tab>SEED per line", options);
+    }
+}
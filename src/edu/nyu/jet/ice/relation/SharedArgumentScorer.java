@@ -0,0 +1,108 @@
+package edu.nyu.jet.ice.relation;
+
+import edu.nyu.jet.ice.models.AnchoredPathIndex;
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts, for the paths of an AnchoredPathIndex, the argument pairs they share with the instances of a growing set of
+ * seed paths, for scoring bootstrapping candidates by shared arguments.
+ * <p>
+ * The counts are kept from one iteration of bootstrapping to the next:  when seeds are added, only the argument pairs
+ * of the new seeds which no earlier seed had are looked up, and the counts of the paths with these pairs are
+ * incremented. Argument pairs are compared by their "arg1:arg2" form (their key in the index), as by
+ * <CODE>BootstrapAnchoredPath.argPair()</CODE>.
+ *
+ * @version 1.0
+ */
+public class SharedArgumentScorer {
+
+    private final AnchoredPathIndex index;
+
+    // the seeds counted so far
+    private final Set<String> seeds = new HashSet<String>();
+    // the keys of the argument pairs of their instances
+    private final BitSet seedKeys = new BitSet();
+    private int seedInstanceCount = 0;
+    // path id -> number of seed keys among the keys of the path
+    private final TIntIntHashMap sharedCounts = new TIntIntHashMap();
+
+    public SharedArgumentScorer(AnchoredPathIndex index) {
+        this.index = index;
+    }
+
+    public AnchoredPathIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Brings the counts up to date with <CODE>seedPaths</CODE>. If a seed counted before is no longer in
+     * <CODE>seedPaths</CODE>, the counts are recomputed from scratch.
+     */
+    public void update(Set<String> seedPaths) {
+        if (!seedPaths.containsAll(seeds)) {
+            seeds.clear();
+            seedKeys.clear();
+            seedInstanceCount = 0;
+            sharedCounts.clear();
+        }
+        for (String seed : seedPaths) {
+            if (seeds.add(seed)) {
+                addSeed(seed);
+            }
+        }
+    }
+
+    private void addSeed(String seed) {
+        int p = index.findPath(seed);
+        if (p < 0) {
+            return;
+        }
+        int[] pairs = index.pairsOfPath(p);
+        seedInstanceCount += pairs.length;
+        for (int pair : pairs) {
+            int key = index.keyOfPair(pair);
+            if (seedKeys.get(key)) continue;
+            seedKeys.set(key);
+            for (int path : index.pathsOfKey(key)) {
+                sharedCounts.adjustOrPutValue(path, 1, 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of instances of the seeds.
+     */
+    public int getSeedInstanceCount() {
+        return seedInstanceCount;
+    }
+
+    /**
+     * Returns the paths which share argument pairs with the instances of the seeds, other than the seeds and
+     * <CODE>rejects</CODE>, with the number of argument pairs each shares.
+     */
+    public Map<String, Integer> sharedCounts(Set<String> rejects) {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (TIntIntIterator it = sharedCounts.iterator(); it.hasNext(); ) {
+            it.advance();
+            String path = index.path(it.key());
+            if (seeds.contains(path) || rejects.contains(path)) continue;
+            result.put(path, it.value());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of distinct argument pairs of path <CODE>path</CODE>, or 0 if it has no instances.
+     */
+    public int totalCount(String path) {
+        int p = index.findPath(path);
+        return p < 0 ? 0 : index.keyCountOfPath(p);
+    }
+}
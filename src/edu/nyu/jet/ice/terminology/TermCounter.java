@@ -3,6 +3,7 @@ package edu.nyu.jet.ice.terminology;
 import edu.nyu.jet.aceJet.Ace;
 import edu.nyu.jet.aceJet.EDTtype;
 import edu.nyu.jet.Control;
+import edu.nyu.jet.ice.models.CorpusUpdate;
 import edu.nyu.jet.ice.models.IcePreprocessor;
 import edu.nyu.jet.ice.uicomps.Ice;
 import edu.nyu.jet.ice.utils.AnnotationStartComparator;
@@ -49,6 +50,16 @@ public class TermCounter extends Thread {
 
     private RunnerProperties runnerProperties = null;
 
+    /**
+     * If set, the term counts of each document are also saved next to its
+     * annotation cache, for use in incremental corpus updates (see CorpusUpdate).
+     */
+    public void setSaveDocumentCounts(boolean saveDocumentCounts) {
+        this.saveDocumentCounts = saveDocumentCounts;
+    }
+
+    private boolean saveDocumentCounts = false;
+
     public TermCounter(ProgressMonitorI monitor) {
         this.progressMonitor = monitor;
     }
@@ -111,8 +122,14 @@ public class TermCounter extends Thread {
                 doc.open();
                 // process document
                 Ace.monocase = Ace.allLowerCase(doc);
-                Control.processDocument(doc, null, false, docCount);
-                addDocument(doc, FileNameSchema.getPreprocessCacheDir(Ice.selectedCorpusName), inputDir, inputFile);
+                String cacheDir = FileNameSchema.getPreprocessCacheDir(Ice.selectedCorpusName);
+                IcePreprocessor.fetchAnnotations(cacheDir, inputDir, inputFile);
+                IcePreprocessor.processDocument(doc, docCount);
+                Map<String, Integer> documentCounts = addDocument(doc);
+                if (saveDocumentCounts) {
+                    CorpusUpdate.saveCounts(IcePreprocessor.cacheFileName(cacheDir, inputDir, inputFile)
+                            + CorpusUpdate.TERM_COUNTS_SUFFIX, documentCounts);
+                }
                 if (progressMonitor != null) {
                     progressMonitor.setProgress(docCount);
                     progressMonitor.setNote(docCount + " files processed");
@@ -163,13 +180,31 @@ public class TermCounter extends Thread {
      * @param inputFile
      */
     public void addDocument(Document doc, String cacheDir, String inputDir, String inputFile) {
+        try {
+            IcePreprocessor.fetchAnnotations (cacheDir, inputDir, inputFile);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        addDocument(doc);
+    }
+
+    /**
+     * Update aggregate term count information with information on
+     * document <CODE>doc</CODE>, whose annotation cache has already been
+     * fetched by IcePreprocessor.fetchAnnotations.
+     *
+     * @return the count of each term in the document
+     */
+
+    public Map<String, Integer> addDocument(Document doc) {
 
         Map<String, Integer> localCount = new HashMap<String, Integer>();
 
 	// start with counts of terms
 
             try {
-                IcePreprocessor.fetchAnnotations (cacheDir, inputDir, inputFile);
                 Map<String, Integer> loadedCount = IcePreprocessor.loadTerms(doc);
                 for (String k : loadedCount.keySet()) {
                     localCount.put(k + "/nn", loadedCount.get(k));
@@ -208,6 +243,7 @@ public class TermCounter extends Thread {
             }
             rawCount.get(localTerm).add(localCount.get(localTerm));
         }
+        return localCount;
     }
 
     /**
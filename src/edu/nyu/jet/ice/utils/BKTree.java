@@ -0,0 +1,188 @@
+package edu.nyu.jet.ice.utils;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * A BK-tree (Burkhard and Keller, 1973) over strings, for finding the string closest to a query by edit distance
+ * without computing the distance to every string.
+ * <p>
+ * Each node holds a string, and its children are the subtrees of strings at each distance from it. As edit distance
+ * is a metric, a string in the subtree at distance <CODE>e</CODE> from a node at distance <CODE>d</CODE> from the
+ * query is at least <CODE>|d - e|</CODE> from the query, so subtrees which cannot hold a string closer than the best
+ * found are not searched.
+ * <p>
+ * Strings are added by one thread; once built, the tree may be searched by several threads at once.
+ *
+ * @version 1.0
+ */
+public class BKTree {
+
+    private static class Node {
+        final String s;
+        final int id;
+        int[] distances = new int[0];
+        Node[] children = new Node[0];
+
+        Node(String s, int id) {
+            this.s = s;
+            this.id = id;
+        }
+
+        Node child(int distance) {
+            for (int i = 0; i < distances.length; i++) {
+                if (distances[i] == distance) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            distances = Arrays.copyOf(distances, distances.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            distances[distances.length - 1] = distance;
+            children[children.length - 1] = child;
+        }
+
+        int maxDistance() {
+            int max = 0;
+            for (int d : distances) {
+                max = Math.max(max, d);
+            }
+            return max;
+        }
+    }
+
+    private Node root = null;
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds string <CODE>s</CODE> to the tree.  Strings are numbered from 0 in the order they are added, and of strings
+     * equally close to a query, <CODE>nearest</CODE> returns the one added first.
+     */
+    public void add(String s) {
+        Node node = new Node(s, size++);
+        if (root == null) {
+            root = node;
+            return;
+        }
+        Node current = root;
+        while (true) {
+            int d = editDistance(s, current.s);
+            Node child = current.child(d);
+            if (child == null) {
+                current.addChild(d, node);
+                return;
+            }
+            current = child;
+        }
+    }
+
+    /**
+     * Returns the string of the tree closest to <CODE>query</CODE> by edit distance, or <CODE>null</CODE> if the tree
+     * is empty.
+     */
+    public String nearest(String query) {
+        if (root == null) {
+            return null;
+        }
+        Node best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        // subtrees to search, by the least distance of their strings from the query, closest first
+        PriorityQueue<Bound> todo = new PriorityQueue<Bound>();
+        todo.add(new Bound(root, 0));
+        while (!todo.isEmpty()) {
+            Bound bound = todo.poll();
+            if (bound.distance > bestDistance) {
+                break;
+            }
+            Node node = bound.node;
+            // beyond this, neither the node nor any of its children can be taken
+            long cutoff = (long) bestDistance + node.maxDistance();
+            int d = editDistance(query, node.s, (int) Math.min(Integer.MAX_VALUE, cutoff));
+            if (d > cutoff) continue;
+            if (d < bestDistance || (d == bestDistance && node.id < best.id)) {
+                best = node;
+                bestDistance = d;
+            }
+            for (int i = 0; i < node.distances.length; i++) {
+                int childBound = Math.max(bound.distance, Math.abs(d - node.distances[i]));
+                if (childBound <= bestDistance) {
+                    todo.add(new Bound(node.children[i], childBound));
+                }
+            }
+        }
+        return best.s;
+    }
+
+    private static class Bound implements Comparable<Bound> {
+        final Node node;
+        final int distance;
+
+        Bound(Node node, int distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+
+        public int compareTo(Bound other) {
+            return distance < other.distance ? -1 : (distance == other.distance ? 0 : 1);
+        }
+    }
+
+    /**
+     * Returns the edit distance (Levenshtein distance) between <CODE>s1</CODE> and <CODE>s2</CODE>.
+     */
+    public static int editDistance(String s1, String s2) {
+        return editDistance(s1, s2, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the edit distance between <CODE>s1</CODE> and <CODE>s2</CODE> if it is at most <CODE>cutoff</CODE>,
+     * and otherwise some number greater than <CODE>cutoff</CODE>.  The computation stops as soon as every cell of a
+     * row of the table exceeds the cutoff.
+     */
+    public static int editDistance(String s1, String s2, int cutoff) {
+        int len1 = s1.length();
+        int len2 = s2.length();
+        if (Math.abs(len1 - len2) > cutoff) {
+            return Math.abs(len1 - len2);
+        }
+        // previous holds row i of the table, current row i + 1
+        int[] previous = new int[len2 + 1];
+        int[] current = new int[len2 + 1];
+        for (int j = 0; j <= len2; j++) {
+            previous[j] = j;
+        }
+        for (int i = 0; i < len1; i++) {
+            char c1 = s1.charAt(i);
+            current[0] = i + 1;
+            int rowMin = current[0];
+            for (int j = 0; j < len2; j++) {
+                if (c1 == s2.charAt(j)) {
+                    current[j + 1] = previous[j];
+                } else {
+                    int replace = previous[j] + 1;
+                    int insert = previous[j + 1] + 1;
+                    int delete = current[j] + 1;
+                    int min = replace > insert ? insert : replace;
+                    current[j + 1] = delete > min ? min : delete;
+                }
+                if (current[j + 1] < rowMin) {
+                    rowMin = current[j + 1];
+                }
+            }
+            if (rowMin > cutoff) {
+                return rowMin;
+            }
+            int[] row = previous;
+            previous = current;
+            current = row;
+        }
+        return previous[len2];
+    }
+}
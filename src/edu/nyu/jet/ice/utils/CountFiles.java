@@ -0,0 +1,332 @@
+package edu.nyu.jet.ice.utils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Streaming operations on the count files of a corpus (word counts, relation
+ * instance and type counts, relation reprs), for corpora too large to hold
+ * their counts in memory.
+ * <p>
+ * A <i>sorted run</i> is a count file whose lines are sorted by key
+ * (String order).  Count files are brought into this form by an external
+ * merge sort, which holds at most <CODE>MAX_LINES_IN_MEMORY</CODE> lines at a
+ * time, and any number of sorted runs are combined by a k-way merge, which
+ * holds one line per run.
+ *
+ * @version 1.0
+ */
+public class CountFiles {
+
+    public static int MAX_LINES_IN_MEMORY = 500000;
+
+    /**
+     * The layout of the lines of a count file: how to find the key of a line,
+     * and how to combine two lines with the same key.
+     */
+    public static abstract class Format {
+
+        /**
+         * number of header lines at the start of the file, which are not sorted or merged
+         */
+        int headerLines;
+
+        Format(int headerLines) {
+            this.headerLines = headerLines;
+        }
+
+        public abstract String key(String line);
+
+        public abstract String combine(String line1, String line2);
+
+        /**
+         * orders lines by key
+         */
+        public Comparator<String> comparator() {
+            return new Comparator<String>() {
+                public int compare(String line1, String line2) {
+                    return key(line1).compareTo(key(line2));
+                }
+            };
+        }
+    }
+
+    /**
+     * "count TAB key", as in Relations and Relationtypes files;  counts are added.
+     */
+    public static final Format COUNT_KEY = new Format(0) {
+        public String key(String line) {
+            int tab = line.indexOf('\t');
+            return tab < 0 ? line : line.substring(tab + 1);
+        }
+
+        public String combine(String line1, String line2) {
+            return (count(line1) + count(line2)) + "\t" + key(line1);
+        }
+    };
+
+    /**
+     * the count of a "count TAB key" line
+     *
+     * @throws NumberFormatException if the line does not start with a count
+     */
+    static int count(String line) {
+        int tab = line.indexOf('\t');
+        return Integer.parseInt((tab < 0 ? line : line.substring(0, tab)).trim());
+    }
+
+    /**
+     * "term TAB count1 TAB count2 ...", as in word count files written by
+     * TermCounter (after a three-line header);  the per-document counts are
+     * concatenated.
+     */
+    public static final Format WORD_COUNTS = new Format(3) {
+        public String key(String line) {
+            int tab = line.indexOf('\t');
+            return tab < 0 ? line : line.substring(0, tab);
+        }
+
+        public String combine(String line1, String line2) {
+            int tab = line2.indexOf('\t');
+            return tab < 0 ? line1 : line1 + line2.substring(tab);
+        }
+    };
+
+    /**
+     * "path:::linearization:::example", as in RelationRepr files;  if there is
+     * a choice, the line with the shorter sample sentence is kept.
+     */
+    public static final Format REPR = new Format(0) {
+        public String key(String line) {
+            int sep = line.indexOf(":::");
+            return sep < 0 ? line : line.substring(0, sep);
+        }
+
+        public String combine(String line1, String line2) {
+            return line2.length() < line1.length() ? line2 : line1;
+        }
+    };
+
+    /**
+     * orders lines by decreasing value of the number at the start of the line,
+     * as IceUtils.numsort does
+     */
+    public static final Comparator<String> BY_DECREASING_COUNT = new Comparator<String>() {
+        public int compare(String line1, String line2) {
+            return Double.compare(leadingNumber(line2), leadingNumber(line1));
+        }
+    };
+
+    private static double leadingNumber(String line) {
+        return Double.valueOf(line.trim().split("\\s")[0]);
+    }
+
+    /**
+     * Sorts the lines of <CODE>inFileName</CODE> (after the header lines of
+     * <CODE>format</CODE>) by key into the sorted run <CODE>outFileName</CODE>,
+     * combining lines with the same key.
+     */
+    public static void sortByKey(String inFileName, String outFileName, Format format) throws IOException {
+        List<String> runs = sortRuns(inFileName, format.headerLines, format.comparator(), null);
+        try {
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outFileName)));
+            merge(runs, writer, format);
+            writer.close();
+        } finally {
+            deleteAll(runs);
+        }
+    }
+
+    /**
+     * Sorts the lines of <CODE>inFileName</CODE> by decreasing count into
+     * <CODE>outFileName</CODE>.  Gives the same result as IceUtils.numsort
+     * (lines with equal counts keep their order, and lines which do not start
+     * with a number are dropped), but does not hold the whole file in memory.
+     */
+    public static void numsort(String inFileName, String outFileName) throws IOException {
+        List<String> runs = sortRuns(inFileName, 0, BY_DECREASING_COUNT, BY_DECREASING_COUNT);
+        try {
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outFileName)));
+            merge(runs, writer, BY_DECREASING_COUNT, null);
+            writer.close();
+        } finally {
+            deleteAll(runs);
+        }
+    }
+
+    /**
+     * Combines count files <CODE>inFileNames</CODE>, which need not be sorted,
+     * into the sorted run <CODE>outFileName</CODE>, adding up (according to
+     * <CODE>format</CODE>) the lines with the same key.  Header lines are not
+     * copied;  use <CODE>merge(List, PrintWriter, Format)</CODE> to write a header first.
+     */
+    public static void sortAndMerge(List<String> inFileNames, String outFileName, Format format) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outFileName)));
+        sortAndMerge(inFileNames, writer, format);
+        writer.close();
+    }
+
+    public static void sortAndMerge(List<String> inFileNames, PrintWriter writer, Format format) throws IOException {
+        List<String> runs = new ArrayList<String>();
+        try {
+            for (String inFileName : inFileNames) {
+                runs.addAll(sortRuns(inFileName, format.headerLines, format.comparator(), null));
+            }
+            merge(runs, writer, format);
+        } finally {
+            deleteAll(runs);
+        }
+    }
+
+    /**
+     * k-way merge of sorted runs <CODE>runFileNames</CODE> into <CODE>writer</CODE>,
+     * combining lines with the same key.
+     */
+    public static void merge(List<String> runFileNames, PrintWriter writer, Format format) throws IOException {
+        merge(runFileNames, writer, format.comparator(), format);
+    }
+
+    /**
+     * Writes the lines of the runs in the order of <CODE>comparator</CODE>;
+     * lines which compare equal are taken from earlier runs first.  If
+     * <CODE>format</CODE> is not null, consecutive lines which compare equal
+     * are combined into one.
+     */
+    private static void merge(List<String> runFileNames, PrintWriter writer,
+                              final Comparator<String> comparator, Format format) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, runFileNames.size()), new Comparator<Run>() {
+            public int compare(Run run1, Run run2) {
+                int c = comparator.compare(run1.line, run2.line);
+                return c != 0 ? c : run1.index - run2.index;
+            }
+        });
+        List<Run> runs = new ArrayList<Run>();
+        try {
+            for (int i = 0; i < runFileNames.size(); i++) {
+                Run run = new Run(runFileNames.get(i), i);
+                runs.add(run);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            String pending = null;
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                String line = run.line;
+                if (run.advance()) {
+                    queue.add(run);
+                }
+                if (format == null) {
+                    writer.println(line);
+                } else if (pending == null) {
+                    pending = line;
+                } else if (comparator.compare(pending, line) == 0) {
+                    pending = format.combine(pending, line);
+                } else {
+                    writer.println(pending);
+                    pending = line;
+                }
+            }
+            if (pending != null) {
+                writer.println(pending);
+            }
+        } finally {
+            for (Run run : runs) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * Splits <CODE>inFileName</CODE> into sorted runs of at most
+     * <CODE>MAX_LINES_IN_MEMORY</CODE> lines each.  Lines are checked with
+     * <CODE>validator</CODE> (if not null) and dropped if it throws an exception.
+     *
+     * @return the names of the run files, in order
+     */
+    private static List<String> sortRuns(String inFileName, int headerLines, Comparator<String> comparator,
+                                         Comparator<String> validator) throws IOException {
+        List<String> runs = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(inFileName));
+        try {
+            for (int i = 0; i < headerLines; i++) {
+                reader.readLine();
+            }
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) continue;
+                if (validator != null) {
+                    try {
+                        validator.compare(line, line);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        continue;
+                    }
+                }
+                lines.add(line);
+                if (lines.size() >= MAX_LINES_IN_MEMORY) {
+                    runs.add(writeRun(lines, comparator, inFileName));
+                    lines.clear();
+                }
+            }
+            if (!lines.isEmpty() || runs.isEmpty()) {
+                runs.add(writeRun(lines, comparator, inFileName));
+            }
+        } catch (IOException e) {
+            deleteAll(runs);
+            throw e;
+        } finally {
+            reader.close();
+        }
+        return runs;
+    }
+
+    private static String writeRun(List<String> lines, Comparator<String> comparator,
+                                   String inFileName) throws IOException {
+        // stable, so lines with equal keys keep their order
+        Collections.sort(lines, comparator);
+        File runFile = File.createTempFile("run", ".counts", new File(inFileName).getAbsoluteFile().getParentFile());
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(runFile)));
+        for (String line : lines) {
+            writer.println(line);
+        }
+        writer.close();
+        return runFile.getPath();
+    }
+
+    private static void deleteAll(List<String> fileNames) {
+        for (String fileName : fileNames) {
+            new File(fileName).delete();
+        }
+    }
+
+    /**
+     * one input of a k-way merge
+     */
+    static class Run {
+        BufferedReader reader;
+        int index;
+        String line;
+
+        Run(String fileName, int index) throws IOException {
+            this.reader = new BufferedReader(new FileReader(fileName));
+            this.index = index;
+        }
+
+        boolean advance() throws IOException {
+            do {
+                line = reader.readLine();
+            } while (line != null && line.length() == 0);
+            return line != null;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
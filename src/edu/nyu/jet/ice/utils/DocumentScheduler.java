@@ -0,0 +1,322 @@
+package edu.nyu.jet.ice.utils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the documents of a corpus to a set of workers.  Documents are
+ * kept on a single shared queue and each worker takes the next one as
+ * soon as it is done with the previous one, so a worker which gets a few
+ * long documents does not hold up the others.  A document whose processing
+ * fails is put back on the queue and retried (possibly by another worker)
+ * up to <CODE>maxAttempts</CODE> times.
+ * <p>
+ * Workers may run in this JVM or be long-lived worker processes
+ * (see ProcessWorker), which load their models once and then process
+ * documents as they are sent.  When all documents are done, the number of
+ * documents and the throughput of each worker are reported.
+ *
+ * @version 1.0
+ */
+public class DocumentScheduler {
+
+    /**
+     * A worker processes one document at a time.
+     */
+    public static abstract class Worker {
+
+        String name;
+        int processed = 0;
+        int failed = 0;
+        long busyTime = 0;
+
+        public Worker(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Processes document <CODE>docName</CODE>, which is document number
+         * <CODE>docNumber</CODE> (starting at 1) of the corpus.
+         *
+         * @return true if the document was processed successfully
+         * @throws IOException if the worker can no longer process documents
+         */
+        public abstract boolean process(String docName, int docNumber) throws IOException;
+
+        /**
+         * Releases the worker once all documents are done.
+         */
+        public void close() {
+        }
+    }
+
+    /**
+     * Listener informed each time a document has been processed.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param docCount number of documents done so far
+         * @return true if processing should be canceled
+         */
+        boolean documentDone(int docCount);
+    }
+
+    static class Task {
+        String docName;
+        int docNumber;
+        int attempts = 0;
+
+        Task(String docName, int docNumber) {
+            this.docName = docName;
+            this.docNumber = docNumber;
+        }
+    }
+
+    List<Worker> workers = new ArrayList<Worker>();
+    int maxAttempts = 2;
+    ProgressListener progressListener = null;
+
+    LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<Task>();
+    // documents which are queued or being processed
+    AtomicInteger outstanding = new AtomicInteger(0);
+    AtomicInteger completed = new AtomicInteger(0);
+    AtomicBoolean canceled = new AtomicBoolean(false);
+    List<String> failedDocuments = new ArrayList<String>();
+
+    public void addWorker(Worker worker) {
+        workers.add(worker);
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Returns the names of the documents which could not be processed in
+     * <CODE>maxAttempts</CODE> attempts, or which were left when all
+     * workers had stopped.
+     */
+    public synchronized List<String> getFailedDocuments() {
+        return new ArrayList<String>(failedDocuments);
+    }
+
+    /**
+     * Processes <CODE>docNames</CODE> with the workers added so far, and waits
+     * until all documents are done.
+     *
+     * @return true if processing was canceled by the progress listener
+     */
+    public boolean run(List<String> docNames) {
+        int docNumber = 0;
+        for (String docName : docNames) {
+            docNumber++;
+            queue.add(new Task(docName, docNumber));
+        }
+        outstanding.set(docNames.size());
+        long start = System.currentTimeMillis();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final Worker worker : workers) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    work(worker);
+                }
+            }, worker.getName());
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            canceled.set(true);
+            Thread.currentThread().interrupt();
+        }
+        for (Worker worker : workers) {
+            worker.close();
+        }
+        Task task;
+        while (!canceled.get() && (task = queue.poll()) != null) {
+            reportFailure(task);
+        }
+        report(System.currentTimeMillis() - start);
+        return canceled.get();
+    }
+
+    private void work(Worker worker) {
+        while (!canceled.get() && outstanding.get() > 0) {
+            Task task;
+            try {
+                // a failed document may still be put back by another worker
+                task = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) continue;
+            task.attempts++;
+            long start = System.nanoTime();
+            boolean success;
+            boolean workerFailed = false;
+            try {
+                success = worker.process(task.docName, task.docNumber);
+            } catch (Exception e) {
+                System.err.println("Worker " + worker.getName() + " stopped: " + e);
+                success = false;
+                workerFailed = true;
+            }
+            worker.busyTime += System.nanoTime() - start;
+            if (success) {
+                worker.processed++;
+                done();
+            } else {
+                worker.failed++;
+                if (task.attempts < maxAttempts) {
+                    System.err.println("Retrying document " + task.docName);
+                    queue.add(task);
+                } else {
+                    reportFailure(task);
+                    done();
+                }
+            }
+            if (workerFailed) return;
+        }
+    }
+
+    private void done() {
+        outstanding.decrementAndGet();
+        int docCount = completed.incrementAndGet();
+        if (progressListener != null && progressListener.documentDone(docCount)) {
+            canceled.set(true);
+        }
+    }
+
+    private synchronized void reportFailure(Task task) {
+        System.err.println("Unable to process document " + task.docName);
+        failedDocuments.add(task.docName);
+    }
+
+    private void report(long elapsedTime) {
+        int processed = 0;
+        for (Worker worker : workers) {
+            processed += worker.processed;
+        }
+        System.err.println(String.format("Processed %d documents with %d workers in %.1f s.",
+                processed, workers.size(), elapsedTime / 1000.0));
+        for (Worker worker : workers) {
+            double busySeconds = worker.busyTime / 1e9;
+            System.err.println(String.format("  %s: %d documents, %d failures, %.2f documents/s",
+                    worker.getName(), worker.processed, worker.failed,
+                    busySeconds > 0 ? worker.processed / busySeconds : 0.0));
+        }
+        if (!failedDocuments.isEmpty()) {
+            System.err.println(failedDocuments.size() + " documents could not be processed.");
+        }
+    }
+
+    /**
+     * A worker which runs as a separate, long-lived process.  The process
+     * reads document names from its standard input, one per line, and
+     * answers each with a line "OK docName" or "FAILED docName" on its
+     * standard output.  It writes "READY" once it is ready for the first
+     * document.  Other lines on its output are ignored;  its error output
+     * is passed through.  The process is started with the program and
+     * arguments <CODE>command</CODE>, which are not split or otherwise
+     * interpreted by a shell.
+     */
+    public static class ProcessWorker extends Worker {
+
+        public static final String READY = "READY";
+        public static final String OK = "OK";
+        public static final String FAILED = "FAILED";
+
+        List<String> command;
+        Process process = null;
+        BufferedReader reader;
+        PrintWriter writer;
+
+        public ProcessWorker(String name, List<String> command) {
+            super(name);
+            this.command = command;
+        }
+
+        public boolean process(String docName, int docNumber) throws IOException {
+            if (process == null) {
+                start();
+            }
+            writer.println(docName);
+            writer.flush();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals(OK + " " + docName)) return true;
+                if (line.equals(FAILED + " " + docName)) return false;
+            }
+            throw new IOException("worker process exited");
+        }
+
+        private void start() throws IOException {
+            System.err.println("Submit: " + command);
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+            reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+            writer = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals(READY)) return;
+            }
+            throw new IOException("worker process exited before it was ready");
+        }
+
+        public void close() {
+            if (process == null) return;
+            writer.close();
+            try {
+                int returnVal = process.waitFor();
+                if (returnVal != 0) {
+                    System.err.println(command + String.format(" (return code %d)", returnVal));
+                }
+            } catch (InterruptedException e) {
+                process.destroy();
+            }
+        }
+
+        /**
+         * Serves documents in a worker process:  reads document names from
+         * <CODE>in</CODE> and reports on <CODE>out</CODE> the result of
+         * <CODE>worker</CODE> on each, until <CODE>in</CODE> is closed.
+         */
+        public static void serve(Worker worker, InputStream in, PrintStream out) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            out.println(READY);
+            out.flush();
+            String docName;
+            int docCount = 0;
+            while ((docName = reader.readLine()) != null) {
+                docCount++;
+                boolean success;
+                try {
+                    success = worker.process(docName, docCount);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    success = false;
+                }
+                out.println((success ? OK : FAILED) + " " + docName);
+                out.flush();
+            }
+        }
+    }
+}
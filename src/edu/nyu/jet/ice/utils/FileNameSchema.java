@@ -81,6 +81,10 @@ public class FileNameSchema {
         return getPatternRatioFileName(corpusName, bgCorpusName) + ".sorted";
     }
 
+    public static String getDocumentHashesFileName(String corpusName) {
+        return CACHE_ROOT + File.separator + corpusName + File.separator + "docHashes";
+    }
+
     public static String getPreprocessCacheMapFileName(String corpusName) {
         return CACHE_ROOT + File.separator + corpusName + File.separator + "preprocessCacheMap";
     }
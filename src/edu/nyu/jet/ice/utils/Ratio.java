@@ -1,6 +1,5 @@
 package edu.nyu.jet.ice.utils;
 
-import java.util.*;
 import java.io.*;
 
 /**
@@ -13,41 +12,95 @@ import java.io.*;
 
 public class Ratio {
 
-	static Map<String, Integer> count1 = new TreeMap<String, Integer>();
-	static Map<String, Integer> count2 = new TreeMap<String, Integer>();
-	
+	/**
+	 *  "count TAB key" lines, read as Ratio has always read its count files:
+	 *  of several lines with the same key, the last one with a valid count is kept.
+	 */
+
+	static final CountFiles.Format LAST_COUNT = new CountFiles.Format(0) {
+		public String key(String line) {
+			return CountFiles.COUNT_KEY.key(line);
+		}
+
+		public String combine(String line1, String line2) {
+			return isCount(line2) ? line2 : line1;
+		}
+	};
+
+	/**
+	 *  computes the ratios for count files args[0] and args[1] (each with
+	 *  lines "count TAB key") and writes them to args[2], in order of key.
+	 *  Both count files are first sorted by key (see CountFiles), and then
+	 *  read in step, so neither needs to fit in memory.  Lines without a
+	 *  tab or a valid count are skipped.
+	 */
+
 	public static void main (String[] args) throws IOException {
 		String countFile1 = args[0];
 		String countFile2 = args[1];
 		String ratioFile = args[2];
 
-		readCounts (countFile1, count1);
-		readCounts (countFile2, count2);
-		computeRatios(new PrintWriter (new FileWriter (ratioFile)));
+		String sortedFile1 = ratioFile + ".1.sorted";
+		String sortedFile2 = ratioFile + ".2.sorted";
+		try {
+			CountFiles.sortByKey(countFile1, sortedFile1, LAST_COUNT);
+			CountFiles.sortByKey(countFile2, sortedFile2, LAST_COUNT);
+			computeRatios(sortedFile1, sortedFile2, new PrintWriter (new FileWriter (ratioFile)));
+		} finally {
+			new File(sortedFile1).delete();
+			new File(sortedFile2).delete();
+		}
+	}
+
+	/**
+	 *  computes the ratios from two count files sorted by key, reading
+	 *  them in step.
+	 */
+
+	public static void computeRatios (String sortedFile1, String sortedFile2, PrintWriter writer) throws IOException {
+		BufferedReader reader1 = new BufferedReader (new FileReader (sortedFile1));
+		BufferedReader reader2 = new BufferedReader (new FileReader (sortedFile2));
+		String line2 = nextCount(reader2);
+		String line1;
+		while ((line1 = nextCount(reader1)) != null) {
+			String key = LAST_COUNT.key(line1);
+			while (line2 != null && LAST_COUNT.key(line2).compareTo(key) < 0) {
+				line2 = nextCount(reader2);
+			}
+			Integer f2 = null;
+			if (line2 != null && LAST_COUNT.key(line2).equals(key))
+				f2 = CountFiles.count(line2);
+			writeRatio(writer, key, CountFiles.count(line1), f2);
+		}
+		reader1.close();
+		reader2.close();
+		writer.close();
 	}
 
-	public static void readCounts (String file, Map<String, Integer> counts) throws IOException {
-		BufferedReader reader = new BufferedReader (new FileReader (file));
+	private static String nextCount (BufferedReader reader) throws IOException {
 		String line;
 		while ((line = reader.readLine()) != null) {
-			String[] field = line.trim().split("\t");
-			if (field.length == 2)
-				counts.put(field[1], Integer.valueOf(field[0]));
+			if (isCount(line))
+				return line;
 		}
+		return null;
 	}
 
-	public static void computeRatios (PrintWriter writer) throws IOException {
-		for (String w : count1.keySet()) {
-			Integer f1 = count1.get(w);
-			Integer f2 = count2.get(w);
-			f1++;
-			f2 = (f2 == null) ? 1 : f2 + 1;
-			float ratio = (float) f1 / f2 * (float) Math.log((float) f1);
-                        writer.printf ("%8.1f\t%s\n", ratio, w);
+	private static boolean isCount (String line) {
+		if (line.indexOf('\t') < 0)
+			return false;
+		try {
+			CountFiles.count(line);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
 		}
-		writer.close();
 	}
-}
-
-
 
+	private static void writeRatio (PrintWriter writer, String w, Integer f1, Integer f2) {
+		f1++;
+		f2 = (f2 == null) ? 1 : f2 + 1;
+		float ratio = (float) f1 / f2 * (float) Math.log((float) f1);
+                writer.printf ("%8.1f\t%s\n", ratio, w);
+	}
+}
@@ -0,0 +1,214 @@
+package edu.nyu.jet.ice.utils;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.procedure.TObjectIntProcedure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts of strings, for tables with millions of entries (words, dependency
+ * paths).  Counts are kept as primitive ints in open-addressing hash tables,
+ * and the keys are only sorted when the counts are written out
+ * (<CODE>sortedKeys</CODE>).
+ * <p>
+ * The table is divided into segments, each with its own lock, so that
+ * several threads may count at once;  a StringCounter may also be used
+ * per thread and the counters combined with <CODE>addAll</CODE>.
+ * <p>
+ * FirstValues is a table of the same form holding, for each key, the first
+ * value recorded for it, such as an example of a dependency path.
+ *
+ * @version 1.0
+ */
+public class StringCounter {
+
+    static final int SEGMENTS = 16;
+
+    private final TObjectIntHashMap<String>[] counts;
+
+    @SuppressWarnings("unchecked")
+    public StringCounter() {
+        counts = new TObjectIntHashMap[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            counts[i] = new TObjectIntHashMap<String>();
+        }
+    }
+
+    private static int segment(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (SEGMENTS - 1);
+    }
+
+    /**
+     * adds 1 to the count of <CODE>key</CODE>.
+     */
+    public void increment(String key) {
+        add(key, 1);
+    }
+
+    /**
+     * adds <CODE>n</CODE> to the count of <CODE>key</CODE>.
+     */
+    public void add(String key, int n) {
+        TObjectIntHashMap<String> segment = counts[segment(key)];
+        synchronized (segment) {
+            segment.adjustOrPutValue(key, n, n);
+        }
+    }
+
+    /**
+     * returns the count of <CODE>key</CODE>, or 0 if it has not been counted.
+     */
+    public int get(String key) {
+        TObjectIntHashMap<String> segment = counts[segment(key)];
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public boolean containsKey(String key) {
+        TObjectIntHashMap<String> segment = counts[segment(key)];
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (TObjectIntHashMap<String> segment : counts) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        for (TObjectIntHashMap<String> segment : counts) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * adds all the counts of <CODE>other</CODE> to this counter.
+     */
+    public void addAll(StringCounter other) {
+        for (TObjectIntHashMap<String> segment : other.counts) {
+            final List<String> keys = new ArrayList<String>();
+            final TIntArrayList values = new TIntArrayList();
+            // copy the segment first, so that no two locks are held at once
+            synchronized (segment) {
+                segment.forEachEntry(new TObjectIntProcedure<String>() {
+                    public boolean execute(String key, int n) {
+                        keys.add(key);
+                        values.add(n);
+                        return true;
+                    }
+                });
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                add(keys.get(i), values.get(i));
+            }
+        }
+    }
+
+    /**
+     * returns the keys, in String order.
+     */
+    public List<String> sortedKeys() {
+        String[] keys = new String[size()];
+        int i = 0;
+        for (TObjectIntHashMap<String> segment : counts) {
+            synchronized (segment) {
+                for (Object key : segment.keys()) {
+                    if (i < keys.length) {
+                        keys[i++] = (String) key;
+                    }
+                }
+            }
+        }
+        if (i < keys.length) {
+            keys = Arrays.copyOf(keys, i);
+        }
+        Arrays.sort(keys);
+        return Arrays.asList(keys);
+    }
+
+    /**
+     * A table from strings to the first value recorded for each, divided
+     * into segments like a StringCounter.
+     */
+    public static class FirstValues {
+
+        private final THashMap<String, String>[] values;
+
+        @SuppressWarnings("unchecked")
+        public FirstValues() {
+            values = new THashMap[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) {
+                values[i] = new THashMap<String, String>();
+            }
+        }
+
+        /**
+         * records <CODE>value</CODE> for <CODE>key</CODE> unless a value has
+         * already been recorded.
+         */
+        public void putIfAbsent(String key, String value) {
+            THashMap<String, String> segment = values[segment(key)];
+            synchronized (segment) {
+                if (!segment.containsKey(key)) {
+                    segment.put(key, value);
+                }
+            }
+        }
+
+        public String get(String key) {
+            THashMap<String, String> segment = values[segment(key)];
+            synchronized (segment) {
+                return segment.get(key);
+            }
+        }
+
+        public boolean containsKey(String key) {
+            THashMap<String, String> segment = values[segment(key)];
+            synchronized (segment) {
+                return segment.containsKey(key);
+            }
+        }
+
+        /**
+         * adds the values of <CODE>other</CODE> for keys which have no value here.
+         */
+        public void addAll(FirstValues other) {
+            for (THashMap<String, String> segment : other.values) {
+                List<String> keys;
+                synchronized (segment) {
+                    keys = new ArrayList<String>(segment.keySet());
+                }
+                for (String key : keys) {
+                    putIfAbsent(key, other.get(key));
+                }
+            }
+        }
+
+        public void clear() {
+            for (THashMap<String, String> segment : values) {
+                synchronized (segment) {
+                    segment.clear();
+                }
+            }
+        }
+    }
+}
@@ -4,12 +4,13 @@ import edu.nyu.jet.JetTest;
 import edu.nyu.jet.ice.controllers.Nice;
 import edu.nyu.jet.ice.entityset.EntitySetIndexer;
 import edu.nyu.jet.ice.models.Corpus;
+import edu.nyu.jet.ice.models.CorpusUpdate;
 import edu.nyu.jet.ice.models.IcePreprocessor;
 import edu.nyu.jet.ice.models.RelationFinder;
 import edu.nyu.jet.ice.uicomps.Ice;
+import edu.nyu.jet.ice.utils.CountFiles;
 import edu.nyu.jet.ice.utils.FileNameSchema;
 import edu.nyu.jet.ice.utils.IceUtils;
-import edu.nyu.jet.ice.utils.ProcessFarm;
 import edu.nyu.jet.ice.views.swing.SwingEntitiesPanel;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
@@ -49,6 +50,8 @@ public class IceCLI {
                 .withDescription("Directory for the new corpus, when combining old corpora").create("t");
         Option fromCorporaOpt = OptionBuilder.withLongOpt("fromCorpora").hasArg().withArgName("fromCorpora")
                 .withDescription("Names for the corpora to be merged").create("s");
+        Option incrementalOpt = OptionBuilder.withLongOpt("incremental")
+                .withDescription("Only preprocess new or changed files, updating the existing counts").create("u");
 	Option branchOpt = OptionBuilder.withLongOpt("branch").hasArg().withArgName("branch")
                 .withDescription("Yaml file for saving and restoring status").create("y");
 	Option fromBranch = OptionBuilder.withLongOpt("fromBranch").hasArg().withArgName("fromBranch")
@@ -58,6 +61,7 @@ public class IceCLI {
         options.addOption(filter);
         options.addOption(entityIndexCutoff);
         options.addOption(numOfProcessesOpt);
+        options.addOption(incrementalOpt);
         options.addOption(targetDir);
         options.addOption(fromCorporaOpt);
         options.addOption(branchOpt);
@@ -80,7 +84,6 @@ public class IceCLI {
             // ----- a d d   C o r p u s -----
             //
             if (action.equals("addCorpus")) {
-                int numOfProcesses = 1;
                 String inputDirName = cmd.getOptionValue("inputDir");
                 if (inputDirName == null) {
                     System.err.println("--inputDir must be set for the addCorpus action.");
@@ -93,24 +96,12 @@ public class IceCLI {
                     printHelp(options);
                     System.exit(-1);
                 }
-                String numOfProcessesStr = cmd.getOptionValue("processes");
-                if (numOfProcessesStr != null) {
-                    try {
-                        numOfProcesses = Integer.valueOf(numOfProcessesStr);
-                        if (numOfProcesses < 1) {
-                            throw new Exception();
-                        }
-                    }
-                    catch (Exception e) {
-                        System.err.println("--processes only accepts an integer (>=1) as parameter");
-                        printHelp(options);
-                        System.exit(-1);
-                    }
-                }
+                int numOfProcesses = getNumOfProcesses(cmd, options);
                 File inputDirFile = new File(inputDirName);
                 if (inputDirFile.exists() && inputDirFile.isDirectory()) {
                     init();
-                    if (Ice.corpora.containsKey(corpusName)) {
+                    boolean incremental = cmd.hasOption("incremental");
+                    if (Ice.corpora.containsKey(corpusName) && !incremental) {
                         System.err.println("Name of corpus already exists. Please choose another name.");
                         System.exit(-1);
                     }
@@ -124,7 +115,8 @@ public class IceCLI {
                         }
                     }
 
-                    Corpus newCorpus = new Corpus(corpusName);
+                    Corpus newCorpus = Ice.corpora.containsKey(corpusName) ?
+                            Ice.corpora.get(corpusName) : new Corpus(corpusName);
                     if (backgroundCorpusName != null) {
                         newCorpus.setBackgroundCorpus(backgroundCorpusName);
                     }
@@ -132,64 +124,24 @@ public class IceCLI {
                     Ice.selectCorpus(corpusName);
                     Ice.selectedCorpus.setDirectory(inputDirName);
                     Ice.selectedCorpus.setFilter(filterName);
+                    if (incremental) {
+                        if (numOfProcesses > 1) {
+                            saveStatus();
+                        }
+                        updateCorpus(numOfProcesses);
+                        System.err.println("Corpus updated successfully.");
+                        return;
+                    }
                     Ice.selectedCorpus.writeDocumentList();
                     if (Ice.selectedCorpus.docListFileName == null) {
                         System.err.println("Unable to find any file that satisfies the filter.");
                         System.exit(-1);
                     }
-                    if (numOfProcesses == 1) {
-                        preprocess(filterName, backgroundCorpusName);
-
-                    }
-                    else {
-                        if (backgroundCorpusName == null) {
-                            System.err.println("[WARNING]\tMultiprocess preprocessing will not handle background corpus.");
-                        }
-                        ProcessFarm processFarm = new ProcessFarm();
-                        // split corpus
-                        try {
-                            String[] docList = IceUtils.readLines(Ice.selectedCorpus.docListFileName);
-                            int splitCount = 1;
-                            int start = 0;
-                            int end   = 0;
-                            int portion = docList.length / numOfProcesses;
-                            if (portion > 0) {
-                                for (int i = 0; i < numOfProcesses; i++) {
-                                    end += portion;
-                                    if (i == 0) {
-                                        end += docList.length % numOfProcesses;
-                                    }
-                                    Corpus splitCorpus = new Corpus(splitCorpusName(corpusName, splitCount));
-                                    splitCorpus.setDirectory(inputDirName);
-                                    splitCorpus.setFilter(filterName);
-                                    String docListFileName = FileNameSchema.getDocListFileName(
-                                            splitCorpusName(corpusName, splitCount));
-                                    IceUtils.writeLines(docListFileName, Arrays.copyOfRange(docList,
-                                            start, end));
-                                    splitCorpus.setDocListFileName(docListFileName);
-                                    Ice.corpora.put(splitCorpusName(corpusName, splitCount), splitCorpus);
-                                    processFarm.addTask(String.format("./icecli preprocess %s",
-                                            splitCorpusName(corpusName, splitCount)));
-                                    start = end;
-                                    splitCount++;
-                                }
-                            }
-                            saveStatus();
-                        }
-                        catch (Exception e) {
-                            System.err.println("Error occured when preparing to submit processes.");
-                            e.printStackTrace();
-                        }
-                        processFarm.submit();
-                        boolean success = processFarm.waitFor();
-                        if (!success) {
-                            System.err.println("[WARNING] processFarm returned with error. Please check log.");
-                        }
-                        if (numOfProcesses > 1) {
-                            System.err.println("Preprocessing finished. Merging splits...");
-                            mergeSplit(corpusName, numOfProcesses);
-                        }
+                    if (numOfProcesses > 1) {
+                        // worker processes find the corpus in the saved status
+                        saveStatus();
                     }
+                    preprocess(filterName, backgroundCorpusName, numOfProcesses);
                     System.err.println("Corpus added successfully.");
                 }
                 else {
@@ -203,27 +155,36 @@ public class IceCLI {
                 init();
                 validateCorpus(corpusName);
                 Ice.selectCorpus(corpusName);
-                preprocess(Ice.selectedCorpus.filter, Ice.selectedCorpus.backgroundCorpus);
+                if (cmd.hasOption("incremental")) {
+                    updateCorpus(getNumOfProcesses(cmd, options));
+                }
+                else {
+                    preprocess(Ice.selectedCorpus.filter, Ice.selectedCorpus.backgroundCorpus,
+                            getNumOfProcesses(cmd, options));
+                }
+            }
+            else if (action.equals("preprocessWorker")) {
+                // the output of Jet goes to stderr;  stdout reports on each document
+                PrintStream out = System.out;
+                System.setOut(System.err);
+                init();
+                validateCorpus(corpusName);
+                Ice.selectCorpus(corpusName);
+                IcePreprocessor icePreprocessor = new IcePreprocessor(
+                        Ice.selectedCorpus.directory,
+                        Ice.iceProperties.getProperty("Ice.IcePreprocessor.parseprops"),
+                        Ice.selectedCorpus.docListFileName,
+                        Ice.selectedCorpus.filter,
+                        FileNameSchema.getPreprocessCacheDir(Ice.selectedCorpusName)
+                );
+                icePreprocessor.serveDocuments(System.in, out);
             }
             else if (action.equals("mergeSplit")) {
-                int numOfProcesses = 1;
+                // only needed for corpora split by earlier versions of addCorpus
                 init();
                 validateCorpus(corpusName);
                 Ice.selectCorpus(corpusName);
-                String numOfProcessesStr = cmd.getOptionValue("processes");
-                if (numOfProcessesStr != null) {
-                    try {
-                        numOfProcesses = Integer.valueOf(numOfProcessesStr);
-                        if (numOfProcesses < 1) {
-                            throw new Exception();
-                        }
-                    }
-                    catch (Exception e) {
-                        System.err.println("--processes only accepts an integer (>=1) as parameter");
-                        printHelp(options);
-                        System.exit(-1);
-                    }
-                }
+                int numOfProcesses = getNumOfProcesses(cmd, options);
                 if (numOfProcesses == 1) {
                     System.err.println("No need to corpus that has 1 split.");
                     System.exit(0);
@@ -486,7 +447,9 @@ public class IceCLI {
 
     /**
      * Merge preprocessed splits for a corpus by creating hard links for each
-     * cache file
+     * cache file.  addCorpus no longer splits corpora (worker processes write
+     * to the cache of the corpus itself), so this is only needed for splits
+     * left by earlier versions.
      * @param corpusName name of the corpus
      * @param numOfProcesses number of splits
      */
@@ -567,154 +530,91 @@ public class IceCLI {
         Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
     }
 
-    // Tables for holding the combined word counts and relations from a set of splits.
+    // The splits (or corpora) whose word counts and relations are to be combined.
 
-    static Map<String, String> wordCount = new HashMap<String, String>();
-    static Map<String, Integer> relationCount = new HashMap<String, Integer>();
-    static Map<String, Integer> relationTypeCount = new HashMap<String, Integer>();
-    static Map<String, String> relationRepr = new HashMap<String, String>();
-    static List<String> events = new ArrayList<String>();
+    static List<String> splitCorpora = new ArrayList<String>();
 
     /**
-     *  Read the word count and relation files from one of the split directories.
+     *  Add the word count and relation files from one of the split directories
+     *  to those to be combined by writeMergedCounts.
      */
 
     public static void readSplitCounts (String corpusName) throws IOException {
-        String wordCountFileName = FileNameSchema.getWordCountFileName(corpusName);
-	System.out.println("Reading " + wordCountFileName);
-        BufferedReader wordReader = new BufferedReader (new FileReader (wordCountFileName));
-	// skip header on file
-        wordReader.readLine();
-        wordReader.readLine();
-        wordReader.readLine();
-        String line;
-        while ((line = wordReader.readLine()) != null) {
-	    String f[] = line.split("\t", 2);
-            String word = f[0];
-	    String counts = f[1];
-            if (wordCount.get(word) == null) {
-	        wordCount.put(word, counts);
-	    } else {
-	        wordCount.put(word, wordCount.get(word) + "\t" + counts);
-	    }
-        }
-        wordReader.close();
-
-	String relationFileName = FileNameSchema.getRelationsFileName(corpusName);
-	System.out.println("Reading " + relationFileName);
-        BufferedReader relationReader = new BufferedReader (new FileReader (relationFileName));
-        while ((line = relationReader.readLine()) != null) {
-	    String f[] = line.split("\t", 2);
-	    int count = 0;
-	    try {
-            	count = Integer.valueOf(f[0]);
-	    } catch (NumberFormatException e) {
-		System.out.println ("Error in " + relationFileName);
-	    }
-	    String relation = f[1];
-            if (relationCount.get(relation) == null) {
-	        relationCount.put(relation, count);
-	    } else {
-	        relationCount.put(relation, relationCount.get(relation) + count);
-	    }
-        }
-        relationReader.close();
-
-	String relationTypesFileName = FileNameSchema.getRelationTypesFileName(corpusName);
-	System.out.println("Reading " + relationTypesFileName);
-        BufferedReader relationTypesReader = new BufferedReader (new FileReader (relationTypesFileName));
-        while ((line = relationTypesReader.readLine()) != null) {
-	    String f[] = line.split("\t", 2);
-	    int count = 0;
-	    try {
-            	count = Integer.valueOf(f[0]);
-	    } catch (NumberFormatException e) {
-		System.out.println ("Error in " + relationTypesFileName);
-	    }
-	    String relation = f[1];
-            if (relationTypeCount.get(relation) == null) {
-	        relationTypeCount.put(relation, count);
-	    } else {
-	        relationTypeCount.put(relation, relationTypeCount.get(relation) + count);
-	    }
-        }
-        relationTypesReader.close();
-
-	String relationReprFileName = FileNameSchema.getRelationReprFileName(corpusName);
-	System.out.println("Reading " + relationReprFileName);
-        BufferedReader relationReprReader = new BufferedReader (new FileReader (relationReprFileName));
-        while ((line = relationReprReader.readLine()) != null) {
-	    String f[] = line.split(":::", 2);
-	    String relation = f[0];
-	    String repr = f[1];
-            String priorRepr = relationRepr.get(relation);
-            if (priorRepr == null || repr.length() < priorRepr.length())
-                // if a choice, take shorter sample sentence
-                relationRepr.put(relation, repr);
-        }
-        relationReprReader.close();
-
-        String depEventFileName = FileNameSchema.getDependencyEventFileName(corpusName);
-        if ((new File(depEventFileName)).exists()) {
-            System.out.println("Reading " + depEventFileName);
-            BufferedReader eventReader = new BufferedReader (new FileReader (depEventFileName));
-            while ((line = eventReader.readLine()) != null) {
-                events.add(line);
+        System.out.println("Reading counts of " + corpusName);
+        for (String fileName : new String[]{FileNameSchema.getWordCountFileName(corpusName),
+                FileNameSchema.getRelationsFileName(corpusName),
+                FileNameSchema.getRelationTypesFileName(corpusName),
+                FileNameSchema.getRelationReprFileName(corpusName)}) {
+            if (!new File(fileName).exists()) {
+                throw new FileNotFoundException(fileName);
             }
-            eventReader.close();
         }
+        splitCorpora.add(corpusName);
     }
 
     /**
      *  Write the result of combining the word counts and relation patterns from all
-     *  the splits.
+     *  the splits.  The count files of the splits are sorted by key and then
+     *  combined by a k-way merge (see CountFiles), so the counts need not fit
+     *  in memory.
      */
 
     public static void writeMergedCounts (int docCount, String corpusName) throws IOException {
         Corpus mergedCorpus = Ice.corpora.get(corpusName);
+        List<String> wordCountFileNames = new ArrayList<String>();
+        List<String> relationsFileNames = new ArrayList<String>();
+        List<String> relationTypesFileNames = new ArrayList<String>();
+        List<String> relationReprFileNames = new ArrayList<String>();
+        List<String> depEventFileNames = new ArrayList<String>();
+        for (String splitCorpus : splitCorpora) {
+            wordCountFileNames.add(FileNameSchema.getWordCountFileName(splitCorpus));
+            relationsFileNames.add(FileNameSchema.getRelationsFileName(splitCorpus));
+            relationTypesFileNames.add(FileNameSchema.getRelationTypesFileName(splitCorpus));
+            relationReprFileNames.add(FileNameSchema.getRelationReprFileName(splitCorpus));
+            String depEventFileName = FileNameSchema.getDependencyEventFileName(splitCorpus);
+            if ((new File(depEventFileName)).exists()) {
+                depEventFileNames.add(depEventFileName);
+            }
+        }
+        splitCorpora.clear();
+
         String wordCountFileName = FileNameSchema.getWordCountFileName(corpusName);
 	System.out.println("Writing " + wordCountFileName);
-        PrintWriter wordWriter = new PrintWriter (new FileWriter (wordCountFileName));
+        PrintWriter wordWriter = new PrintWriter (new BufferedWriter (new FileWriter (wordCountFileName)));
         wordWriter.println("# DOC_COUNT\n# TERM DOC_FREQS");
         wordWriter.println(docCount);
-        for (String word : wordCount.keySet()) {
-	    wordWriter.println(word + "\t" + wordCount.get(word));
-        }
+        CountFiles.sortAndMerge(wordCountFileNames, wordWriter, CountFiles.WORD_COUNTS);
 	wordWriter.close();
 	mergedCorpus.wordCountFileName = wordCountFileName;
 
         String relationsFileName = FileNameSchema.getRelationsFileName(corpusName);
 	System.out.println("Writing " + relationsFileName);
-        PrintWriter relationsWriter = new PrintWriter (new FileWriter (relationsFileName));
-        for (String relation : relationCount.keySet()) {
-	    relationsWriter.println(relationCount.get(relation) + "\t" + relation);
-        }
-	relationsWriter.close();
+        CountFiles.sortAndMerge(relationsFileNames, relationsFileName, CountFiles.COUNT_KEY);
 	mergedCorpus.relationInstanceFileName = relationsFileName;
 
         String relationTypesFileName = FileNameSchema.getRelationTypesFileName(corpusName);
 	System.out.println("Writing " + relationTypesFileName);
-        PrintWriter relationTypesWriter = new PrintWriter (new FileWriter (relationTypesFileName));
-        for (String relation : relationTypeCount.keySet()) {
-	    relationTypesWriter.println(relationTypeCount.get(relation) + "\t" + relation);
-        }
-	relationTypesWriter.close();
+        String mergedTypesFileName = relationTypesFileName + ".merged";
+        CountFiles.sortAndMerge(relationTypesFileNames, mergedTypesFileName, CountFiles.COUNT_KEY);
+        CountFiles.numsort(mergedTypesFileName, relationTypesFileName);
+        new File(mergedTypesFileName).delete();
 	mergedCorpus.relationTypeFileName = relationTypesFileName;
 
         String relationReprFileName = FileNameSchema.getRelationReprFileName(corpusName);
 	System.out.println("Writing " + relationReprFileName);
-        PrintWriter relationReprWriter = new PrintWriter (new FileWriter (relationReprFileName));
-        for (String relation : relationRepr.keySet()) {
-	    relationReprWriter.println(relation + ":::" + relationRepr.get(relation));
-        }
-	relationReprWriter.close();
+        CountFiles.sortAndMerge(relationReprFileNames, relationReprFileName, CountFiles.REPR);
         
         String depEventFileName = FileNameSchema.getDependencyEventFileName(corpusName);
-        if (!events.isEmpty()) {
+        if (!depEventFileNames.isEmpty()) {
             System.out.println("Writing " + depEventFileName);
-            PrintWriter eventWriter = new PrintWriter (new FileWriter (depEventFileName));
-            for (String event : events) {
-                eventWriter.println(event);
+            PrintWriter eventWriter = new PrintWriter (new BufferedWriter (new FileWriter (depEventFileName)));
+            for (String fileName : depEventFileNames) {
+                BufferedReader eventReader = new BufferedReader (new FileReader (fileName));
+                String line;
+                while ((line = eventReader.readLine()) != null) {
+                    eventWriter.println(line);
+                }
+                eventReader.close();
             }
             eventWriter.close();
             EntitySetIndexer esi = new EntitySetIndexer();
@@ -727,6 +627,17 @@ public class IceCLI {
     }
 
     public static void preprocess(String filterName, String backgroundCorpusName) {
+        preprocess(filterName, backgroundCorpusName, 1);
+    }
+
+    /**
+     *  Preprocess the selected corpus.  With more than one process, documents
+     *  are handed out to <CODE>numOfProcesses</CODE> worker processes
+     *  (<CODE>icecli preprocessWorker</CODE>), each taking the next document
+     *  as soon as it is done with the previous one.
+     */
+
+    public static void preprocess(String filterName, String backgroundCorpusName, int numOfProcesses) {
         IcePreprocessor icePreprocessor = new IcePreprocessor(
                 Ice.selectedCorpus.directory,
                 Ice.iceProperties.getProperty("Ice.IcePreprocessor.parseprops"),
@@ -734,6 +645,7 @@ public class IceCLI {
                 filterName,
                 FileNameSchema.getPreprocessCacheDir(Ice.selectedCorpusName)
         );
+        icePreprocessor.setWorkerProcesses(numOfProcesses, workerCommand());
         icePreprocessor.run();
         saveStatus();
         if (backgroundCorpusName == null) {
@@ -741,6 +653,67 @@ public class IceCLI {
         }
     }
 
+    /**
+     *  Incrementally update the selected corpus: preprocess only the files which
+     *  are new or have changed since the last update, and merge their counts
+     *  into the existing count files (see CorpusUpdate).
+     */
+
+    public static void updateCorpus(int numOfProcesses) {
+        CorpusUpdate corpusUpdate = new CorpusUpdate(Ice.selectedCorpus,
+                Ice.iceProperties.getProperty("Ice.IcePreprocessor.parseprops"));
+        corpusUpdate.setWorkerProcesses(numOfProcesses, workerCommand());
+        try {
+            if (!corpusUpdate.update()) {
+                System.err.println("Unable to find any file that satisfies the filter.");
+                System.exit(-1);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Error occured when updating corpus.");
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        saveStatus();
+        if (Ice.selectedCorpus.backgroundCorpus == null) {
+            System.err.println("[WARNING]\tBackground corpus is not set.");
+        }
+    }
+
+    /**
+     *  the command which starts a worker process for the selected corpus,
+     *  as a program and its arguments (corpus names may contain spaces).
+     */
+
+    private static List<String> workerCommand() {
+        List<String> command = new ArrayList<String>();
+        command.add("./icecli");
+        command.add("preprocessWorker");
+        command.add(Ice.selectedCorpusName);
+        command.add("--branch");
+        command.add(branch);
+        return command;
+    }
+
+    private static int getNumOfProcesses(CommandLine cmd, Options options) {
+        int numOfProcesses = 1;
+        String numOfProcessesStr = cmd.getOptionValue("processes");
+        if (numOfProcessesStr != null) {
+            try {
+                numOfProcesses = Integer.valueOf(numOfProcessesStr);
+                if (numOfProcesses < 1) {
+                    throw new Exception();
+                }
+            }
+            catch (Exception e) {
+                System.err.println("--processes only accepts an integer (>=1) as parameter");
+                printHelp(options);
+                System.exit(-1);
+            }
+        }
+        return numOfProcesses;
+    }
+
     private static void validateCurrentBackground() {
         if (Ice.selectedCorpus.backgroundCorpus == null) {
             System.err.println("Background corpus is not set yet. Please use setBackground to pick a background corpus.");
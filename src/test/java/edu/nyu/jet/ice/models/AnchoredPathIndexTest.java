@@ -0,0 +1,194 @@
+package edu.nyu.jet.ice.models;
+
+import edu.nyu.jet.aceJet.AnchoredPath;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds AnchoredPathIndexes from small relation instance files and compares their answers with those found by
+ * parsing the instance files directly.
+ */
+public class AnchoredPathIndexTest {
+
+	static final String[] ARGS = {"PERSON", "ORGANIZATION", "GPE", "a", "a:b", "b", "b:c", "c", "café", "x:y:z"};
+
+	static final String[] PATHS = {"nsubj-1:sell:dobj", "poss-1:president:prep_of", "nn-1", "prep_in", "dobj-1:own:nsubj",
+			"rcmod:été:dobj"};
+
+	/**
+	 * The instances of a relation instance file, parsed line by line.
+	 */
+	static class Instances {
+		Map<String, Set<String>> byPath = new HashMap<String, Set<String>>();
+		Map<String, Set<String>> byArgs = new HashMap<String, Set<String>>();
+		Map<String, Set<String>> keysOfPath = new HashMap<String, Set<String>>();
+		Map<String, Set<String>> pathsOfKey = new HashMap<String, Set<String>>();
+
+		Instances(File textFile) throws IOException {
+			BufferedReader reader = new BufferedReader(new FileReader(textFile));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t", 2);
+				String[] fields = parts[1].split(" -- ");
+				if (fields.length != 3) continue;
+				String arg1 = fields[0], path = fields[1], arg2 = fields[2];
+				String key = arg1 + ":" + arg2;
+				put(byPath, path, instance(arg1, path, arg2));
+				put(byArgs, key, instance(arg1, path, arg2));
+				put(keysOfPath, path, key);
+				put(pathsOfKey, key, path);
+			}
+			reader.close();
+		}
+
+		private static void put(Map<String, Set<String>> map, String key, String value) {
+			Set<String> values = map.get(key);
+			if (values == null) {
+				values = new HashSet<String>();
+				map.put(key, values);
+			}
+			values.add(value);
+		}
+	}
+
+	static String instance(String arg1, String path, String arg2) {
+		return arg1 + " -- " + path + " -- " + arg2;
+	}
+
+	private static Set<String> instances(List<AnchoredPath> paths) {
+		Set<String> result = new HashSet<String>();
+		for (AnchoredPath p : paths) {
+			result.add(instance(p.arg1, p.path, p.arg2));
+		}
+		assertEquals("duplicate instances", paths.size(), result.size());
+		return result;
+	}
+
+	private File writeInstances(List<String> lines) throws IOException {
+		File textFile = File.createTempFile("instances", "");
+		textFile.deleteOnExit();
+		// in the default charset, as DepPaths writes it
+		PrintWriter pw = new PrintWriter(new FileWriter(textFile));
+		for (String line : lines) {
+			pw.println(line);
+		}
+		pw.close();
+		return textFile;
+	}
+
+	private AnchoredPathIndex index(File textFile) throws IOException {
+		File indexFile = new File(textFile.getPath() + AnchoredPathIndex.SUFFIX);
+		indexFile.deleteOnExit();
+		AnchoredPathIndex.write(textFile, indexFile);
+		return new AnchoredPathIndex(indexFile);
+	}
+
+	private void assertSameAsInstances(List<String> lines) throws IOException {
+		File textFile = writeInstances(lines);
+		AnchoredPathIndex index = index(textFile);
+		Instances expected = new Instances(textFile);
+		assertEquals(expected.byPath.size(), index.pathCount());
+		assertEquals(expected.byArgs.size(), index.keyCount());
+
+		for (String path : expected.byPath.keySet()) {
+			assertEquals(path, expected.byPath.get(path), instances(index.getByPath(path)));
+			int p = index.findPath(path);
+			assertEquals(path, index.path(p));
+			assertEquals(path, expected.keysOfPath.get(path).size(), index.keyCountOfPath(p));
+		}
+		for (String key : expected.byArgs.keySet()) {
+			assertEquals(key, expected.byArgs.get(key), instances(index.getByArgs(key)));
+		}
+
+		Set<String> pairs = new HashSet<String>();
+		for (int pair = 0; pair < index.pairCount(); pair++) {
+			String arg1 = index.arg1(pair);
+			String arg2 = index.arg2(pair);
+			String key = arg1 + ":" + arg2;
+			pairs.add(arg1 + "\t" + arg2);
+			Set<String> paths = new HashSet<String>();
+			int previous = -1;
+			for (int p : index.pathsOfKey(index.keyOfPair(pair))) {
+				assertTrue("paths of key not in increasing order", p > previous);
+				previous = p;
+				paths.add(index.path(p));
+			}
+			assertEquals(key, expected.pathsOfKey.get(key), paths);
+		}
+		assertEquals("duplicate argument pairs", index.pairCount(), pairs.size());
+
+		assertNull(index.getByPath("no:such:path"));
+		assertEquals(-1, index.findPath("no:such:path"));
+		assertNull(index.getByArgs("no:such"));
+	}
+
+	@Test
+	public void indexesInstances() throws IOException {
+		assertSameAsInstances(Arrays.asList(
+				"3\tPERSON -- nsubj-1:sell:dobj -- ORGANIZATION",
+				"1\tPERSON -- poss-1:president:prep_of -- GPE",
+				"2\tPERSON -- nsubj-1:sell:dobj -- ORGANIZATION",
+				"1\tGPE -- nsubj-1:sell:dobj -- ORGANIZATION",
+				"1\tcafé -- rcmod:été:dobj -- GPE"));
+	}
+
+	@Test
+	public void skipsMalformedLines() throws IOException {
+		List<String> lines = Arrays.asList(
+				"1\tPERSON -- nn-1 -- GPE",
+				"1\tPERSON -- nn-1",
+				"1\tno separator",
+				"1\t");
+		AnchoredPathIndex index = index(writeInstances(lines));
+		assertEquals(1, index.pathCount());
+		assertEquals(1, index.pairCount());
+		assertSameAsInstances(Arrays.asList("1\tPERSON -- nn-1 -- GPE"));
+	}
+
+	@Test
+	public void mergesArgumentPairsWithTheSameKey() throws IOException {
+		// "a:b" + "c" and "a" + "b:c" are different pairs with the same key "a:b:c"
+		List<String> lines = Arrays.asList(
+				"1\ta:b -- nn-1 -- c",
+				"1\ta -- nn-1 -- b:c",
+				"1\ta -- prep_in -- b:c",
+				"1\ta:b -- dobj-1:own:nsubj -- c",
+				"1\ta -- dobj-1:own:nsubj -- b",
+				"1\tb -- prep_in -- c");
+		AnchoredPathIndex index = index(writeInstances(lines));
+		assertEquals(4, index.pairCount());
+		assertEquals(3, index.keyCount());
+		int nn = index.findPath("nn-1");
+		assertEquals(2, index.pairsOfPath(nn).length);
+		assertEquals(1, index.keyCountOfPath(nn));
+		assertEquals(2, index.keyCountOfPath(index.findPath("dobj-1:own:nsubj")));
+		assertEquals(4, index.getByArgs("a:b:c").size());
+		assertSameAsInstances(lines);
+	}
+
+	@Test
+	public void matchesInstancesOnRandomFiles() throws IOException {
+		Random random = new Random(21);
+		for (int file = 0; file < 20; file++) {
+			List<String> lines = new ArrayList<String>();
+			int n = random.nextInt(2000);
+			for (int i = 0; i < n; i++) {
+				// many distinct arguments, so that posting lists need more than one byte per id
+				String arg1 = ARGS[random.nextInt(ARGS.length)] + (random.nextBoolean() ? "" : random.nextInt(50));
+				String arg2 = ARGS[random.nextInt(ARGS.length)];
+				String path = PATHS[random.nextInt(PATHS.length)];
+				lines.add((1 + random.nextInt(5)) + "\t" + instance(arg1, path, arg2));
+			}
+			assertSameAsInstances(lines);
+		}
+	}
+}
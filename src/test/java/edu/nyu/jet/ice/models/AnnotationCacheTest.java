@@ -0,0 +1,188 @@
+package edu.nyu.jet.ice.models;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes annotation caches and reads them back, in the binary format and in
+ * the text format of earlier versions of ICE.
+ */
+public class AnnotationCacheTest {
+
+	private File tempFile() throws IOException {
+		File file = File.createTempFile("annotationCache", ".pos");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private AnnotationCache writeAndRead(AnnotationCache cache) throws IOException {
+		File file = tempFile();
+		cache.write(file.getPath());
+		return AnnotationCache.read(file.getPath());
+	}
+
+	@Test
+	public void readsBackEachSection() throws IOException {
+		AnnotationCache cache = new AnnotationCache();
+		cache.section(AnnotationCache.TAGGER).add(0, 4, "NNP");
+		cache.section(AnnotationCache.TAGGER).add(5, 9, "VBD");
+		cache.section(AnnotationCache.TAGGER).add(10, 14, "NNP");
+		cache.section(AnnotationCache.ENAMEX).add(0, 4, "PERSON");
+		cache.section(AnnotationCache.TERM).add("cocaine", 3);
+		cache.section(AnnotationCache.TERM).add("café", 1);
+		cache.section(AnnotationCache.JET_EXTENT).add(0, 4, "doc-E1-1");
+		cache.section(AnnotationCache.DEP).add("nsubj", "sold", 5, "VBD", "John", 0, "NNP");
+		cache.section(AnnotationCache.SENTENCE).add(0, 15);
+		cache.section(AnnotationCache.TOKEN).add(0, 5, "cap", AnnotationCache.NO_INTVALUE);
+		cache.section(AnnotationCache.TOKEN).add(10, 13, "", 12);
+
+		AnnotationCache read = writeAndRead(cache);
+
+		AnnotationCache.Section tagger = read.section(AnnotationCache.TAGGER);
+		assertEquals(3, tagger.size());
+		assertEquals(5, tagger.getInt(AnnotationCache.TAGGER_START, 1));
+		assertEquals(9, tagger.getInt(AnnotationCache.TAGGER_END, 1));
+		assertEquals("VBD", tagger.getString(AnnotationCache.TAGGER_CAT, 1));
+		assertEquals("NNP", tagger.getString(AnnotationCache.TAGGER_CAT, 2));
+
+		AnnotationCache.Section enamex = read.section(AnnotationCache.ENAMEX);
+		assertEquals(1, enamex.size());
+		assertEquals(4, enamex.getInt(AnnotationCache.ENAMEX_END, 0));
+		assertEquals("PERSON", enamex.getString(AnnotationCache.ENAMEX_TYPE, 0));
+
+		AnnotationCache.Section terms = read.section(AnnotationCache.TERM);
+		assertEquals(2, terms.size());
+		assertEquals("cocaine", terms.getString(AnnotationCache.TERM_TEXT, 0));
+		assertEquals(3, terms.getInt(AnnotationCache.TERM_COUNT, 0));
+		assertEquals("café", terms.getString(AnnotationCache.TERM_TEXT, 1));
+
+		AnnotationCache.Section extents = read.section(AnnotationCache.JET_EXTENT);
+		assertEquals(1, extents.size());
+		assertEquals("doc-E1-1", extents.getString(AnnotationCache.JET_EXTENT_ID, 0));
+
+		AnnotationCache.Section dep = read.section(AnnotationCache.DEP);
+		assertEquals(1, dep.size());
+		assertEquals("nsubj", dep.getString(AnnotationCache.DEP_TYPE, 0));
+		assertEquals("sold", dep.getString(AnnotationCache.DEP_SOURCE_WORD, 0));
+		assertEquals(5, dep.getInt(AnnotationCache.DEP_SOURCE_POSN, 0));
+		assertEquals("VBD", dep.getString(AnnotationCache.DEP_SOURCE_POS, 0));
+		assertEquals("John", dep.getString(AnnotationCache.DEP_TARGET_WORD, 0));
+		assertEquals(0, dep.getInt(AnnotationCache.DEP_TARGET_POSN, 0));
+		assertEquals("NNP", dep.getString(AnnotationCache.DEP_TARGET_POS, 0));
+
+		AnnotationCache.Section sentences = read.section(AnnotationCache.SENTENCE);
+		assertEquals(1, sentences.size());
+		assertEquals(15, sentences.getInt(AnnotationCache.SENTENCE_END, 0));
+
+		AnnotationCache.Section tokens = read.section(AnnotationCache.TOKEN);
+		assertEquals(2, tokens.size());
+		assertEquals("cap", tokens.getString(AnnotationCache.TOKEN_CASE, 0));
+		assertEquals(AnnotationCache.NO_INTVALUE, tokens.getInt(AnnotationCache.TOKEN_INTVALUE, 0));
+		assertEquals("", tokens.getString(AnnotationCache.TOKEN_CASE, 1));
+		assertEquals(12, tokens.getInt(AnnotationCache.TOKEN_INTVALUE, 1));
+	}
+
+	@Test
+	public void readsNullStrings() throws IOException {
+		AnnotationCache cache = new AnnotationCache();
+		cache.section(AnnotationCache.TOKEN).add(0, 5, null, AnnotationCache.NO_INTVALUE);
+		cache.section(AnnotationCache.TOKEN).add(6, 8, "forcedCap", AnnotationCache.NO_INTVALUE);
+		cache.section(AnnotationCache.DEP).add("nsubj", "sold", 5, null, "John", 0, "NNP");
+		cache.section(AnnotationCache.TAGGER).add(0, 5, "NNP");
+
+		AnnotationCache read = writeAndRead(cache);
+
+		AnnotationCache.Section tokens = read.section(AnnotationCache.TOKEN);
+		assertNull(tokens.getString(AnnotationCache.TOKEN_CASE, 0));
+		assertEquals("forcedCap", tokens.getString(AnnotationCache.TOKEN_CASE, 1));
+		AnnotationCache.Section dep = read.section(AnnotationCache.DEP);
+		assertNull(dep.getString(AnnotationCache.DEP_SOURCE_POS, 0));
+		assertEquals("NNP", dep.getString(AnnotationCache.DEP_TARGET_POS, 0));
+
+		// a section read from a file can be added to, and null still round-trips;
+		// sections never requested (tagger) are written back too
+		tokens.add(9, 12, null, 7);
+		tokens.add(13, 15, "forcedCap", AnnotationCache.NO_INTVALUE);
+		AnnotationCache reread = writeAndRead(read);
+		tokens = reread.section(AnnotationCache.TOKEN);
+		assertEquals(4, tokens.size());
+		assertNull(tokens.getString(AnnotationCache.TOKEN_CASE, 2));
+		assertEquals(7, tokens.getInt(AnnotationCache.TOKEN_INTVALUE, 2));
+		assertEquals("forcedCap", tokens.getString(AnnotationCache.TOKEN_CASE, 3));
+		assertEquals("sold", reread.section(AnnotationCache.DEP).getString(AnnotationCache.DEP_SOURCE_WORD, 0));
+		assertEquals(1, reread.section(AnnotationCache.TAGGER).size());
+		assertEquals("NNP", reread.section(AnnotationCache.TAGGER).getString(AnnotationCache.TAGGER_CAT, 0));
+	}
+
+	@Test
+	public void readsEmptySections() throws IOException {
+		AnnotationCache cache = new AnnotationCache();
+		cache.section(AnnotationCache.TAGGER).add(0, 4, "NNP");
+
+		AnnotationCache read = writeAndRead(cache);
+
+		assertEquals(0, read.section(AnnotationCache.ENAMEX).size());
+		assertEquals(0, read.section(AnnotationCache.TERM).size());
+		assertEquals(0, read.section(AnnotationCache.DEP).size());
+		assertEquals(0, read.section(AnnotationCache.TOKEN).size());
+		assertEquals(1, read.section(AnnotationCache.TAGGER).size());
+		assertEquals("NNP", read.section(AnnotationCache.TAGGER).getString(AnnotationCache.TAGGER_CAT, 0));
+
+		AnnotationCache empty = writeAndRead(new AnnotationCache());
+		assertEquals(0, empty.section(AnnotationCache.TAGGER).size());
+		assertEquals(0, empty.section(AnnotationCache.SENTENCE).size());
+	}
+
+	@Test
+	public void readsTextFormat() throws IOException {
+		File file = tempFile();
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file)));
+		pw.println("tagger\t0\t4\tNNP");
+		pw.println("ENAMEX\t0\t4\tPERSON");
+		pw.println("tagger\t5\t9\tVBD");
+		pw.println("term\tcocaine\t3\r");
+		pw.println("ENAMEX\t0\t4");
+		pw.println("jetExtent\t0\t4\tdoc-E1-1");
+		pw.close();
+
+		AnnotationCache read = AnnotationCache.read(file.getPath());
+
+		assertTrue(read.contains(AnnotationCache.TAGGER));
+		assertFalse(read.contains(AnnotationCache.SENTENCE));
+		assertFalse(read.contains(AnnotationCache.TOKEN));
+
+		AnnotationCache.Section tagger = read.section(AnnotationCache.TAGGER);
+		assertEquals(2, tagger.size());
+		assertEquals(0, tagger.getInt(AnnotationCache.TAGGER_START, 0));
+		assertEquals("NNP", tagger.getString(AnnotationCache.TAGGER_CAT, 0));
+		assertEquals(5, tagger.getInt(AnnotationCache.TAGGER_START, 1));
+		assertEquals("VBD", tagger.getString(AnnotationCache.TAGGER_CAT, 1));
+
+		// the malformed ENAMEX line is skipped
+		AnnotationCache.Section enamex = read.section(AnnotationCache.ENAMEX);
+		assertEquals(1, enamex.size());
+		assertEquals("PERSON", enamex.getString(AnnotationCache.ENAMEX_TYPE, 0));
+
+		AnnotationCache.Section terms = read.section(AnnotationCache.TERM);
+		assertEquals(1, terms.size());
+		assertEquals("cocaine", terms.getString(AnnotationCache.TERM_TEXT, 0));
+		assertEquals(3, terms.getInt(AnnotationCache.TERM_COUNT, 0));
+
+		assertEquals("doc-E1-1", read.section(AnnotationCache.JET_EXTENT).getString(AnnotationCache.JET_EXTENT_ID, 0));
+		assertEquals(0, read.section(AnnotationCache.SENTENCE).size());
+		assertEquals(0, read.section(AnnotationCache.DEP).size());
+
+		// a cache read from a text file is written back in the binary format
+		AnnotationCache converted = writeAndRead(read);
+		assertEquals(2, converted.section(AnnotationCache.TAGGER).size());
+		assertEquals("VBD", converted.section(AnnotationCache.TAGGER).getString(AnnotationCache.TAGGER_CAT, 1));
+		assertEquals(1, converted.section(AnnotationCache.ENAMEX).size());
+	}
+}
@@ -0,0 +1,89 @@
+package edu.nyu.jet.ice.models;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the single-pass DepPathRegularizer.regularize(String) gives the
+ * same result as applying one pattern per quantifier (regularizeByPatterns).
+ */
+public class DepPathRegularizerTest {
+
+	static final String[] LABELS = {"nsubj", "dobj", "nsubj-1", "dobj-1", "prep_of", "prep_of-1",
+			"prep_in", "nn", "amod-1", "rcmod", "poss"};
+
+	static final String[] WORDS = {"sell", "buy", "pound", "ounce", "gram", "cocaine", "heroin",
+			"amount", "police", "seize", "12", "kilo", "city"};
+
+	private final DepPathRegularizer regularizer = new DepPathRegularizer();
+
+	private void assertSameAsPatterns(String path) {
+		assertEquals(path, regularizer.regularizeByPatterns(path), regularizer.regularize(path));
+	}
+
+	@Test
+	public void leavesPathsWithoutQuantifiers() {
+		assertEquals("nsubj:sell:dobj", regularizer.regularize("nsubj:sell:dobj"));
+		assertEquals("prep_of", regularizer.regularize("prep_of"));
+		assertEquals("", regularizer.regularize(""));
+	}
+
+	@Test
+	public void removesQuantityPhrases() {
+		assertEquals("nsubj-1:sell:dobj", regularizer.regularize("nsubj-1:sell:dobj:pound:prep_of"));
+		assertEquals("nsubj-1:sell:dobj:cocaine", regularizer.regularize("nsubj-1:sell:dobj:ounce:prep_of:cocaine"));
+		assertEquals("nsubj:seize:dobj", regularizer.regularize("nsubj:seize:dobj:amount:prep_of:kilo:prep_of"));
+	}
+
+	@Test
+	public void removesRcmodWithNumber() {
+		assertEquals("nsubj:dobj", regularizer.regularize("nsubj:rcmod:12:dobj"));
+		assertEquals("nsubj:rcmod:city:dobj", regularizer.regularize("nsubj:rcmod:city:dobj"));
+		assertSameAsPatterns("rcmod:12:rcmod:7:dobj");
+		assertSameAsPatterns("nsubj:rcmod:12:");
+		assertSameAsPatterns("nsubj:rcmod:12");
+	}
+
+	@Test
+	public void fallsBackWhenADeletionCreatesAMatch() {
+		assertSameAsPatterns("dobj:ounce:gram:prep_of:prep_of:cocaine");
+		assertSameAsPatterns("dobj:gram:ounce:prep_of:prep_of:cocaine");
+		assertSameAsPatterns("dobj:pound:pound:prep_of:prep_of");
+		assertSameAsPatterns("dobj:kilo:amount:prep_of:prep_of:rcmod:12:nn");
+	}
+
+	@Test
+	public void fallsBackOnMatchesWithinTokens() {
+		assertSameAsPatterns("nsubj:pound:prep_ofx:city");
+		assertSameAsPatterns("nsubj:xpound:prep_of:city");
+		assertSameAsPatterns("nsubj:xrcmod:12:dobj");
+		assertSameAsPatterns("nsubj:rcmod:12x:dobj");
+	}
+
+	@Test
+	public void matchesPatternsOnRandomPaths() {
+		Random random = new Random(17);
+		for (int i = 0; i < 100000; i++) {
+			int length = 1 + random.nextInt(5);
+			StringBuilder sb = new StringBuilder();
+			sb.append(LABELS[random.nextInt(LABELS.length)]);
+			for (int j = 1; j < length; j++) {
+				sb.append(':').append(WORDS[random.nextInt(WORDS.length)]);
+				sb.append(':').append(LABELS[random.nextInt(LABELS.length)]);
+			}
+			assertSameAsPatterns(sb.toString());
+		}
+	}
+
+	@Test
+	public void followsChangesToTheQuantifiers() {
+		DepPathRegularizer r = new DepPathRegularizer();
+		r.quantifiers.add("ton");
+		assertEquals("dobj:coal", r.regularize("dobj:ton:prep_of:coal"));
+		r.quantifiers.add("12-pack");
+		assertEquals(r.regularizeByPatterns("dobj:12-pack:prep_of:beer"), r.regularize("dobj:12-pack:prep_of:beer"));
+	}
+}